@@ -0,0 +1,51 @@
+package mygame;
+
+import mygame.multiplayer.client.LoadGenerator;
+import mygame.multiplayer.server.MainServer;
+
+/**
+ * The program to put the server under load, to find how much it can take.
+ * <p>
+ * The load is configured with system properties
+ * (see {@link LoadGenerator.Profile#fromSystemProperties()}), e.g.
+ * <pre>
+ *   java -Dmygame.load.bots=5000 -Dmygame.load.ramp=STEP mygame.LoadTest
+ * </pre>
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class LoadTest
+{
+    /**
+     * Entry point to the program.
+     * <p>
+     * The {@link Server} program must be running.
+     *
+     * @param args none
+     */
+    public static void main(final String[] args)
+    {
+        if(!MainServer.isRunning())
+        {
+            System.err.println("Server is not running.");
+            System.exit(1);
+        }
+
+        final LoadGenerator.Profile profile;
+        try
+        {
+            profile = LoadGenerator.Profile.fromSystemProperties();
+        } catch(final IllegalArgumentException e)
+        {
+            System.err.println("Invalid load profile: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        new LoadGenerator(profile).run();
+        System.exit(0);
+    }
+
+    private LoadTest() {}
+}
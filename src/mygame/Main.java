@@ -7,9 +7,10 @@ import mygame.terminal.TUI;
 import mygame.terminal.Option;
 import mygame.game.TicTacToe;
 import mygame.multiplayer.Protocol;
+import mygame.multiplayer.Standings;
 import mygame.multiplayer.client.Client;
-import mygame.multiplayer.client.CPU;
 import mygame.multiplayer.client.Player;
+import mygame.multiplayer.client.Spectator;
 import mygame.multiplayer.server.MainServer;
 import mygame.multiplayer.services.Scheduler;
 
@@ -43,6 +44,7 @@ public final class Main
      *             <ul>
      *             <li>PvP: start a player vs player game</li>
      *             <li>CPU: start a player vs CPU game</li>
+     *             <li>Watch: watch a game being played</li>
      *             </ul>
      *             If no subcommand is given, the user will be prompted to choose.
      */
@@ -94,11 +96,14 @@ public final class Main
 
             TUI.clearScreen();
             System.out.println("Welcome to multiplayer Tic Tac Toe!");
+            Standings.find(Client.getUserPlayerName())
+                     .ifPresent(rank -> System.out.printf("You are ranked #%d of %d, with a rating of %d.%n",
+                                                          rank.rank(), rank.players(), rank.rating()));
             System.out.println();
 
             if(arg == null)
             {
-                opponent = terminal.prompt("Play against CPU or another player?",
+                opponent = terminal.prompt("Play against CPU or another player, or watch a game?",
                                            Opponent.class);
             } else
             {
@@ -107,8 +112,9 @@ public final class Main
 
             gameResult = switch(opponent)
             {
-                case CPU -> playVsCPU();
-                case PvP -> playVsPlayer();
+                case CPU -> playVsCPU(promptPlayers());
+                case PvP -> playVsPlayer(promptPlayers());
+                case Watch -> watchGame();
             };
 
             if(gameResult == TicTacToe.Status.ERROR)
@@ -122,41 +128,75 @@ public final class Main
         System.out.println("Thanks for playing!");
     }
 
+    /**
+     * Prompts the user to choose how many players to play with.
+     *
+     * @return the number of players, including the user
+     */
+    private static int promptPlayers()
+    {
+        return terminal.prompt("How many players?", Table.class).players();
+    }
+
     /**
      * Starts a game with the CPU.
      * This blocks the current thread until the game finishes.
+     * <p>
+     * The CPU opponents are the server's bots (see {@link MainServer}),
+     * so the game never goes through the queue of human players.
      *
+     * @param players the number of players, including the user
      * @return the game result
      */
-    private static TicTacToe.Status playVsCPU()
+    private static TicTacToe.Status playVsCPU(final int players)
     {
-        /*
-         * This is a hack. You're not really playing against the CPU, but a CPU is
-         * created to play with you.
-         *
-         * This is problematic because this CPU may accidentally be matched with another
-         * user who's expecting to play against a human.
-         *
-         * It's unlikely though, and I don't have time to fix this.
-         */
-        new CPU();
-        return playVsPlayer();
+        return Scheduler.wait(new Player(true, players));
     }
 
     /**
-     * Starts a game with another player.
+     * Starts a game with other players.
      * This blocks the current thread until the game finishes.
      *
+     * @param players the number of players, including the user
      * @return the game result
      */
-    private static TicTacToe.Status playVsPlayer()
+    private static TicTacToe.Status playVsPlayer(final int players)
+    {
+        return Scheduler.wait(new Player(false, players));
+    }
+
+    /**
+     * Watches a game being played, if there is one.
+     * This blocks the current thread until the game finishes.
+     *
+     * @return the game result, {@code WON} or {@code TIE} for the spectator,
+     *         or {@code null} if there was no game to watch
+     */
+    private static TicTacToe.Status watchGame()
     {
-        return Scheduler.wait(new Player());
+        final Optional<String> gameID;
+        gameID = Spectator.findGame();
+        if(gameID.isEmpty())
+        {
+            System.out.println("No games are being played right now.");
+            return null;
+        }
+        return Scheduler.wait(new Spectator(gameID.get()));
     }
 
     private enum Opponent
     {
-        CPU, PvP
+        CPU, PvP, Watch
+    }
+
+    private enum Table
+    {
+        Two, Three, Four, Five, Six;
+
+        int players()
+        {
+            return TicTacToe.MIN_PLAYERS + ordinal();
+        }
     }
 
     private Main() {}
@@ -13,7 +13,9 @@ public class Server
     /**
      * Entry point to the program.
      *
-     * @param args none to start the server, or "interrupt" to stop it
+     * @param args none to start the server, "interrupt" to stop it,
+     *             "handoff" to start a server that takes over from those running,
+     *             or "replay" to replay the archived games
      */
     public static void main(final String[] args)
     {
@@ -23,10 +25,16 @@ public class Server
         } else if(args[0].equalsIgnoreCase("interrupt"))
         {
             MainServer.interrupt();
+        } else if(args[0].equalsIgnoreCase("handoff"))
+        {
+            new MainServer().relieveOthers();
+        } else if(args[0].equalsIgnoreCase("replay"))
+        {
+            MainServer.replayArchive();
         } else
         {
             System.out.println("Invalid command: " + args[0]);
-            System.out.println("Usage: server [interrupt]");
+            System.out.println("Usage: server [interrupt | handoff | replay]");
             System.exit(1);
         }
     }
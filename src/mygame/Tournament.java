@@ -0,0 +1,105 @@
+package mygame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mygame.game.Arena;
+import mygame.game.Engine;
+
+/**
+ * The program to compare move-selection algorithms, by playing them against each other
+ * (see {@link Arena}). No server is needed: the games are played in memory.
+ * <p>
+ * For example, to play the built-in engines and a custom one 1000 games per pairing:
+ * <pre>
+ *   java mygame.Tournament --games 1000 nearest random com.example.MyEngine
+ * </pre>
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class Tournament
+{
+    private static final int DEFAULT_GAMES = 100;
+
+    /**
+     * Entry point to the program.
+     *
+     * @param args the options, then the engines' names (see {@link Engine#load}):
+     *             <ul>
+     *             <li>--gauntlet: the first engine plays all the others,
+     *             instead of a round robin</li>
+     *             <li>--games N: games per pairing (default {@value #DEFAULT_GAMES})</li>
+     *             <li>--threads N: games played at once (default: one per core)</li>
+     *             <li>--out FILE: also write the results table to a file</li>
+     *             </ul>
+     */
+    public static void main(final String[] args)
+    {
+        final List<Arena.Entry>    entries;
+        final Map<String, Integer> names;
+        final List<Arena.Standing> standings;
+        final String               table;
+        Arena.Format               format;
+        int                        games;
+        int                        threads;
+        Path                       out;
+
+        entries = new ArrayList<>();
+        names   = new HashMap<>();
+        format  = Arena.Format.ROUND_ROBIN;
+        games   = DEFAULT_GAMES;
+        threads = Runtime.getRuntime().availableProcessors();
+        out     = null;
+
+        try
+        {
+            for(int i = 0; i < args.length; i++)
+            {
+                switch(args[i])
+                {
+                    case "--gauntlet" -> format = Arena.Format.GAUNTLET;
+                    case "--games" -> games = Integer.parseInt(args[++i]);
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--out" -> out = Path.of(args[++i]);
+                    default ->
+                    {
+                        final int count;
+                        count = names.merge(args[i], 1, Integer::sum);
+                        entries.add(new Arena.Entry(count == 1 ? args[i] : args[i] + "#" + count,
+                                                    Engine.load(args[i])));
+                    }
+                }
+            }
+            standings = new Arena(entries, format, games, threads).run();
+        } catch(final IllegalArgumentException | IndexOutOfBoundsException e)
+        {
+            System.err.println("Invalid arguments: " + e.getMessage());
+            System.err.println("Usage: tournament [--gauntlet] [--games N] [--threads N] " +
+                               "[--out FILE] engine engine...");
+            System.exit(1);
+            return;
+        }
+
+        table = Arena.format(standings);
+        System.out.print(table);
+        if(out != null)
+        {
+            try
+            {
+                Files.writeString(out, table);
+            } catch(final IOException e)
+            {
+                System.err.println("Could not write " + out + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    private Tournament() {}
+}
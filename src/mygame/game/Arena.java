@@ -0,0 +1,412 @@
+package mygame.game;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares {@link Engine}s by having them play each other, many games at once.
+ * <p>
+ * Games are played in memory, straight on a {@link TicTacToe}, without a server,
+ * files or clients, so thousands of them take seconds rather than hours.
+ * They're spread over a fixed pool of threads, one per core by default,
+ * each {@link TicTacToe#reset reusing} one game for all the games it plays.
+ * <p>
+ * Two formats are supported (see {@link Format}): a round robin, where every engine
+ * plays every other, and a gauntlet, where the first engine plays all the others.
+ * Each pairing plays the same number of games, alternating who moves first.
+ * An engine that throws, or returns a move that isn't available, loses the game.
+ * <p>
+ * The results are given as {@link Standing}s, with an Elo estimate and its error bars:
+ * a performance rating against the opponents each engine played, taken as 0.
+ * That is, relative to the field in a round robin; in a gauntlet, relative to
+ * the first engine, except for the first engine itself, which is relative to the others.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class Arena
+{
+    private static final int    PLAYERS         = 2;
+    private static final double CONFIDENCE_95   = 1.96;
+    private static final double ELO_SCALE       = 400;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private static final String[]               SEAT_IDS = {"0", "1"};
+    private static final ThreadLocal<TicTacToe> GAMES    = ThreadLocal.withInitial(() -> new TicTacToe(SEAT_IDS));
+
+    private final List<Entry> entries;
+    private final Format      format;
+    private final int         gamesPerPairing;
+    private final int         threads;
+
+    /**
+     * An engine taking part, under a name.
+     *
+     * @param name   the name in the results
+     * @param engine the engine
+     */
+    public record Entry(String name, Engine engine) {}
+
+    /**
+     * Who plays whom.
+     */
+    public enum Format
+    {
+        /**
+         * Every engine plays every other.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * The first engine plays every other; the others don't play each other.
+         */
+        GAUNTLET
+    }
+
+    /**
+     * An engine's results.
+     *
+     * @param name          the engine's name
+     * @param wins          games won
+     * @param losses        games lost
+     * @param draws         games drawn
+     * @param elo           the Elo estimate
+     * @param eloError      the 95% confidence margin of the estimate
+     * @param millisPerMove the average time the engine took per move
+     */
+    public record Standing(String name,
+                           int wins,
+                           int losses,
+                           int draws,
+                           double elo,
+                           double eloError,
+                           double millisPerMove)
+    {
+        /**
+         * Gets how many games the engine played.
+         *
+         * @return the number of games
+         */
+        public int games()
+        {
+            return wins + losses + draws;
+        }
+
+        /**
+         * Gets the engine's score: 1 per win, half per draw, over the games played.
+         *
+         * @return the score, in range [0, 1]
+         */
+        public double score()
+        {
+            return (wins + draws / 2.0) / games();
+        }
+    }
+
+    /**
+     * The result of one game.
+     *
+     * @param players the entries' indexes, in seat order: the first moves first
+     * @param winner  the winner's seat, or -1 for a draw
+     * @param nanos   the time each seat took to decide its moves, in total
+     * @param moves   how many moves each seat made
+     */
+    private record Outcome(int[] players, int winner, long[] nanos, int[] moves) {}
+
+    /**
+     * Sets up a tournament. Nothing is played until it's {@link #run}.
+     *
+     * @param entries         the engines taking part
+     * @param format          who plays whom
+     * @param gamesPerPairing how many games each pairing plays
+     * @param threads         how many games to play at once
+     * @throws IllegalArgumentException if there are fewer than two entries,
+     *                                  or the number of games or threads isn't positive
+     */
+    public Arena(final List<Entry> entries,
+                 final Format format,
+                 final int gamesPerPairing,
+                 final int threads)
+    {
+        if(entries.size() < PLAYERS)
+        {
+            throw new IllegalArgumentException("A tournament needs at least two engines");
+        }
+        if(gamesPerPairing < 1 || threads < 1)
+        {
+            throw new IllegalArgumentException("Invalid number of games or threads");
+        }
+
+        this.entries         = List.copyOf(entries);
+        this.format          = format;
+        this.gamesPerPairing = gamesPerPairing;
+        this.threads         = threads;
+    }
+
+    /**
+     * Plays all the games. This blocks the current thread until they're over.
+     *
+     * @return the standings, best Elo first
+     */
+    public List<Standing> run()
+    {
+        final List<Callable<Outcome>> games;
+        final ExecutorService         pool;
+        final List<Outcome>           outcomes;
+
+        games    = new ArrayList<>();
+        pool     = Executors.newFixedThreadPool(threads);
+        outcomes = new ArrayList<>();
+
+        for(final int[] pairing : pairings())
+        {
+            for(int game = 0; game < gamesPerPairing; game++)
+            {
+                final int first;
+                final int second;
+                first  = pairing[game % PLAYERS];
+                second = pairing[(game + 1) % PLAYERS];
+                games.add(() -> play(first, second));
+            }
+        }
+
+        try
+        {
+            for(final Future<Outcome> outcome : pool.invokeAll(games))
+            {
+                outcomes.add(outcome.get());
+            }
+        } catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Tournament interrupted", e);
+        } catch(final ExecutionException e)
+        {
+            throw new IllegalStateException("A game failed", e.getCause());
+        } finally
+        {
+            pool.shutdownNow();
+        }
+
+        return standings(outcomes);
+    }
+
+    /**
+     * Lists who plays whom.
+     *
+     * @return pairs of entry indexes
+     */
+    private List<int[]> pairings()
+    {
+        final List<int[]> pairings;
+        pairings = new ArrayList<>();
+        for(int i = 0; i < entries.size(); i++)
+        {
+            for(int j = i + 1; j < entries.size(); j++)
+            {
+                if(format == Format.ROUND_ROBIN || i == 0)
+                {
+                    pairings.add(new int[]{i, j});
+                }
+            }
+        }
+        return pairings;
+    }
+
+    /**
+     * Plays one game.
+     * <p>
+     * Turns go by alphabetical order of the players' IDs,
+     * so the first seat is given the ID that sorts first.
+     *
+     * @param first  the index of the entry moving first
+     * @param second the index of the entry moving second
+     * @return the outcome
+     */
+    private Outcome play(final int first,
+                         final int second)
+    {
+        final int[]     players;
+        final long[]    nanos;
+        final int[]     moves;
+        final TicTacToe game;
+
+        players = new int[]{first, second};
+        nanos   = new long[PLAYERS];
+        moves   = new int[PLAYERS];
+        game    = GAMES.get();
+        game.reset(SEAT_IDS);
+
+        while(true)
+        {
+            final String  winnerID;
+            final String  nextID;
+            final int     seat;
+            final long    startNanos;
+            final Integer move;
+
+            winnerID = game.getWinnerID();
+            nextID   = game.getNextPlayerID();
+            if(winnerID != null)
+            {
+                return new Outcome(players, Integer.parseInt(winnerID), nanos, moves);
+            }
+            if(nextID == null)
+            {
+                return new Outcome(players, -1, nanos, moves);
+            }
+
+            seat       = Integer.parseInt(nextID);
+            startNanos = System.nanoTime();
+            try
+            {
+                move = entries.get(players[seat]).engine().decideMove(game);
+            } catch(final RuntimeException e)
+            {
+                return new Outcome(players, 1 - seat, nanos, moves);
+            }
+            nanos[seat] += System.nanoTime() - startNanos;
+            moves[seat]++;
+
+            if(move == null || !game.isAvailable(move))
+            {
+                return new Outcome(players, 1 - seat, nanos, moves);
+            }
+            game.update(move);
+        }
+    }
+
+    /**
+     * Adds up the outcomes into each entry's standing.
+     *
+     * @param outcomes the outcomes of all games
+     * @return the standings, best Elo first
+     */
+    private List<Standing> standings(final List<Outcome> outcomes)
+    {
+        final int[]          wins;
+        final int[]          losses;
+        final int[]          draws;
+        final long[]         nanos;
+        final long[]         moves;
+        final List<Standing> standings;
+
+        wins      = new int[entries.size()];
+        losses    = new int[entries.size()];
+        draws     = new int[entries.size()];
+        nanos     = new long[entries.size()];
+        moves     = new long[entries.size()];
+        standings = new ArrayList<>();
+
+        for(final Outcome outcome : outcomes)
+        {
+            for(int seat = 0; seat < PLAYERS; seat++)
+            {
+                final int player;
+                player = outcome.players()[seat];
+                nanos[player] += outcome.nanos()[seat];
+                moves[player] += outcome.moves()[seat];
+                if(outcome.winner() < 0)
+                {
+                    draws[player]++;
+                } else if(outcome.winner() == seat)
+                {
+                    wins[player]++;
+                } else
+                {
+                    losses[player]++;
+                }
+            }
+        }
+
+        for(int i = 0; i < entries.size(); i++)
+        {
+            standings.add(standing(entries.get(i).name(),
+                                   wins[i], losses[i], draws[i],
+                                   moves[i] == 0 ? 0 : nanos[i] / NANOS_PER_MILLI / moves[i]));
+        }
+        standings.sort(Comparator.comparingDouble(Standing::elo).reversed());
+        return standings;
+    }
+
+    /**
+     * Estimates an engine's Elo from its score, with the 95% confidence margin
+     * of the score, from the spread of its game results, converted to Elo.
+     * <p>
+     * A score of 0 or 1 would be an infinite Elo, so it's taken as
+     * half a game from there instead.
+     */
+    private static Standing standing(final String name,
+                                     final int wins,
+                                     final int losses,
+                                     final int draws,
+                                     final double millisPerMove)
+    {
+        final int    games;
+        final double score;
+        final double variance;
+        final double margin;
+
+        games    = wins + losses + draws;
+        score    = (wins + draws / 2.0) / games;
+        variance = (wins * Math.pow(1 - score, 2) +
+                    draws * Math.pow(0.5 - score, 2) +
+                    losses * Math.pow(score, 2)) / games;
+        margin   = CONFIDENCE_95 * Math.sqrt(variance / games);
+
+        return new Standing(name, wins, losses, draws,
+                            elo(score, games),
+                            (elo(score + margin, games) - elo(score - margin, games)) / 2,
+                            millisPerMove);
+    }
+
+    private static double elo(final double score,
+                              final int games)
+    {
+        final double bound;
+        final double clamped;
+
+        bound   = 0.5 / games;
+        clamped = Math.clamp(score, bound, 1 - bound);
+        return -ELO_SCALE * Math.log10(1 / clamped - 1);
+    }
+
+    /**
+     * Formats standings as a table, one engine per line.
+     *
+     * @param standings the standings
+     * @return the table
+     */
+    public static String format(final List<Standing> standings)
+    {
+        final StringBuilder table;
+        final int           width;
+
+        width = Math.max("Engine".length(),
+                         standings.stream().mapToInt(standing -> standing.name().length()).max()
+                                  .orElse(0));
+        table = new StringBuilder();
+        table.append(String.format("%-" + width + "s %7s %6s %6s %6s %6s %6s %5s %8s%n",
+                                   "Engine", "Games", "W", "L", "D", "Score", "Elo", "+/-", "ms/move"));
+        for(final Standing standing : standings)
+        {
+            table.append(String.format("%-" + width + "s %7d %6d %6d %6d %5.1f%% %+6.0f %5.0f %8.3f%n",
+                                       standing.name(),
+                                       standing.games(),
+                                       standing.wins(),
+                                       standing.losses(),
+                                       standing.draws(),
+                                       100 * standing.score(),
+                                       standing.elo(),
+                                       standing.eloError(),
+                                       standing.millisPerMove()));
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package mygame.game;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A move-selection algorithm: given a game, picks the move
+ * for the player whose turn it is.
+ * <p>
+ * Engines are compared against each other by an {@link Arena}, which plays
+ * many games at once, so an engine is called from several threads
+ * at the same time, each with a different game: it must keep no state
+ * of its own between calls, or keep it thread-safe. It must not change the game.
+ * <p>
+ * An engine to be loaded by class name (see {@link #load}) also needs
+ * a public constructor that takes no arguments.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+@FunctionalInterface
+public interface Engine
+{
+    /**
+     * Plays the slot nearest to the last move, towards the center,
+     * as the CPU clients and the server's bots do
+     * (see {@link TicTacToe#getAvailableMove()}).
+     */
+    Engine NEAREST = TicTacToe::getAvailableMove;
+
+    /**
+     * Plays any empty slot. The baseline every engine should beat.
+     */
+    Engine RANDOM = game ->
+    {
+        final List<Integer> moves;
+        moves = game.getAvailableMoves();
+        return moves.isEmpty()
+               ? null
+               : moves.get(ThreadLocalRandom.current().nextInt(moves.size()));
+    };
+
+    /**
+     * Decides the move to play.
+     *
+     * @param game the game, with the engine's player to move
+     * @return the move, a number in range [0, boardSize^2),
+     *         or {@code null} if there is none
+     */
+    Integer decideMove(TicTacToe game);
+
+    /**
+     * Gets an engine by name: {@code nearest} or {@code random} (case-insensitive)
+     * for the built-in engines, or else the fully qualified name of a class
+     * implementing this interface.
+     *
+     * @param name the engine's name
+     * @return the engine
+     * @throws IllegalArgumentException if there is no such engine
+     */
+    static Engine load(final String name)
+    {
+        if(name.equalsIgnoreCase("nearest"))
+        {
+            return NEAREST;
+        }
+        if(name.equalsIgnoreCase("random"))
+        {
+            return RANDOM;
+        }
+
+        try
+        {
+            return Class.forName(name)
+                        .asSubclass(Engine.class)
+                        .getConstructor()
+                        .newInstance();
+        } catch(final ReflectiveOperationException | ClassCastException e)
+        {
+            throw new IllegalArgumentException("No such engine: " + name, e);
+        }
+    }
+}
@@ -1,14 +1,21 @@
 package mygame.game;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
 /**
- * A extended Tic Tac Toe game, with a {@value #BOARD_SIZE}x{@value #BOARD_SIZE} board
- * and you connect {@value #WIN_TARGET} dots in a row to win.
+ * A extended Tic Tac Toe game for {@value #MIN_PLAYERS} to {@value #MAX_PLAYERS} players,
+ * where you connect {@value #WIN_TARGET} dots in a row to win.
  * <p>
- * Work is in progress to allow more than {@value #PLAYERS_PER_GAME} players. Soon, hopefully.
+ * The board is {@value #BASE_BOARD_SIZE}x{@value #BASE_BOARD_SIZE} for 2 players,
+ * and grows by {@value #BOARD_GROWTH_PER_PLAYER} rows and columns
+ * for each additional player (see {@link #getBoardSize(int)}).
+ * <p>
+ * Players take turns in order of their IDs. A player may leave mid-game
+ * (see {@link #remove}), in which case their turns are skipped.
  *
  * @author Felix Nguyen
  * @version 1
@@ -16,13 +23,14 @@ import java.util.Random;
 public class TicTacToe
 {
     /**
-     * The number of players in a game.
+     * The minimum number of players in a game.
      */
-    /*
-     * There is an attempt to keep the code generic,
-     * but the game for the most part is still hardcoded for 2 players.
+    public static final int MIN_PLAYERS = 2;
+
+    /**
+     * The maximum number of players in a game.
      */
-    public static final int PLAYERS_PER_GAME = 2;
+    public static final int MAX_PLAYERS = 6;
 
     /**
      * Status of the game for each client.
@@ -61,9 +69,14 @@ public class TicTacToe
     }
 
     /**
-     * The width and height of the board.
+     * The width and height of the board in a 2-player game.
+     */
+    public static final int BASE_BOARD_SIZE = 15;
+
+    /**
+     * How many rows and columns the board grows by for each player beyond 2.
      */
-    public static final int BOARD_SIZE = 15;
+    public static final int BOARD_GROWTH_PER_PLAYER = 3;
 
     /**
      * How many dots to connect in a row to win.
@@ -72,35 +85,16 @@ public class TicTacToe
 
     /**
      * Represents a coordinate on the game board.
+     * <p>
+     * Converting to and from a position, a number representing the index of
+     * the coordinate on a 1D array, depends on the size of the board,
+     * see {@link #coordinate(int)} and {@link #ordinal(Coordinate)}.
      *
      * @param row row number
      * @param col column number
      */
     record Coordinate(int row, int col)
     {
-        /**
-         * Creates a coordinate.
-         *
-         * @param position a number in range [0, {@value #SLOTS_COUNT})
-         *                 representing the index of the position on a 1D array
-         */
-        Coordinate(int position)
-        {
-            this(position / BOARD_SIZE,
-                 position % BOARD_SIZE);
-        }
-
-        /**
-         * Converts the coordinate to a number in range [0, {@value #SLOTS_COUNT}),
-         * representing the index of the position on a 1D array.
-         *
-         * @return the number
-         */
-        int ordinal()
-        {
-            return BOARD_SIZE * row + col;
-        }
-
         /**
          * Flips the coordinate.
          *
@@ -111,18 +105,6 @@ public class TicTacToe
             return new Coordinate(col, row);
         }
 
-        /**
-         * Checks if the coordinate is within the bounds of the board.
-         *
-         * @return true if it's inbound, false otherwise
-         */
-        private boolean isValid()
-        {
-            return (row >= 0 && row < BOARD_SIZE &&
-                    col >= 0 && col < BOARD_SIZE);
-        }
-
-
         /**
          * Calculates the "distance" to another coordinate.
          * <p>
@@ -153,20 +135,6 @@ public class TicTacToe
         }
     }
 
-    /**
-     * The number of slots on the board.
-     */
-    static final int SLOTS_COUNT = BOARD_SIZE * BOARD_SIZE;
-
-    /**
-     * The center of the board.
-     * <p>
-     * This is used to calculate the distance to the center of the board
-     * when choosing a random slot.
-     */
-    static final Coordinate CENTER = new Coordinate(BOARD_SIZE / 2,
-                                                    BOARD_SIZE / 2);
-
     /**
      * Represents which direction to move starting from a grid on the board.
      */
@@ -199,55 +167,168 @@ public class TicTacToe
             new Coordinate(1, -1) // anti-diagonal
     };
 
-    private static final Random RANDOM = new Random();
+    private static final int EMPTY = -1;
+
+    /**
+     * Every slot's coordinate, by ordinal, for each number of players.
+     * Coordinates never change, so all the games on a board size share them.
+     */
+    private static final Coordinate[][] COORDINATES = new Coordinate[MAX_PLAYERS + 1][];
+
+    static
+    {
+        for(int players = MIN_PLAYERS; players <= MAX_PLAYERS; players++)
+        {
+            final int size;
+            size                 = getBoardSize(players);
+            COORDINATES[players] = new Coordinate[size * size];
+            for(int position = 0; position < size * size; position++)
+            {
+                COORDINATES[players][position] = new Coordinate(position / size,
+                                                                position % size);
+            }
+        }
+    }
 
-    private final Integer[][]      moves;
-    private final String[]         playerIDs;
-    private final List<Coordinate> emptySlots;
-    private final List<Coordinate> winningSlots;
+    private final int          boardSize;
+    private final Coordinate   center;
+    private final Coordinate[] coordinates;
+    private final int[]        board;
+    private final String[]     playerIDs;
+    private final int[]        turnOrder;
+    private final boolean[]    active;
+    private final int[]        winningSlots;
 
     private Coordinate previousMove;
     private int        previousPlayer;
+    private int        turn;
+    private int        activeCount;
+    private int        emptyCount;
+    private int        winningCount;
+    private Integer    winner;
 
     /**
      * Creates a new Tic Tac Toe game.
      * <p>
-     * The IDs of the players are required to determine who to play first.
+     * The IDs of the players are required to determine the turn order.
      * Essentially it should be random, but we cannot use Random
-     * because the server and clients must agree on who plays first.
+     * because the server and clients must agree on who plays when.
      * One thing they do agree is the IDs of all parties,
-     * and they are assigned randomly.
+     * and they are assigned randomly. So players take turns
+     * in alphabetical order of their IDs, whatever order they are given in.
+     * <p>
+     * The board is kept in flat arrays, one slot per ordinal, and every slot's
+     * {@link Coordinate} is shared by all the games on the same board size,
+     * so that playing allocates nothing, creating a game allocates little more
+     * than its board, and the game can be {@link #reset} to play another on it.
      *
      * @param playerIDs the IDs of the players
+     * @throws IllegalArgumentException if the number of players is not supported
      */
     public TicTacToe(final String... playerIDs)
     {
-        if(playerIDs.length != PLAYERS_PER_GAME)
+        if(playerIDs.length < MIN_PLAYERS || playerIDs.length > MAX_PLAYERS)
         {
             throw new IllegalArgumentException("Invalid number of players");
         }
 
-        emptySlots = new ArrayList<>();
-        for(int i = 0; i < BOARD_SIZE; i++)
+        boardSize   = getBoardSize(playerIDs.length);
+        coordinates = COORDINATES[playerIDs.length];
+        center      = coordinates[boardSize / 2 * boardSize + boardSize / 2];
+
+        this.board        = new int[boardSize * boardSize];
+        this.playerIDs    = new String[playerIDs.length];
+        this.turnOrder    = new int[playerIDs.length];
+        this.active       = new boolean[playerIDs.length];
+        this.winningSlots = new int[boardSize];
+        start(playerIDs);
+    }
+
+    /**
+     * Starts a new game on this game's board, as if it had just been created,
+     * without allocating anything.
+     *
+     * @param playerIDs the IDs of the players, as many as this game was created with
+     * @throws IllegalArgumentException if the number of players is different
+     */
+    public void reset(final String... playerIDs)
+    {
+        if(playerIDs.length != this.playerIDs.length)
         {
-            for(int j = 0; j < BOARD_SIZE; j++)
+            throw new IllegalArgumentException("Invalid number of players");
+        }
+        start(playerIDs);
+    }
+
+    /**
+     * Clears the board, and sets the players and their turn order.
+     */
+    private void start(final String[] playerIDs)
+    {
+        System.arraycopy(playerIDs, 0, this.playerIDs, 0, playerIDs.length);
+        Arrays.fill(board, EMPTY);
+        Arrays.fill(active, true);
+
+        // insertion sort, stable like the order the game has always used
+        for(int player = 0; player < playerIDs.length; player++)
+        {
+            int slot;
+            slot = player;
+            while(slot > 0 && playerIDs[turnOrder[slot - 1]].compareTo(playerIDs[player]) > 0)
             {
-                emptySlots.add(new Coordinate(i, j));
+                turnOrder[slot] = turnOrder[slot - 1];
+                slot--;
             }
+            turnOrder[slot] = player;
         }
-        winningSlots = new ArrayList<>();
 
-        this.playerIDs      = playerIDs;
-        this.moves          = new Integer[BOARD_SIZE][BOARD_SIZE];
-        this.previousPlayer = playerIDs[0].compareTo(playerIDs[1]) > 0
-                              ? 0
-                              : 1;
+        previousMove   = null;
+        previousPlayer = 0;
+        turn           = 0;
+        activeCount    = playerIDs.length;
+        emptyCount     = board.length;
+        winningCount   = 0;
+        winner         = null;
+    }
+
+    /**
+     * Gets the size of the board for a number of players.
+     *
+     * @param players the number of players
+     * @return the width and height of the board
+     */
+    public static int getBoardSize(final int players)
+    {
+        return BASE_BOARD_SIZE + BOARD_GROWTH_PER_PLAYER * (players - MIN_PLAYERS);
+    }
+
+    /**
+     * Gets the size of this game's board.
+     *
+     * @return the width and height of the board
+     */
+    public final int getBoardSize()
+    {
+        return boardSize;
     }
 
     /**
-     * Updates the game state with a new move.
+     * Gets how many players this game was created with, active or not.
      *
-     * @param move the move to make, represented as a number in range [0, {@value #SLOTS_COUNT})
+     * @return the number of players
+     */
+    public final int getPlayerCount()
+    {
+        return playerIDs.length;
+    }
+
+    /**
+     * Updates the game state with a new move, made by the player whose turn it is.
+     * <p>
+     * Only the moving player can have won with this move,
+     * so only their lines through this move are checked, once.
+     *
+     * @param move the move to make, represented as a number in range [0, boardSize^2)
      */
     public void update(final Integer move)
     {
@@ -259,10 +340,64 @@ public class TicTacToe
         {
             throw new IllegalArgumentException("Invalid move");
         }
-        previousPlayer                            = getNextPlayer();
-        previousMove                              = new Coordinate(move);
-        moves[previousMove.row][previousMove.col] = previousPlayer;
-        emptySlots.remove(previousMove);
+        previousPlayer = turnOrder[turn];
+        previousMove   = coordinate(move);
+        board[move]    = previousPlayer;
+        emptyCount--;
+        turn = nextActiveTurn(turn);
+
+        for(final Coordinate orientation : ORIENTATIONS)
+        {
+            if(checkWinCondition(orientation))
+            {
+                winner = previousPlayer;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a player who left the game. Their turns are skipped from now on,
+     * and the moves they made stay on the board.
+     * <p>
+     * Has no effect if the player already left.
+     *
+     * @param playerID the ID of the player who left
+     */
+    public void remove(final String playerID)
+    {
+        final int player;
+        player = Arrays.asList(playerIDs).indexOf(playerID);
+        if(player < 0 || !active[player])
+        {
+            return;
+        }
+
+        active[player] = false;
+        activeCount--;
+        if(activeCount > 0 && turnOrder[turn] == player)
+        {
+            turn = nextActiveTurn(turn);
+        }
+    }
+
+    /**
+     * Gets the IDs of the players still in the game.
+     *
+     * @return the IDs of the players who haven't left, in the order they were given
+     */
+    public List<String> getActivePlayerIDs()
+    {
+        final List<String> ids;
+        ids = new ArrayList<>();
+        for(int player = 0; player < playerIDs.length; player++)
+        {
+            if(active[player])
+            {
+                ids.add(playerIDs[player]);
+            }
+        }
+        return ids;
     }
 
     /**
@@ -273,18 +408,44 @@ public class TicTacToe
      */
     boolean isAvailable(final Coordinate coord)
     {
-        return coord.isValid() && getMoveAt(coord) == null;
+        return isValid(coord) && getMoveAt(coord) == null;
     }
 
     /**
      * Checks if a move is available.
      *
-     * @param move the move represented as a number in range [0, {@value #SLOTS_COUNT})
+     * @param move the move represented as a number in range [0, boardSize^2)
      * @return whether it's available to play
      */
-    boolean isAvailable(final int move)
+    public boolean isAvailable(final int move)
     {
-        return isAvailable(new Coordinate(move));
+        return move >= 0 &&
+               move < board.length &&
+               board[move] == EMPTY;
+    }
+
+    /**
+     * Converts a position to a coordinate on this game's board.
+     *
+     * @param position a number in range [0, boardSize^2)
+     *                 representing the index of the position on a 1D array
+     * @return the coordinate
+     */
+    Coordinate coordinate(final int position)
+    {
+        return coordinates[position];
+    }
+
+    /**
+     * Converts a coordinate on this game's board to a number in range [0, boardSize^2),
+     * representing the index of the position on a 1D array.
+     *
+     * @param coord the coordinate
+     * @return the number
+     */
+    int ordinal(final Coordinate coord)
+    {
+        return boardSize * coord.row + coord.col;
     }
 
     /**
@@ -304,33 +465,19 @@ public class TicTacToe
     }
 
     /**
-     * Gets the ID of the player who won.
+     * Gets the ID of the player who connected {@value #WIN_TARGET} dots.
      * <p>
-     * If the game is not over, this will return null.
+     * If nobody has, this will return null.
      *
-     * @return the ID of the winning player, or null if the game is not over
+     * @return the ID of the winning player, or null if nobody won on the board
      */
     public String getWinnerID()
     {
-        if(previousMove == null)
+        if(winner == null)
         {
             return null;
         }
-
-        if(winningSlots.size() >= WIN_TARGET)
-        {
-            return playerIDs[previousPlayer];
-        }
-
-        for(final Coordinate orientation : ORIENTATIONS)
-        {
-            if(checkWinCondition(orientation))
-            {
-                return playerIDs[previousPlayer];
-            }
-        }
-
-        return null;
+        return playerIDs[winner];
     }
 
     /**
@@ -356,24 +503,47 @@ public class TicTacToe
 
         if(previousMove == null)
         {
-            return CENTER.ordinal();
+            return ordinal(center);
         }
 
-        final Coordinate nearestAvailable;
-        nearestAvailable = emptySlots.stream()
-                                     .min(this::compareSlots)
-                                     .orElse(null);
+        Coordinate nearestAvailable;
+        nearestAvailable = null;
+        for(int position = 0; position < board.length; position++)
+        {
+            if(board[position] == EMPTY &&
+               (nearestAvailable == null || compareSlots(nearestAvailable, coordinates[position]) > 0))
+            {
+                nearestAvailable = coordinates[position];
+            }
+        }
         if(nearestAvailable == null)
         {
             return null;
         }
-        return nearestAvailable.ordinal();
+        return ordinal(nearestAvailable);
+    }
+
+    /**
+     * Gets all empty slots on the board.
+     *
+     * @return the ordinals of the empty slots, in order, empty if the game is over
+     */
+    public List<Integer> getAvailableMoves()
+    {
+        if(getWinnerID() != null)
+        {
+            return List.of();
+        }
+        return IntStream.range(0, board.length)
+                        .filter(position -> board[position] == EMPTY)
+                        .boxed()
+                        .toList();
     }
 
     /**
      * Get the ordinal of the player who played at a position.
      * <p>
-     * Since the game has two players, the ordinal is either 0 or 1.
+     * The ordinal is the player's index in the IDs the game was created with.
      *
      * @param coord the coordinate to check
      * @return the ordinal of the player who played at the position,
@@ -387,7 +557,7 @@ public class TicTacToe
     /**
      * Get the ordinal of the player who played at a position.
      * <p>
-     * Since the game has two players, the ordinal is either 0 or 1.
+     * The ordinal is the player's index in the IDs the game was created with.
      *
      * @param row the row of the position
      * @param col the column of the position
@@ -396,7 +566,9 @@ public class TicTacToe
      */
     Integer getMoveAt(final int row, final int col)
     {
-        return moves[row][col];
+        final int player;
+        player = board[boardSize * row + col];
+        return player == EMPTY ? null : player;
     }
 
     /**
@@ -409,29 +581,62 @@ public class TicTacToe
      */
     boolean isWinningSlot(final int row, final int col)
     {
-        return winningSlots.contains(new Coordinate(row, col));
+        if(winner == null)
+        {
+            return false;
+        }
+        for(int i = 0; i < winningCount; i++)
+        {
+            if(winningSlots[i] == boardSize * row + col)
+            {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Gets the ordinal of the player to move next.
      * <p>
-     * Since the game has two players, the ordinal is either 0 or 1.
+     * The ordinal is the player's index in the IDs the game was created with.
      *
      * @return the ordinal of the player to move next,
      * or null if the game is over.
      */
     Integer getNextPlayer()
     {
-        if(getWinnerID() != null || emptySlots.isEmpty())
+        if(winner != null || emptyCount == 0 || activeCount < MIN_PLAYERS)
         {
             return null;
         }
-        return (previousPlayer + 1) % PLAYERS_PER_GAME;
+        return turnOrder[turn];
+    }
+
+    /**
+     * Finds the next turn after a given one that belongs to a player still in the game.
+     * Takes at most one pass around the turn order.
+     *
+     * @param from the turn to start after
+     * @return the next active player's turn
+     */
+    private int nextActiveTurn(final int from)
+    {
+        int next;
+        next = from;
+        do
+        {
+            next = (next + 1) % turnOrder.length;
+        } while(!active[turnOrder[next]] && next != from);
+        return next;
     }
 
     /**
      * Compares two slots to see which one is "better".
      * Used by {@link #getAvailableMove()}.
+     * <p>
+     * Games are played on many threads at once (e.g. the server's bots),
+     * so the random tie-breaker comes from each thread's own generator,
+     * rather than one shared generator they'd all contend on.
      *
      * @param c1 the first slot
      * @param c2 the second slot
@@ -446,9 +651,26 @@ public class TicTacToe
         centricBias = 0.5;
         randomness  = 2;
 
-        return (int) (c1.distance(previousMove) + centricBias * c1.distance(CENTER) -
-                      (c2.distance(previousMove) + centricBias * c2.distance(CENTER)) +
-                      RANDOM.nextDouble(randomness) - randomness / 2);
+        return (int) (c1.distance(previousMove) + centricBias * c1.distance(center) -
+                      (c2.distance(previousMove) + centricBias * c2.distance(center)) +
+                      ThreadLocalRandom.current().nextDouble(randomness) - randomness / 2);
+    }
+
+    /**
+     * Checks if a coordinate is within the bounds of the board.
+     *
+     * @param coord the coordinate
+     * @return true if it's inbound, false otherwise
+     */
+    private boolean isValid(final Coordinate coord)
+    {
+        return isValid(coord.row, coord.col);
+    }
+
+    private boolean isValid(final int row, final int col)
+    {
+        return (row >= 0 && row < boardSize &&
+                col >= 0 && col < boardSize);
     }
 
     /**
@@ -459,29 +681,27 @@ public class TicTacToe
      */
     private boolean checkWinCondition(final Coordinate orientation)
     {
-        winningSlots.add(previousMove);
+        winningCount                 = 0;
+        winningSlots[winningCount++] = ordinal(previousMove);
         for(final int direction : DIRECTIONS)
         {
-            int        row;
-            int        col;
-            Coordinate coord;
+            int row;
+            int col;
 
-            row   = previousMove.row + direction * orientation.row;
-            col   = previousMove.col + direction * orientation.col;
-            coord = new Coordinate(row, col);
+            row = previousMove.row + direction * orientation.row;
+            col = previousMove.col + direction * orientation.col;
 
-            while(coord.isValid() &&
-                  Integer.valueOf(previousPlayer).equals(moves[row][col]))
+            while(isValid(row, col) &&
+                  board[boardSize * row + col] == previousPlayer)
             {
-                winningSlots.add(coord);
+                winningSlots[winningCount++] = boardSize * row + col;
                 row += direction * orientation.row;
                 col += direction * orientation.col;
-                coord = new Coordinate(row, col);
             }
         }
-        if(winningSlots.size() < WIN_TARGET)
+        if(winningCount < WIN_TARGET)
         {
-            winningSlots.clear();
+            winningCount = 0;
             return false;
         }
         return true;
@@ -1,8 +1,10 @@
 package mygame.game;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import mygame.terminal.TUI;
 import mygame.terminal.TUI.Color;
@@ -15,6 +17,19 @@ import mygame.terminal.Reader.Key;
  * <p>
  * Extends {@link TicTacToe} to provide methods
  * for prompting the user for their move and and printing the game board.
+ * <p>
+ * The user's move is shown as soon as they choose it, as pending,
+ * while the game state only changes once the move comes back from the server
+ * (see {@link #update}). If something else comes back instead,
+ * or the game ends first, the pending move is taken back (see {@link #rollback}).
+ * <p>
+ * If the game has move clocks, they're printed under the board
+ * (see {@link #setTimeLeft}). The clock of the player to move is shown
+ * running down as of each time the board is printed.
+ * <p>
+ * The user is prompted on their own thread, while moves come in on the client's.
+ * Both change the state and print the board, so they do so holding this game's lock,
+ * never while waiting for a key.
  *
  * @author Felix Nguyen
  * @version 1
@@ -23,39 +38,97 @@ public final class TicTacToeTUI extends TicTacToe
 {
     private static final Reader keyReader = Reader.getInstance();
 
+    private static final int                NO_MOVE     = -1;
     private static final String             EMPTY_SLOT  = "   ";
     private static final String             COL_DIVIDER = "|";
-    private static final String             ROW_DIVIDER = "+ - ".repeat(BOARD_SIZE) + "+";
     private static final List<String>       SYMBOLS     = Arrays.asList(TUI.bold(" O "),
-                                                                        TUI.bold(" X "));
+                                                                        TUI.bold(" X "),
+                                                                        TUI.bold(" + "),
+                                                                        TUI.bold(" # "),
+                                                                        TUI.bold(" @ "),
+                                                                        TUI.bold(" % "));
     private static final Background[]       BACKGROUNDS = {Color.Background.GREEN,
-                                                           Color.Background.RED};
+                                                           Color.Background.RED,
+                                                           Color.Background.BLUE,
+                                                           Color.Background.MAGENTA,
+                                                           Color.Background.CYAN,
+                                                           Color.Background.WHITE};
     private static final Color.Foreground[] FOREGROUNDS = {Color.Foreground.GREEN,
-                                                           Color.Foreground.RED};
+                                                           Color.Foreground.RED,
+                                                           Color.Foreground.BLUE,
+                                                           Color.Foreground.MAGENTA,
+                                                           Color.Foreground.CYAN,
+                                                           Color.Foreground.WHITE};
 
-    private final String clientID;
-    private final String clientSymbol;
+    private final String       clientID;
+    private final String       clientSymbol;
+    private final String       rowDivider;
+    private final List<String> seatIDs;
+    private final List<String> symbols;
+    private final int[]        colors;
+
+    private int   pendingMove;
+    private int[] timeLeft;
+    private long  turnStartMillis;
 
     /**
      * Creates a TicTacToe game with a TUI interface.
      * <p>
-     * The symbols (O and X) are assigned randomly each game,
-     * but our user will always be green and the opponent red.
+     * The symbols are assigned randomly each game,
+     * but our user will always be green and the opponents
+     * red, blue, magenta, cyan and white, in the order they are given.
      *
-     * @param playerIDs the IDs of the players, the first of which must be that of the user
+     * @param clientID  the ID of the user
+     * @param playerIDs the IDs of the players, including the user
      */
-    public TicTacToeTUI(final String... playerIDs)
+    public TicTacToeTUI(final String clientID,
+                        final String... playerIDs)
     {
         super(playerIDs);
-        clientID = playerIDs[0];
-        Collections.shuffle(SYMBOLS);
-        clientSymbol = SYMBOLS.getFirst();
+
+        final List<String> shuffled;
+        shuffled = new ArrayList<>(SYMBOLS);
+        Collections.shuffle(shuffled);
+
+        this.clientID = clientID;
+        rowDivider    = "+ - ".repeat(getBoardSize()) + "+";
+        seatIDs       = List.of(playerIDs);
+        symbols       = shuffled.subList(0, playerIDs.length);
+        colors        = new int[playerIDs.length];
+        pendingMove   = NO_MOVE;
+
+        int next;
+        next = clientID == null ? 0 : 1;
+        for(int player = 0; player < playerIDs.length; player++)
+        {
+            colors[player] = playerIDs[player].equals(clientID) ? 0 : next++;
+        }
+        clientSymbol = clientID == null
+                       ? null
+                       : symbols.get(Arrays.asList(playerIDs).indexOf(clientID));
+    }
+
+    /**
+     * Creates a TicTacToe game with a TUI interface, for someone watching the game
+     * rather than playing it. It's never their turn.
+     * <p>
+     * The players will be green, red, blue, magenta, cyan and white,
+     * in the order they are given.
+     *
+     * @param playerIDs the IDs of the players
+     * @return a new {@code TicTacToeTUI}
+     */
+    public static TicTacToeTUI spectating(final String... playerIDs)
+    {
+        return new TicTacToeTUI(null, playerIDs);
     }
 
     /**
      * Prompts the user to make their move by using arrow keys to navigate and Enter to select.
      * <p>
-     * This blocks the current thread until the user pressed Enter.*
+     * This blocks the current thread until the user pressed Enter.
+     * The chosen slot is then shown as pending right away,
+     * without waiting for the server.
      *
      * @return the ordinal of the chosen slot
      */
@@ -64,7 +137,7 @@ public final class TicTacToeTUI extends TicTacToe
         Coordinate currentPosition;
         Key        keyPressed;
 
-        currentPosition = new Coordinate(getAvailableMove());
+        currentPosition = coordinate(getAvailableMove());
         do
         {
             printBoard(currentPosition);
@@ -85,14 +158,87 @@ public final class TicTacToeTUI extends TicTacToe
         while(!(keyPressed == Key.ENTER &&
                 isAvailable(currentPosition)));
 
-        return currentPosition.ordinal();
+        synchronized(this)
+        {
+            pendingMove = ordinal(currentPosition);
+            printBoard();
+            return pendingMove;
+        }
     }
 
+    /**
+     * Plays a move and prints the board.
+     * <p>
+     * If the user's move is pending, this is the server's answer to it:
+     * the same move confirms it, any other move means it was not accepted.
+     *
+     * @param move the move
+     */
     @Override
-    public void update(final Integer move)
+    public synchronized void update(final Integer move)
     {
+        final boolean rejected;
+
+        rejected        = pendingMove != NO_MOVE && (move == null || move != pendingMove);
+        pendingMove     = NO_MOVE;
+        turnStartMillis = System.currentTimeMillis();
         super.update(move);
         printBoard();
+        if(rejected)
+        {
+            System.out.println("Your move was not accepted.");
+        }
+    }
+
+    /**
+     * Removes a player, whose turns are skipped from now on.
+     * If it was their turn, the next player's clock starts.
+     *
+     * @param playerID the player's ID
+     */
+    @Override
+    public synchronized void remove(final String playerID)
+    {
+        if(playerID.equals(getNextPlayerID()))
+        {
+            turnStartMillis = System.currentTimeMillis();
+        }
+        super.remove(playerID);
+    }
+
+    /**
+     * Sets the time a player has left on their clock, as of now.
+     * <p>
+     * The board isn't printed again: clocks are set along with a move
+     * or the start of the game, which print it anyway.
+     *
+     * @param playerID       the player's ID
+     * @param timeLeftMillis the time they have left, in milliseconds
+     */
+    public synchronized void setTimeLeft(final String playerID,
+                                         final int timeLeftMillis)
+    {
+        if(timeLeft == null)
+        {
+            timeLeft = new int[seatIDs.size()];
+        }
+        timeLeft[seatIDs.indexOf(playerID)] = timeLeftMillis;
+        turnStartMillis                     = System.currentTimeMillis();
+    }
+
+    /**
+     * Takes back the user's pending move, if any, and prints the board without it.
+     * <p>
+     * Called when the server will never play the move, e.g. because the game ended first.
+     */
+    public synchronized void rollback()
+    {
+        if(pendingMove == NO_MOVE)
+        {
+            return;
+        }
+        pendingMove = NO_MOVE;
+        printBoard();
     }
 
     /**
@@ -104,14 +250,17 @@ public final class TicTacToeTUI extends TicTacToe
      */
     private Coordinate nextColumn(final Coordinate from, final int direction)
     {
-        int ordinal;
-        ordinal = from.ordinal();
+        final int slots;
+        int       ordinal;
+
+        slots   = getBoardSize() * getBoardSize();
+        ordinal = ordinal(from);
 
         Coordinate to;
         do
         {
-            ordinal = (ordinal + direction + SLOTS_COUNT) % SLOTS_COUNT;
-            to      = new Coordinate(ordinal);
+            ordinal = (ordinal + direction + slots) % slots;
+            to      = coordinate(ordinal);
         }
         while(!isAvailable(to));
         return to;
@@ -126,14 +275,17 @@ public final class TicTacToeTUI extends TicTacToe
      */
     private Coordinate nextRow(final Coordinate from, final int direction)
     {
-        int ordinal;
-        ordinal = from.flip().ordinal();
+        final int slots;
+        int       ordinal;
+
+        slots   = getBoardSize() * getBoardSize();
+        ordinal = ordinal(from.flip());
 
         Coordinate to;
         do
         {
-            ordinal = (ordinal + direction + SLOTS_COUNT) % SLOTS_COUNT;
-            to      = new Coordinate(ordinal).flip();
+            ordinal = (ordinal + direction + slots) % slots;
+            to      = coordinate(ordinal).flip();
         }
         while(!isAvailable(to));
 
@@ -143,22 +295,21 @@ public final class TicTacToeTUI extends TicTacToe
     /**
      * Prints the game board and highlights the chosen slot.
      * If there is a winner, highlights the winning slots
-     * with the winner's color (green for us, red for the opponent).
+     * with the winner's color.
      *
      * @param chosenSlot the slot to highlight,
      *                   or {@code null} if no slot is chosen
      */
-    private void printBoard(final Coordinate chosenSlot)
+    private synchronized void printBoard(final Coordinate chosenSlot)
     {
-        getWinnerID();
         TUI.clearScreen();
         System.out.println("Connect " + WIN_TARGET + " dots in a row to win.");
 
-        System.out.println(ROW_DIVIDER);
-        for(int row = 0; row < BOARD_SIZE; row++)
+        System.out.println(rowDivider);
+        for(int row = 0; row < getBoardSize(); row++)
         {
             System.out.print(COL_DIVIDER);
-            for(int col = 0; col < BOARD_SIZE; col++)
+            for(int col = 0; col < getBoardSize(); col++)
             {
                 String slot;
                 if(new Coordinate(row, col).equals(chosenSlot) && isOurTurn())
@@ -166,6 +317,9 @@ public final class TicTacToeTUI extends TicTacToe
                     slot = TUI.colorize(clientSymbol,
                                         Color.Background.YELLOW,
                                         Color.Foreground.BLACK);
+                } else if(ordinal(new Coordinate(row, col)) == pendingMove)
+                {
+                    slot = TUI.colorize(clientSymbol, Color.Foreground.YELLOW);
                 } else
                 {
                     final Integer player;
@@ -175,31 +329,75 @@ public final class TicTacToeTUI extends TicTacToe
                     if(isWinningSlot(row, col))
                     {
                         slot = TUI.colorize(slot,
-                                            BACKGROUNDS[player],
+                                            BACKGROUNDS[colors[player]],
                                             Color.Foreground.BLACK);
                     } else
                     {
                         slot = TUI.colorize(slot, player == null
                                                  ? Color.Foreground.DEFAULT
-                                                 : FOREGROUNDS[player]);
+                                                 : FOREGROUNDS[colors[player]]);
                     }
                 }
                 System.out.print(slot);
                 System.out.print(COL_DIVIDER);
             }
             System.out.println();
-            System.out.println(ROW_DIVIDER);
+            System.out.println(rowDivider);
         }
         System.out.println();
-        if(isOurTurn())
+        if(timeLeft != null)
+        {
+            printClocks();
+        }
+        if(pendingMove != NO_MOVE)
+        {
+            System.out.println("Sending your move...");
+        } else if(isOurTurn())
         {
             System.out.println("Use arrow keys to navigate and Enter to select");
         }
     }
 
+    /**
+     * Prints each player's clock in their color, in seat order.
+     * The clock of the player to move is in bold, and counts
+     * the time since their turn started.
+     */
+    private void printClocks()
+    {
+        final String        nextPlayerID;
+        final StringBuilder line;
+
+        nextPlayerID = getNextPlayerID();
+        line         = new StringBuilder();
+        for(int seat = 0; seat < seatIDs.size(); seat++)
+        {
+            final boolean running;
+            long          millis;
+            String        clock;
+
+            running = seatIDs.get(seat).equals(nextPlayerID);
+            millis  = timeLeft[seat];
+            if(running)
+            {
+                millis -= System.currentTimeMillis() - turnStartMillis;
+            }
+            millis = Math.max(0, millis);
+            clock  = String.format("%d:%02d",
+                                   TimeUnit.MILLISECONDS.toMinutes(millis),
+                                   TimeUnit.MILLISECONDS.toSeconds(millis) % 60);
+
+            line.append(TUI.colorize(symbols.get(seat), FOREGROUNDS[colors[seat]]))
+                .append(running ? TUI.bold(clock) : clock)
+                .append("  ");
+        }
+        System.out.println(line.toString().stripTrailing());
+        System.out.println();
+    }
+
     /**
      * Prints the game board. If there is a winner, highlights the winning slots
-     * with the winner's color (green for us, red for the opponent).
+     * with the winner's color.
      */
     private void printBoard()
     {
@@ -213,7 +411,7 @@ public final class TicTacToeTUI extends TicTacToe
      */
     private boolean isOurTurn()
     {
-        return clientID.equals(getNextPlayerID());
+        return clientID != null && clientID.equals(getNextPlayerID());
     }
 
     /**
@@ -228,6 +426,6 @@ public final class TicTacToeTUI extends TicTacToe
         {
             return EMPTY_SLOT;
         }
-        return SYMBOLS.get(player);
+        return symbols.get(player);
     }
 }
@@ -0,0 +1,442 @@
+package mygame.multiplayer;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The live feed of a game, for its players and spectators.
+ * <p>
+ * The game server can't write to each player and spectator separately,
+ * or every turn would cost one write per reader, and a popular game
+ * would slow down its own players. Instead, each turn,
+ * it encodes what happened once into a ring of the last {@value #RING_CAPACITY}
+ * frames and writes the whole ring to one file,
+ * /{@code games}/{@code gameID}/{@code broadcast.txt},
+ * which everyone reads. So the cost of a turn is the same
+ * whether there are 2 players and nobody watching,
+ * or 6 players and ten thousand spectators.
+ * <p>
+ * A reader that joins late, or falls behind by more than the ring holds,
+ * reads the game's snapshot instead,
+ * /{@code games}/{@code gameID}/{@code snapshot.txt}: the seats and every frame
+ * so far, compactly encoded. It's written every {@value #SNAPSHOT_INTERVAL} frames
+ * (half the ring, so the ring always covers everything since the last snapshot),
+ * and when the feed starts, the game starts, and the game ends.
+ * <p>
+ * Ring file format, one frame per line after the header:
+ * <pre>
+ * {@code firstSeq lastSeq}
+ * {@code seq START 0}
+ * {@code seq MOVE move}
+ * {@code seq LEAVE seat}
+ * {@code seq CLOCK millis}
+ * {@code seq TIMEOUT seat}
+ * {@code seq END winner}
+ * </pre>
+ * Snapshot format, where each frame is its kind's initial followed by its value:
+ * <pre>
+ * {@code seq}
+ * {@code seatID seatID ...}
+ * {@code C300000 S0 C299200 M112 M113 L1 ...}
+ * </pre>
+ * where a {@code seat} is a player's index in the seat IDs,
+ * and the {@code winner} is the winner's seat, or {@value #NO_WINNER} for a tie.
+ * <p>
+ * Every line, including the last, ends with a line break, so that a file
+ * read while it's being written can be told from a complete one.
+ * Content that is incomplete is ignored, since the complete content
+ * will show up as another change.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class Broadcast
+{
+    /**
+     * The winner of a tied game.
+     */
+    public static final int NO_WINNER = -1;
+
+    private static final int    RING_CAPACITY     = 32;
+    private static final int    SNAPSHOT_INTERVAL = RING_CAPACITY / 2;
+    private static final String SEPARATOR         = " ";
+
+    private final Path          ring;
+    private final Path          snapshot;
+    private final String[]      seats;
+    private final String[]      frames;
+    private final StringBuilder history;
+
+    private long seq;
+
+    /**
+     * The kind of event a frame carries.
+     */
+    public enum Kind
+    {
+        /**
+         * All players have joined, the game begins. The value is unused.
+         */
+        START,
+
+        /**
+         * The player whose turn it was made a move. The value is the move.
+         */
+        MOVE,
+
+        /**
+         * A player left the game. Their turns are skipped from now on.
+         * The value is their seat.
+         */
+        LEAVE,
+
+        /**
+         * The time left on a clock, in milliseconds, if the game has move clocks.
+         * Before {@code START}, it's everyone's: the time control. After, it's the time
+         * the player to move has left once the {@code MOVE} that follows is played,
+         * increment included.
+         */
+        CLOCK,
+
+        /**
+         * The player to move ran out of time. Like {@code LEAVE},
+         * their turns are skipped from now on. The value is their seat.
+         */
+        TIMEOUT,
+
+        /**
+         * The game ended. The value is the winner's seat,
+         * or {@value #NO_WINNER} for a tie.
+         */
+        END
+    }
+
+    /**
+     * An event in the game.
+     *
+     * @param seq   the frame's sequence number, starting at 1
+     * @param kind  the kind of event
+     * @param value the move, seat or time, depending on the kind
+     */
+    public record Frame(long seq, Kind kind, int value) {}
+
+    /**
+     * The whole feed of a game so far, for a reader to start from.
+     *
+     * @param seats  the players' IDs, in seat order
+     * @param frames every frame so far, oldest first
+     */
+    public record Snapshot(List<String> seats, List<Frame> frames) {}
+
+    /**
+     * Starts a game's feed, writing an empty ring and the initial snapshot.
+     *
+     * @param gameID the game's ID
+     * @param seats  the players' IDs, in seat order
+     */
+    public Broadcast(final String gameID,
+                     final String... seats)
+    {
+        this(gameID, new Snapshot(List.of(seats), List.of()));
+    }
+
+    /**
+     * Resumes a game's feed where it was left, e.g. by a server that stopped,
+     * rewriting the ring and the snapshot. The frames keep their sequence numbers,
+     * so readers carry on as if nothing happened.
+     *
+     * @param gameID the game's ID
+     * @param feed   the feed so far (see {@link #recover})
+     */
+    public Broadcast(final String gameID,
+                     final Snapshot feed)
+    {
+        seats    = feed.seats().toArray(String[]::new);
+        ring     = Protocol.getBroadcast(gameID);
+        snapshot = Protocol.getSnapshot(gameID);
+        frames   = new String[RING_CAPACITY];
+        history  = new StringBuilder();
+
+        feed.frames().forEach(frame -> encode(frame.kind(), frame.value()));
+        writeSnapshot();
+        writeRing();
+    }
+
+    /**
+     * Broadcasts the start of the game.
+     */
+    public void start()
+    {
+        append(Kind.START, 0);
+        writeSnapshot();
+    }
+
+    /**
+     * Broadcasts a move.
+     *
+     * @param move the move
+     */
+    public void move(final int move)
+    {
+        append(Kind.MOVE, move);
+    }
+
+    /**
+     * Broadcasts a move and the time its player has left, in one write.
+     *
+     * @param move           the move
+     * @param timeLeftMillis the time the player has left, increment included
+     */
+    public void move(final int move,
+                     final int timeLeftMillis)
+    {
+        final long previousSeq;
+        previousSeq = seq;
+        encode(Kind.CLOCK, timeLeftMillis);
+        encode(Kind.MOVE, move);
+        written(previousSeq);
+    }
+
+    /**
+     * Broadcasts the time control, everyone's time, before the game starts.
+     *
+     * @param timeMillis each player's time
+     */
+    public void clock(final int timeMillis)
+    {
+        append(Kind.CLOCK, timeMillis);
+    }
+
+    /**
+     * Broadcasts that the player to move ran out of time.
+     *
+     * @param seat the player's seat
+     */
+    public void timeout(final int seat)
+    {
+        append(Kind.TIMEOUT, seat);
+    }
+
+    /**
+     * Broadcasts that a player left.
+     *
+     * @param seat the player's seat
+     */
+    public void leave(final int seat)
+    {
+        append(Kind.LEAVE, seat);
+    }
+
+    /**
+     * Broadcasts the end of the game.
+     *
+     * @param winnerSeat the winner's seat, or {@value #NO_WINNER} for a tie
+     */
+    public void end(final int winnerSeat)
+    {
+        append(Kind.END, winnerSeat);
+        writeSnapshot();
+    }
+
+    /**
+     * Reads a game's snapshot.
+     *
+     * @param gameID the game's ID
+     * @return the snapshot, or {@code null} if the game has no feed
+     *         or the snapshot is incomplete
+     */
+    public static Snapshot readSnapshot(final String gameID)
+    {
+        final String content;
+        content = Protocol.read(Protocol.getSnapshot(gameID));
+        if(content == null || !content.endsWith("\n"))
+        {
+            return null;
+        }
+
+        try
+        {
+            final String[]    lines;
+            final long        lastSeq;
+            final List<Frame> decoded;
+
+            lines   = content.split("\n", -1);
+            lastSeq = Long.parseLong(lines[0]);
+            decoded = new ArrayList<>();
+            if(!lines[2].isEmpty())
+            {
+                for(final String token : lines[2].split(SEPARATOR))
+                {
+                    decoded.add(new Frame(decoded.size() + 1,
+                                          kindOf(token.charAt(0)),
+                                          Integer.parseInt(token.substring(1))));
+                }
+            }
+            if(decoded.size() != lastSeq)
+            {
+                return null;
+            }
+            return new Snapshot(List.of(lines[1].split(SEPARATOR)), decoded);
+        } catch(final RuntimeException ignored)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a game's whole feed so far: the snapshot, plus the frames
+     * in the ring since. Since the ring always covers everything since the last
+     * snapshot, nothing is missing, unless the snapshot was being written.
+     *
+     * @param gameID the game's ID
+     * @return the feed, or {@code null} if the game has no feed,
+     *         or it's incomplete
+     */
+    public static Snapshot recover(final String gameID)
+    {
+        final Snapshot    saved;
+        final List<Frame> recent;
+        final List<Frame> all;
+
+        saved  = readSnapshot(gameID);
+        recent = readRing(Protocol.read(Protocol.getBroadcast(gameID)));
+        if(saved == null || recent == null)
+        {
+            return null;
+        }
+
+        all = new ArrayList<>(saved.frames());
+        for(final Frame frame : recent)
+        {
+            if(frame.seq() == all.size() + 1)
+            {
+                all.add(frame);
+            } else if(frame.seq() > all.size() + 1)
+            {
+                return null;
+            }
+        }
+        return new Snapshot(saved.seats(), all);
+    }
+
+    /**
+     * Decodes the frames in a ring file, oldest first.
+     *
+     * @param content the ring file's content
+     * @return the frames, empty if there are none,
+     *         or {@code null} if the content is incomplete
+     */
+    public static List<Frame> readRing(final String content)
+    {
+        if(content == null || !content.endsWith("\n"))
+        {
+            return null;
+        }
+
+        final List<Frame> decoded;
+        final String[]    lines;
+
+        decoded = new ArrayList<>();
+        lines   = content.split("\n");
+        try
+        {
+            final String[] header;
+            header = lines[0].split(SEPARATOR);
+            if(Long.parseLong(header[1]) - Long.parseLong(header[0]) + 1 != lines.length - 1)
+            {
+                return null;
+            }
+            for(int i = 1; i < lines.length; i++)
+            {
+                final String[] tokens;
+                tokens = lines[i].split(SEPARATOR);
+                decoded.add(new Frame(Long.parseLong(tokens[0]),
+                                      Kind.valueOf(tokens[1]),
+                                      Integer.parseInt(tokens[2])));
+            }
+        } catch(final RuntimeException ignored)
+        {
+            return null;
+        }
+        return decoded;
+    }
+
+    /**
+     * Encodes a frame into the ring and the history, then writes the ring,
+     * and the snapshot if it's due.
+     */
+    private void append(final Kind kind,
+                        final int value)
+    {
+        final long previousSeq;
+        previousSeq = seq;
+        encode(kind, value);
+        written(previousSeq);
+    }
+
+    /**
+     * Writes the ring after frames were encoded,
+     * and the snapshot if they went past one that was due.
+     *
+     * @param previousSeq the sequence number before the frames
+     */
+    private void written(final long previousSeq)
+    {
+        writeRing();
+        if(seq / SNAPSHOT_INTERVAL != previousSeq / SNAPSHOT_INTERVAL)
+        {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Encodes a frame into the ring and the history, without writing anything.
+     */
+    private void encode(final Kind kind,
+                        final int value)
+    {
+        seq++;
+        frames[(int) (seq % RING_CAPACITY)] = seq + SEPARATOR + kind + SEPARATOR + value;
+        if(!history.isEmpty())
+        {
+            history.append(SEPARATOR);
+        }
+        history.append(kind.name().charAt(0)).append(value);
+    }
+
+    private void writeRing()
+    {
+        final long          first;
+        final StringBuilder content;
+
+        first   = Math.max(1, seq - RING_CAPACITY + 1);
+        content = new StringBuilder();
+        content.append(first).append(SEPARATOR).append(seq).append('\n');
+        for(long i = first; i <= seq; i++)
+        {
+            content.append(frames[(int) (i % RING_CAPACITY)]).append('\n');
+        }
+        Protocol.write(ring, content);
+    }
+
+    private void writeSnapshot()
+    {
+        Protocol.write(snapshot,
+                       seq + "\n" +
+                       String.join(SEPARATOR, seats) + "\n" +
+                       history + "\n");
+    }
+
+    private static Kind kindOf(final char initial)
+    {
+        for(final Kind kind : Kind.values())
+        {
+            if(kind.name().charAt(0) == initial)
+            {
+                return kind;
+            }
+        }
+        throw new IllegalArgumentException("Unknown frame kind: " + initial);
+    }
+}
@@ -3,6 +3,7 @@ package mygame.multiplayer;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
@@ -19,51 +20,122 @@ import mygame.multiplayer.services.FileMonitor;
  * clients. The directory containing the game data is structured like this:
  *
  * <pre>
- * {@value Protocol#SERVER_FILE} the main server
+ * {@value Protocol#SERVER_FILE} the main servers, all together
+ * {@value Protocol#CLUSTER_LOCK_FILE}: locked by a main server while it starts,
+ * kept across restarts
+ * {@value Protocol#SERVERS_DIR}: directory for the main server processes
+ * | {@code serverID}: directory for an individual main server
+ * | | {@value Protocol#SERVER_FILE}: the server's lease
+ * | | {@value Protocol#CLAIMS_DIR}: the requests the server has claimed,
+ * | | one {@value Protocol#PLAYER_FILE} per client, named after the client's ID
+ * | | {@value Protocol#GAMES_DIR}: the server's lease on each of its games, named after the game's ID
+ * | | {@value Protocol#HANDOFF_SIGNAL}: created to ask the server to hand its games over and stop
  * {@value Protocol#REQUESTS_DIR}: directory for clients join requests
  * | {@code clientID}: directory for an individual request
+ * | | {@value Protocol#PLAYER_FILE}: the name of the player making this request,
+ * | | and how many players they want in the game
  * | | {@value Protocol#CLIENT_FILE}: the client in this request
  * | | {@value Protocol#SERVER_FILE}: the main server in response to this client
+ * {@value Protocol#CPU_REQUESTS_DIR}: directory for clients requests to play against the CPU,
+ * laid out the same as {@value Protocol#REQUESTS_DIR}
+ * {@value Protocol#RESULTS_DIR}: the results of all finished games, and their archive, kept across restarts
+ * {@value Protocol#LEADERBOARD_FILE}: the players ranked by rating (see {@link Standings})
  * {@value Protocol#GAMES_DIR}: directory for all games
  * | {@code gameID}: directory for an individual game
+ * | | {@value Protocol#BROADCAST_FILE}: the last events, for players and spectators
+ * | | (see {@link Broadcast})
+ * | | {@value Protocol#SNAPSHOT_FILE}: the whole game so far, for late readers
  * | | {@code clientID}: directory for an individual client in this game
  * | | | {@value Protocol#CLIENT_FILE}: the client in this game
  * | | | {@value Protocol#MOVE_FILE}: the move made by this client
- * | | | {@value Protocol#SERVER_FILE}: the game server in response to this client
+ * | | | {@value Protocol#SESSION_FILE}: the client's session token,
+ * | | | and whether its seat is on hold
+ * | | | {@value Protocol#RESUME_FILE}: the token, written back by the client to resume
  * </pre>
  * <p>
- * {@value Protocol#SERVER_FILE} is the main server's {@link Connection} file.
- * The server maintains this connection to signal that it's running. Clients
+ * {@value Protocol#SERVER_FILE} is the main servers' {@link Connection} file.
+ * Every main server maintains this connection to signal that the system is running. Clients
  * monitor this connection (see {@link Connection.ConnectionMonitor}) to handle in case
- * the server fails.
+ * the servers fail.
  * <p>
- * A client makes a request to join a game by creating a file at
+ * Several main servers may share the data directory, each in its own process.
+ * They all see every request, but only one may answer it: before answering,
+ * a server claims the request by atomically moving its {@value Protocol#PLAYER_FILE}
+ * into its own {@value Protocol#CLAIMS_DIR} directory. Only one move can succeed;
+ * a request without a {@value Protocol#PLAYER_FILE} but with a live client
+ * has been claimed by another server. The claim is removed once the request is answered.
+ * <p>
+ * Each server keeps a lease, its own {@value Protocol#SERVER_FILE} which it keeps changing,
+ * and holds a lease file for each game it hosts, describing the game's players.
+ * When a server's lease expires, the others release its claims, moving them back
+ * into their requests, and take over its games, each by atomically moving the game's lease
+ * into its own directory, then resuming the game from its broadcast.
+ * <p>
+ * To replace a server without stopping its games, e.g. to deploy a new build,
+ * a new server is started, which creates a {@value Protocol#HANDOFF_SIGNAL} file
+ * in the old server's directory. The old server stops taking requests, lets go
+ * of its games, leaving their leases and broadcasts as they are, writes
+ * {@value Protocol#HANDED_OFF} to the signal, and exits. The other servers don't wait
+ * for its lease to expire: they take over its games right away. The clients
+ * keep their connections to the games, and to {@value Protocol#SERVER_FILE},
+ * which the other servers keep changing, and at worst a move waits for a tick or two.
+ * <p>
+ * A client makes a request to join a game by writing its player's name,
+ * and on the next line the number of players it wants in the game, to
+ * /{@value Protocol#REQUESTS_DIR}/{@code clientID}/{@value Protocol#PLAYER_FILE},
+ * then creating a file at
  * /{@value Protocol#REQUESTS_DIR}/{@code clientID}/{@value Protocol#CLIENT_FILE}
- * and maintains its connection.
+ * and maintaining its connection.
  * <p>
  * The main server monitors the requests directory (see
  * {@link DirectoryMonitor}) to detect incoming requests, and monitors the
  * requests connection files to know who's still in the queue vs who has left.
- * When the main server finds 2 requests, it creates a game server and invites
+ * When the main server finds enough requests for the same number of players,
+ * of players with a similar rating, it creates a game server and invites
  * the clients to join by writing the game's ID to
  * /{@value Protocol#REQUESTS_DIR}/{@code clientID}/{@value Protocol#SERVER_FILE} (for each client).
  * <p>
+ * A client that wants to play against the CPU makes its request in
+ * /{@value Protocol#CPU_REQUESTS_DIR} instead, so that it never enters the queue
+ * of human players. The main server answers it right away with a game against
+ * its bots, one per other seat, which play inside the game server and don't use any files.
+ * <p>
+ * If the main server is at capacity, it answers a request with {@value Protocol#BUSY},
+ * and on the next line how many milliseconds to wait before trying again, instead of a game's ID.
+ * The client then drops its request, which the server removes later,
+ * and after the wait makes a new one under a new ID.
+ * <p>
  * Each client monitors the main server's response file (see
  * {@link FileMonitor}), and when it gets this message, it joins the game by creating a file at
  * /{@value Protocol#GAMES_DIR}/{@code gameID}/{@code clientID}/{@value Protocol#CLIENT_FILE}
  * and maintain its Connection. The game server will monitor this connection to
  * know whether the client is still connected or has abandoned the game.
  * <p>
- * When the game server receives enough players, it starts the game. Each turn,
- * it writes to each client's
- * /{@value Protocol#GAMES_DIR}/{@code gameID}/{@code clientID}/{@value Protocol#SERVER_FILE}
- * file, telling the game status (who won/lost/tie, or whose turn it is) and the
- * last move made. The clients monitor this file and respond accordingly.
+ * When the game server receives enough players, it starts the game.
+ * From then on, it writes every event (the start, each move, a player leaving,
+ * and the end) once to /{@value Protocol#GAMES_DIR}/{@code gameID}/{@value Protocol#BROADCAST_FILE},
+ * however many players there are. The clients monitor this file, replay the events
+ * in their own copy of the game, and so know whose turn it is and who won.
  * <p>
  * To make a move, the client writes to
  * /{@value Protocol#GAMES_DIR}/{@code gameID}/{@code clientID}/{@value Protocol#MOVE_FILE}
  * the value of its move. The game server monitors this file, updates the game
- * state, then signal the next client to move. And so on.
+ * state, then broadcasts the move for the next client to see. And so on.
+ * <p>
+ * When the game server joins a client, it writes a session token, a random ID, to
+ * /{@value Protocol#GAMES_DIR}/{@code gameID}/{@code clientID}/{@value Protocol#SESSION_FILE}.
+ * If the client's connection is lost mid-game, e.g. because the client was stalled
+ * for a moment, its seat is held for a while rather than forfeited:
+ * the server adds a line {@value Protocol#AWAY} to the session file.
+ * To resume, the client writes the token to
+ * /{@value Protocol#GAMES_DIR}/{@code gameID}/{@code clientID}/{@value Protocol#RESUME_FILE}
+ * while maintaining its connection; the server then removes that file and the
+ * {@value Protocol#AWAY} line. The client catches up on what it missed from the broadcast.
+ * If it doesn't resume in time, it forfeits.
+ * <p>
+ * Spectators never write anything: they follow a game by reading its
+ * {@value Protocol#BROADCAST_FILE} and {@value Protocol#SNAPSHOT_FILE},
+ * the same as the players do.
  * <p>
  * This is a generic multiplayer protocol that should work for any turn-based
  * game. This program implements a tic-tac-toe game, but with minimal changes it
@@ -71,13 +143,40 @@ import mygame.multiplayer.services.FileMonitor;
  */
 public final class Protocol
 {
-    private static final Path   PATH             = Path.of("data");
-    private static final String SERVER_FILE      = "server.txt";
-    private static final String CLIENT_FILE      = "client.txt";
-    private static final String INTERRUPT_SIGNAL = "interrupt";
-    private static final String REQUESTS_DIR     = "requests";
-    private static final String GAMES_DIR        = "games";
-    private static final String MOVE_FILE        = "move.txt";
+    /**
+     * The main server's answer to a request when it's at capacity.
+     */
+    public static final String BUSY = "BUSY";
+
+    /**
+     * The line added to a client's session file while its seat is on hold.
+     */
+    public static final String AWAY = "AWAY";
+
+    /**
+     * What a main server writes to its handoff signal once it has let go of its games.
+     */
+    public static final String HANDED_OFF = "HANDED_OFF";
+
+    private static final Path   PATH              = Path.of("data");
+    private static final String SERVER_FILE       = "server.txt";
+    private static final String SERVERS_DIR       = "servers";
+    private static final String CLAIMS_DIR        = "claims";
+    private static final String CLIENT_FILE       = "client.txt";
+    private static final String INTERRUPT_SIGNAL  = "interrupt";
+    private static final String HANDOFF_SIGNAL    = "handoff";
+    private static final String REQUESTS_DIR      = "requests";
+    private static final String CPU_REQUESTS_DIR  = "cpu-requests";
+    private static final String GAMES_DIR         = "games";
+    private static final String MOVE_FILE         = "move.txt";
+    private static final String SESSION_FILE      = "session.txt";
+    private static final String RESUME_FILE       = "resume.txt";
+    private static final String PLAYER_FILE       = "player.txt";
+    private static final String BROADCAST_FILE    = "broadcast.txt";
+    private static final String SNAPSHOT_FILE     = "snapshot.txt";
+    private static final String RESULTS_DIR       = "results";
+    private static final String LEADERBOARD_FILE  = "leaderboard.dat";
+    private static final String CLUSTER_LOCK_FILE = "cluster.lock";
 
     /**
      * Gets the path to the system server's file.
@@ -90,16 +189,86 @@ public final class Protocol
     }
 
     /**
-     * Gets the path to the game server's file.
+     * Gets the path to the directory containing all main servers.
+     *
+     * @return the path to the servers directory
+     */
+    public static Path getServers()
+    {
+        return PATH.resolve(SERVERS_DIR);
+    }
+
+    /**
+     * Gets the path to a main server's lease,
+     * the connection file it keeps changing while it's running.
      *
+     * @param serverID the server's ID
+     * @return the path to the server's lease
+     */
+    public static Path getServerLease(final String serverID)
+    {
+        return getServers().resolve(serverID).resolve(SERVER_FILE);
+    }
+
+    /**
+     * Gets the path to the directory of the requests a main server has claimed.
+     *
+     * @param serverID the server's ID
+     * @return the path to the server's claims
+     */
+    public static Path getClaims(final String serverID)
+    {
+        return getServers().resolve(serverID).resolve(CLAIMS_DIR);
+    }
+
+    /**
+     * Gets the path to a main server's claim on a request,
+     * the request's player file once moved.
+     *
+     * @param serverID the server's ID
+     * @param clientID the ID of the client making the request
+     * @return the path to the claim
+     */
+    public static Path getClaim(final String serverID,
+                                final String clientID)
+    {
+        return getClaims(serverID).resolve(clientID);
+    }
+
+    /**
+     * Gets the path to the directory of a main server's leases on its games.
+     *
+     * @param serverID the server's ID
+     * @return the path to the server's game leases
+     */
+    public static Path getGameLeases(final String serverID)
+    {
+        return getServers().resolve(serverID).resolve(GAMES_DIR);
+    }
+
+    /**
+     * Gets the path to a main server's lease on a game.
+     *
+     * @param serverID the server's ID
      * @param gameID   the game's ID
-     * @param clientID the client's ID
-     * @return the path to the game server's file
+     * @return the path to the lease
      */
-    public static Path getGameServer(final String gameID,
-                                     final String clientID)
+    public static Path getGameLease(final String serverID,
+                                    final String gameID)
     {
-        return getGame(gameID).resolve(clientID).resolve(SERVER_FILE);
+        return getGameLeases(serverID).resolve(gameID);
+    }
+
+    /**
+     * Gets the path to the signal asking a main server to hand its games over
+     * to the others and stop.
+     *
+     * @param serverID the server's ID
+     * @return the path to the server's handoff signal
+     */
+    public static Path getHandoffSignal(final String serverID)
+    {
+        return getServers().resolve(serverID).resolve(HANDOFF_SIGNAL);
     }
 
     /**
@@ -120,7 +289,19 @@ public final class Protocol
      */
     public static Path getRequests()
     {
-        return PATH.resolve(REQUESTS_DIR);
+        return getRequests(false);
+    }
+
+    /**
+     * Gets the path to the directory of requests to play against
+     * either another player or the CPU.
+     *
+     * @param versusCPU whether the requests are to play against the CPU
+     * @return the path to the requests directory
+     */
+    public static Path getRequests(final boolean versusCPU)
+    {
+        return PATH.resolve(versusCPU ? CPU_REQUESTS_DIR : REQUESTS_DIR);
     }
 
     /**
@@ -132,7 +313,21 @@ public final class Protocol
      */
     public static Path getRequest(final String clientID)
     {
-        return getRequests().resolve(clientID);
+        return getRequest(clientID, false);
+    }
+
+    /**
+     * Gets the path to an individual request's directory,
+     * to play against either another player or the CPU.
+     *
+     * @param clientID  the client's ID
+     * @param versusCPU whether the request is to play against the CPU
+     * @return the path to the request
+     */
+    public static Path getRequest(final String clientID,
+                                  final boolean versusCPU)
+    {
+        return getRequests(versusCPU).resolve(clientID);
     }
 
     /**
@@ -143,7 +338,45 @@ public final class Protocol
      */
     public static Path getRequestClient(final String clientID)
     {
-        return getRequest(clientID).resolve(CLIENT_FILE);
+        return getRequestClient(clientID, false);
+    }
+
+    /**
+     * Gets the path to the client file of a request.
+     *
+     * @param clientID  the client's ID
+     * @param versusCPU whether the request is to play against the CPU
+     * @return the path to the client file of a request
+     */
+    public static Path getRequestClient(final String clientID,
+                                        final boolean versusCPU)
+    {
+        return getRequest(clientID, versusCPU).resolve(CLIENT_FILE);
+    }
+
+    /**
+     * Gets the path to the player file of a request,
+     * which contains the name of the player making the request.
+     *
+     * @param clientID the client's ID
+     * @return the path to the player file of a request
+     */
+    public static Path getRequestPlayer(final String clientID)
+    {
+        return getRequestPlayer(clientID, false);
+    }
+
+    /**
+     * Gets the path to the player file of a request.
+     *
+     * @param clientID  the client's ID
+     * @param versusCPU whether the request is to play against the CPU
+     * @return the path to the player file of a request
+     */
+    public static Path getRequestPlayer(final String clientID,
+                                        final boolean versusCPU)
+    {
+        return getRequest(clientID, versusCPU).resolve(PLAYER_FILE);
     }
 
     /**
@@ -154,7 +387,20 @@ public final class Protocol
      */
     public static Path getRequestServer(final String clientID)
     {
-        return getRequest(clientID).resolve(SERVER_FILE);
+        return getRequestServer(clientID, false);
+    }
+
+    /**
+     * Gets the path to the server file of a request.
+     *
+     * @param clientID  the client's ID
+     * @param versusCPU whether the request is to play against the CPU
+     * @return the path to the server file of a request
+     */
+    public static Path getRequestServer(final String clientID,
+                                        final boolean versusCPU)
+    {
+        return getRequest(clientID, versusCPU).resolve(SERVER_FILE);
     }
 
     /**
@@ -178,6 +424,30 @@ public final class Protocol
         return getGames().resolve(gameID);
     }
 
+    /**
+     * Gets the path to a game's broadcast file, the feed spectators follow.
+     *
+     * @param gameID the game's ID
+     * @return the path to the game's broadcast file
+     * @see Broadcast
+     */
+    public static Path getBroadcast(final String gameID)
+    {
+        return getGame(gameID).resolve(BROADCAST_FILE);
+    }
+
+    /**
+     * Gets the path to a game's snapshot file, for spectators joining late.
+     *
+     * @param gameID the game's ID
+     * @return the path to the game's snapshot file
+     * @see Broadcast
+     */
+    public static Path getSnapshot(final String gameID)
+    {
+        return getGame(gameID).resolve(SNAPSHOT_FILE);
+    }
+
     /**
      * Gets the path to a client's directory in a game.
      *
@@ -205,11 +475,72 @@ public final class Protocol
     }
 
     /**
-     * Resets the system's state. To be called when the main server starts.
+     * Gets the path to a client's session file, written by the game server.
+     *
+     * @param gameID   the game's ID
+     * @param clientID the client's ID
+     * @return the path to the client's session file
+     */
+    public static Path getSession(final String gameID,
+                                  final String clientID)
+    {
+        return getGame(gameID).resolve(clientID).resolve(SESSION_FILE);
+    }
+
+    /**
+     * Gets the path to a client's resume file, written by the client
+     * to take back its seat.
+     *
+     * @param gameID   the game's ID
+     * @param clientID the client's ID
+     * @return the path to the client's resume file
+     */
+    public static Path getResume(final String gameID,
+                                 final String clientID)
+    {
+        return getGame(gameID).resolve(clientID).resolve(RESUME_FILE);
+    }
+
+    /**
+     * Gets the path to the directory of the finished games' results.
+     *
+     * @return the path to the results directory
+     */
+    public static Path getResults()
+    {
+        return PATH.resolve(RESULTS_DIR);
+    }
+
+    /**
+     * Gets the path to the leaderboard, written by the main server.
+     *
+     * @return the path to the leaderboard
+     */
+    public static Path getLeaderboard()
+    {
+        return PATH.resolve(LEADERBOARD_FILE);
+    }
+
+    /**
+     * Gets the path to the file the main servers lock while they start,
+     * so that only the first one resets the data directory.
+     *
+     * @return the path to the lock file
+     */
+    public static Path getClusterLock()
+    {
+        return PATH.resolve(CLUSTER_LOCK_FILE);
+    }
+
+    /**
+     * Resets the system's state. To be called when the first main server starts.
+     * The finished games' results, and the cluster's lock, are kept.
      */
     public static void reset()
     {
-        removeRecursive(PATH);
+        listDir(PATH).stream()
+                     .filter(path -> !path.equals(getResults()) && !path.equals(getClusterLock()))
+                     .forEach(Protocol::removeRecursive);
     }
 
     /**
@@ -237,6 +568,31 @@ public final class Protocol
         }
     }
 
+    /**
+     * Writes bytes to a file.
+     * Creates the file if it doesn't exist.
+     * Creates the parent directories if they don't exist.
+     *
+     * @param filePath the path to the file
+     * @param content  the bytes to write to the file
+     * @throws RuntimeException if the file can't be written
+     */
+    public static void write(final Path filePath,
+                             final byte[] content)
+    {
+        try
+        {
+            Files.createDirectories(filePath.getParent());
+            Files.write(filePath,
+                        content,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Creates a file.
      * Creates the parent directories if they don't exist.
@@ -248,6 +604,29 @@ public final class Protocol
         write(filePath, "");
     }
 
+    /**
+     * Moves a file, atomically: when several processes move the same file at once,
+     * exactly one succeeds. Creates the target's parent directories if they don't exist.
+     *
+     * @param source the file to move
+     * @param target where to move it
+     * @return whether this move succeeded, {@code false} if the file wasn't there,
+     *         e.g. because another process moved it first
+     */
+    public static boolean moveAtomically(final Path source,
+                                         final Path target)
+    {
+        try
+        {
+            Files.createDirectories(target.getParent());
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch(final IOException e)
+        {
+            return false;
+        }
+    }
+
     /**
      * Reads a file. Returns {@code null} if for any reason the file can't be read.
      *
@@ -25,4 +25,12 @@ public interface Publisher<T>
      * @param subscriber to be called when the publisher has an update
      */
     void attach(final Subscriber<T> subscriber);
+
+    /**
+     * Removes a subscriber. Publishing that starts after this returns
+     * doesn't call it, but publishing already under way still may.
+     *
+     * @param subscriber a subscriber added by {@link #attach}
+     */
+    void detach(final Subscriber<T> subscriber);
 }
@@ -0,0 +1,181 @@
+package mygame.multiplayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link Service} that owns other services, and stops them all when it stops.
+ * <p>
+ * Instead of keeping a reference to every service it starts,
+ * and remembering to stop each of them one by one,
+ * an owner registers them with its scope (see {@link #own}) as they are created,
+ * then stops the scope. Services are stopped in reverse order of registration.
+ * <p>
+ * Scopes can be nested (see {@link #child}): stopping a scope stops its
+ * child scopes, and a child scope that stops on its own leaves its parent.
+ * <p>
+ * All open scopes are tracked, so that services that are never stopped
+ * (and keep polling forever) can be found with {@link #report}.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class Scope implements Service
+{
+    private static final Set<Scope> OPEN_SCOPES = ConcurrentHashMap.newKeySet();
+
+    private final String       name;
+    private final Scope        parent;
+    private final Set<Service> children;
+
+    private boolean stopped;
+
+    /**
+     * Opens a top-level scope.
+     *
+     * @param name a name for the scope, to identify it in {@link #report}
+     */
+    public Scope(final String name)
+    {
+        this(name, null);
+    }
+
+    /**
+     * Opens a scope.
+     *
+     * @param name   a name for the scope
+     * @param parent the scope owning this one, or {@code null} if top-level
+     */
+    private Scope(final String name,
+                  final Scope parent)
+    {
+        this.name   = parent == null ? name : parent.name + " > " + name;
+        this.parent = parent;
+        children    = new LinkedHashSet<>();
+        OPEN_SCOPES.add(this);
+    }
+
+    /**
+     * Opens a scope owned by this one.
+     *
+     * @param childName a name for the child scope
+     * @return the child scope
+     */
+    public Scope child(final String childName)
+    {
+        return own(new Scope(childName, this));
+    }
+
+    /**
+     * Registers a service with this scope, so that it's stopped with the scope.
+     * <p>
+     * If the scope is already stopped, the service is stopped right away.
+     *
+     * @param service the service
+     * @param <S>     the type of the service
+     * @return the same service
+     */
+    public <S extends Service> S own(final S service)
+    {
+        final boolean rejected;
+        synchronized(this)
+        {
+            rejected = stopped;
+            if(!rejected)
+            {
+                children.add(service);
+            }
+        }
+        if(rejected)
+        {
+            service.stop();
+        }
+        return service;
+    }
+
+    /**
+     * Unregisters a service that has finished on its own,
+     * so that it's no longer reported as live.
+     * Does not stop the service.
+     *
+     * @param service the service
+     */
+    public synchronized void release(final Service service)
+    {
+        children.remove(service);
+    }
+
+    /**
+     * Stops all services owned by this scope, most recently registered first.
+     * Stopping a scope more than once has no effect.
+     */
+    @Override
+    public void stop()
+    {
+        final List<Service> toStop;
+        synchronized(this)
+        {
+            if(stopped)
+            {
+                return;
+            }
+            stopped = true;
+            toStop  = new ArrayList<>(children);
+            children.clear();
+        }
+
+        OPEN_SCOPES.remove(this);
+        Collections.reverse(toStop);
+        toStop.forEach(Service::stop);
+
+        if(parent != null)
+        {
+            parent.release(this);
+        }
+    }
+
+    /**
+     * Lists the services of all open scopes.
+     * <p>
+     * A scope that stays open after its owner is done
+     * is a leak: its services keep running forever.
+     *
+     * @return one line per open scope, followed by one indented line per service
+     */
+    public static String report()
+    {
+        final StringBuilder report;
+        report = new StringBuilder();
+        OPEN_SCOPES.stream()
+                   .sorted((s1, s2) -> s1.name.compareTo(s2.name))
+                   .forEach(scope ->
+                            {
+                                final List<Service> services;
+                                synchronized(scope)
+                                {
+                                    services = new ArrayList<>(scope.children);
+                                }
+                                report.append(scope.name)
+                                      .append(": ")
+                                      .append(services.size())
+                                      .append(" live services")
+                                      .append(System.lineSeparator());
+                                services.stream()
+                                        .filter(service -> !(service instanceof Scope))
+                                        .forEach(service -> report.append("    ")
+                                                                  .append(service)
+                                                                  .append(System.lineSeparator()));
+                            });
+        return report.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Scope[" + name + "]";
+    }
+}
@@ -14,6 +14,7 @@ import mygame.multiplayer.services.Connection;
  * @version 1
  * @see Connection
  * @see PublisherService
+ * @see Scope
  */
 @FunctionalInterface
 public interface Service
@@ -0,0 +1,179 @@
+package mygame.multiplayer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The leaderboard file, written by the main server, read by the clients
+ * (see {@link Protocol#getLeaderboard()}).
+ * <p>
+ * A client only ever looks up its own player, so the file is laid out
+ * for finding one player without reading the others: a header,
+ * then one offset per player, in the order of their names,
+ * then the players' entries:
+ * <pre>
+ * {@code MAGIC (4 bytes) players (4)}
+ * {@code entryOffset (4) ...}
+ * {@code rank (4) rating (2) nameLength (2) name (UTF-8) ...}
+ * </pre>
+ * so a player is found by a binary search over the offsets, which reads
+ * {@code O(log n)} entries, however many players there are.
+ * The file is replaced atomically, so a reader never sees half of it.
+ * Each process writes it through a temporary file of its own, so that
+ * main servers sharing the data directory never write into each other's.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class Standings
+{
+    private static final int MAGIC        = 0x4C445242; // "LDRB"
+    private static final int HEADER_SIZE  = 8;
+    private static final int OFFSET_SIZE  = 4;
+    private static final int ENTRY_HEADER = 8;
+
+    /**
+     * A player's place on the leaderboard.
+     *
+     * @param rank    the player's rank, from 1
+     * @param rating  the player's rating
+     * @param players how many players are ranked
+     */
+    public record Rank(int rank, int rating, int players) {}
+
+    /**
+     * A player's place on the leaderboard, to be written.
+     *
+     * @param player the player's name
+     * @param rank   the player's rank, from 1
+     * @param rating the player's rating, from 0 to {@value Short#MAX_VALUE}
+     */
+    public record Entry(String player, int rank, int rating) {}
+
+    /**
+     * Replaces the leaderboard file.
+     *
+     * @param entries every player's entry, in the order of their names
+     *                (see {@link String#compareTo})
+     */
+    public static void write(final List<Entry> entries)
+    {
+        final byte[][]   names;
+        final ByteBuffer content;
+        final Path       file;
+        final Path       temporary;
+        int              size;
+        int              offset;
+
+        names = new byte[entries.size()][];
+        size  = HEADER_SIZE + OFFSET_SIZE * entries.size();
+        for(int i = 0; i < names.length; i++)
+        {
+            names[i] = entries.get(i).player().getBytes(StandardCharsets.UTF_8);
+            size    += ENTRY_HEADER + names[i].length;
+        }
+
+        content = ByteBuffer.allocate(size).putInt(MAGIC).putInt(entries.size());
+        offset  = HEADER_SIZE + OFFSET_SIZE * entries.size();
+        for(final byte[] name : names)
+        {
+            content.putInt(offset);
+            offset += ENTRY_HEADER + name.length;
+        }
+        for(int i = 0; i < names.length; i++)
+        {
+            content.putInt(entries.get(i).rank())
+                   .putShort((short) entries.get(i).rating())
+                   .putShort((short) names[i].length)
+                   .put(names[i]);
+        }
+
+        file      = Protocol.getLeaderboard();
+        temporary = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        Protocol.write(temporary, content.array());
+        Protocol.moveAtomically(temporary, file);
+    }
+
+    /**
+     * Finds a player's rank.
+     *
+     * @param player the player's name
+     * @return the player's rank, or nothing if they have never played,
+     *         or there is no leaderboard yet, or it can't be read
+     */
+    public static Optional<Rank> find(final String player)
+    {
+        try(final FileChannel channel = FileChannel.open(Protocol.getLeaderboard(),
+                                                         StandardOpenOption.READ))
+        {
+            final ByteBuffer header;
+            final int        players;
+            int              low;
+            int              high;
+
+            header = read(channel, 0, HEADER_SIZE);
+            if(header.getInt(0) != MAGIC)
+            {
+                return Optional.empty();
+            }
+            players = header.getInt(4);
+            low     = 0;
+            high    = players - 1;
+            while(low <= high)
+            {
+                final int        middle;
+                final int        offset;
+                final ByteBuffer entry;
+                final String     name;
+                final int        comparison;
+
+                middle     = (low + high) >>> 1;
+                offset     = read(channel, HEADER_SIZE + (long) OFFSET_SIZE * middle, OFFSET_SIZE).getInt(0);
+                entry      = read(channel, offset, ENTRY_HEADER);
+                name       = new String(read(channel,
+                                             offset + ENTRY_HEADER,
+                                             Short.toUnsignedInt(entry.getShort(6))).array(),
+                                        StandardCharsets.UTF_8);
+                comparison = name.compareTo(player);
+                if(comparison == 0)
+                {
+                    return Optional.of(new Rank(entry.getInt(0), entry.getShort(4), players));
+                } else if(comparison < 0)
+                {
+                    low = middle + 1;
+                } else
+                {
+                    high = middle - 1;
+                }
+            }
+        } catch(final IOException e)
+        {
+            return Optional.empty();
+        }
+        return Optional.empty();
+    }
+
+    private static ByteBuffer read(final FileChannel channel,
+                                   final long position,
+                                   final int length) throws IOException
+    {
+        final ByteBuffer buffer;
+        buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of leaderboard");
+            }
+        }
+        return buffer;
+    }
+
+    private Standings() {}
+}
@@ -20,12 +20,61 @@ public final class CPU extends Client
      */
     public CPU() {}
 
+    /**
+     * Creates a CPU client that plays against
+     * either another player or one of the server's bots.
+     *
+     * @param versusCPU whether to play against the server's bots
+     * @see Client#Client(boolean)
+     */
+    public CPU(final boolean versusCPU)
+    {
+        super(versusCPU);
+    }
+
+    /**
+     * Creates a CPU client that plays a game of several players against
+     * either other players or the server's bots.
+     *
+     * @param versusCPU whether to play against the server's bots
+     * @param players   how many players in the game, including this one
+     * @see Client#Client(boolean, int)
+     */
+    public CPU(final boolean versusCPU,
+               final int players)
+    {
+        super(versusCPU, players);
+    }
+
+    /**
+     * All CPUs play the same way, so they share one name and one rating.
+     *
+     * @return {@code "CPU"}
+     */
+    @Override
+    String getPlayerName()
+    {
+        return "CPU";
+    }
+
     @Override
     int decideMove()
     {
         return getAvailableMove();
     }
 
+    /**
+     * Picking an available move never blocks,
+     * so many CPUs can play in one process without a thread each.
+     *
+     * @return {@code true}
+     */
+    @Override
+    boolean decidesInstantly()
+    {
+        return true;
+    }
+
     /**
      * Logs a message to /dev/null
      * <p>
@@ -1,20 +1,29 @@
 package mygame.multiplayer.client;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import mygame.game.TicTacToe;
+import mygame.multiplayer.Broadcast;
 import mygame.multiplayer.Protocol;
+import mygame.multiplayer.Scope;
 import mygame.multiplayer.Service;
 import mygame.multiplayer.services.Connection;
+import mygame.multiplayer.services.Connection.ConnectionMonitor;
+import mygame.multiplayer.services.EventLoop;
 import mygame.multiplayer.services.Monitor;
+import mygame.multiplayer.services.PollGroup;
 import mygame.multiplayer.services.PublisherService;
 import mygame.multiplayer.services.Scheduler;
 
 /**
  * A client in the game. Handles connecting to the server, then each turn
- * listening to the server's direction, updating internal game state, and
- * sending move to the server.
+ * following the game's {@link Broadcast}, updating internal game state, and
+ * sending its move to the server when it's its turn.
  * <p>
  * Requires an implementation of the {@link #decideMove()} method,
  * which returns the move to be played each turn.
@@ -24,56 +33,208 @@ import mygame.multiplayer.services.Scheduler;
  * <p>
  * As a {@link PublisherService}, the client publishes the game result when it ends,
  * or {@code null} if the game never started.
+ * <p>
+ * All services the client starts are owned by its {@link Scope}:
+ * those only needed while waiting for a game by a "request" child scope,
+ * those only needed while playing by a "game" child scope.
+ * <p>
+ * A client is one session: one request, then one game. Many clients can run
+ * in the same process, e.g. bots each playing their own game, at little cost each:
+ * <ul>
+ *     <li>
+ *         All clients of the process share one monitor of the main server's connection,
+ *         which stops them all when it's lost.
+ *     </li>
+ *     <li>
+ *         Each client has an {@link EventLoop}, which maintains its connections
+ *         and polls its monitors (see {@link PollGroup}) instead of timer threads,
+ *         and delivers all of its callbacks one at a time, so its state needs no locks.
+ *     </li>
+ *     <li>
+ *         Only a move that may block (see {@link #decidesInstantly()})
+ *         is decided in a thread of its own.
+ *     </li>
+ * </ul>
  *
  * @author Felix Nguyen
  * @version 1
  * @see Player
  * @see CPU
  */
-public abstract class Client extends PublisherService<TicTacToe.Status>
+public abstract class Client extends PublisherService<TicTacToe.Status> implements Feed.Handler
 {
-    private final String  clientID;
-    private final Service mainServerConnection;
-    private final Service requestResultMonitor;
+    private static final int    DEFAULT_RETRY_AFTER_MILLIS = 1000;
+    private static final double SERVER_PHI_THRESHOLD       = Double.parseDouble(
+            System.getProperty("mygame.serverPhiThreshold",
+                               String.valueOf(ConnectionMonitor.DEFAULT_PHI_THRESHOLD)));
+
+    private static final Set<Client> LIVE_CLIENTS = new HashSet<>();
+
+    private static Service serverWatch;
 
-    private Service          clientConnection;
-    private Service          gameServerConnection;
+    private final Scope     scope;
+    private final EventLoop loop;
+    private final boolean   versusCPU;
+    private final int       players;
+
+    private String           clientID;
+    private Scope            requestScope;
+    private Scope            gameScope;
+    private Service          retryTimer;
+    private Feed             feed;
     private TicTacToe.Status gameStatus;
     private TicTacToe        game;
     private Path             gameMove;
-    private Service          moveService;
+    private Path             gameResume;
+    private String[]         seats;
+    private boolean          started;
+    private Broadcast.Kind   previousKind;
+    private int              turnNumber;
+    private int              decidedTurn;
 
     /**
-     * Instantiates a {@code Client} object and starts the service.
+     * Instantiates a {@code Client} object that plays a 2-player game
+     * against another player, and starts the service.
      * <p>
      * It will attempt to connect to the main server
-     * and make a request to join the game.
+     * and make a request to join the game (see {@link #request}).
      * When the request is approved (see {@link #handleJoinInvitation}),
-     * it will join the game, then listen to the game server
-     * for what to do each turn  (see {@link #handleTurnSignal}).
+     * it will join the game, then follow the game's broadcast
+     * to know what to do each turn (see {@link #handleFeed}).
      * <p>
-     * If at any point the main server connection fails,
+     * If at any point the main server connection fails, i.e. the suspicion that
+     * it's lost reaches {@code mygame.serverPhiThreshold} (see {@link ConnectionMonitor}),
      * the client service will stop.
      */
     public Client()
     {
-        log("Waiting for an opponent...");
+        this(false);
+    }
+
+    /**
+     * Instantiates a {@code Client} object that plays a 2-player game against
+     * either another player or the CPU, and starts the service.
+     *
+     * @param versusCPU whether to play against the CPU
+     * @see #Client(boolean, int)
+     */
+    public Client(final boolean versusCPU)
+    {
+        this(versusCPU, TicTacToe.MIN_PLAYERS);
+    }
+
+    /**
+     * Instantiates a {@code Client} object that plays against
+     * either other players or the CPU, and starts the service.
+     * <p>
+     * A request to play against the CPU is answered right away
+     * with a game against the server's bots, one per other seat.
+     *
+     * @param versusCPU whether to play against the CPU
+     * @param players   how many players in the game, including this one
+     * @throws IllegalArgumentException if the number of players is not supported
+     * @see #Client()
+     */
+    public Client(final boolean versusCPU,
+                  final int players)
+    {
+        if(players < TicTacToe.MIN_PLAYERS || players > TicTacToe.MAX_PLAYERS)
+        {
+            throw new IllegalArgumentException("Invalid number of players");
+        }
 
-        final Path server;
-        final Path requestClient;
-        final Path requestServer;
+        log(versusCPU ? "Starting a game against the CPU..." : "Waiting for opponents...");
+
+        this.versusCPU = versusCPU;
+        this.players   = players;
+        decidedTurn    = -1;
+        scope          = new Scope("client");
+        loop           = scope.own(new EventLoop());
+
+        watchServer(this);
+        request();
+    }
+
+    /**
+     * Adds a client to those stopped when the main server fails,
+     * starting the monitor of the server's connection if it's the first.
+     *
+     * @param client the client
+     */
+    private static void watchServer(final Client client)
+    {
+        synchronized(LIVE_CLIENTS)
+        {
+            LIVE_CLIENTS.add(client);
+            if(serverWatch == null)
+            {
+                serverWatch = Monitor.When.connectionLost(Protocol.getServer(), null, SERVER_PHI_THRESHOLD)
+                                          .then(Client::serverLost);
+            }
+        }
+    }
+
+    /**
+     * Removes a client from those stopped when the main server fails,
+     * stopping the monitor of the server's connection if it was the last.
+     *
+     * @param client the client
+     */
+    private static void unwatchServer(final Client client)
+    {
+        synchronized(LIVE_CLIENTS)
+        {
+            if(LIVE_CLIENTS.remove(client) && LIVE_CLIENTS.isEmpty() && serverWatch != null)
+            {
+                serverWatch.stop();
+                serverWatch = null;
+            }
+        }
+    }
+
+    /**
+     * Stops every live client, on its own loop, when the main server fails.
+     * The monitor has stopped itself; the next client starts a new one.
+     */
+    private static void serverLost()
+    {
+        final List<Client> clients;
+        synchronized(LIVE_CLIENTS)
+        {
+            clients     = new ArrayList<>(LIVE_CLIENTS);
+            serverWatch = null;
+        }
+        for(final Client client : clients)
+        {
+            client.loop.post(() ->
+                             {
+                                 client.serverFailed();
+                                 client.stop();
+                             });
+        }
+    }
+
+    /**
+     * Makes a request to join a game, under a new client ID.
+     */
+    private void request()
+    {
+        final Path      requestPlayer;
+        final Path      requestClient;
+        final Path      requestServer;
+        final PollGroup requestGroup;
 
         clientID      = UUID.randomUUID().toString();
-        server        = Protocol.getServer();
-        requestClient = Protocol.getRequestClient(clientID);
-        requestServer = Protocol.getRequestServer(clientID);
-
-        clientConnection     = new Connection(requestClient);
-        mainServerConnection = Monitor.When.connectionLost(server)
-                                           .then(this::serverFailed)
-                                           .then(this::stop);
-        requestResultMonitor = Monitor.When.fileChange(requestServer)
-                                           .then(this::handleJoinInvitation);
+        requestPlayer = Protocol.getRequestPlayer(clientID, versusCPU);
+        requestClient = Protocol.getRequestClient(clientID, versusCPU);
+        requestServer = Protocol.getRequestServer(clientID, versusCPU);
+        requestScope  = scope.child("request " + clientID);
+        requestGroup  = new PollGroup(Protocol.getRequest(clientID, versusCPU), loop);
+
+        Protocol.write(requestPlayer, getPlayerName() + "\n" + players + "\n");
+        requestScope.own(new Connection(requestClient, loop));
+        requestScope.own(Monitor.When.fileChange(requestServer, requestGroup)
+                                     .then(loop.deliver(this::handleJoinInvitation)));
     }
 
     /**
@@ -83,6 +244,20 @@ public abstract class Client extends PublisherService<TicTacToe.Status>
      */
     abstract int decideMove();
 
+    /**
+     * Whether {@link #decideMove()} returns right away, e.g. an algorithm,
+     * rather than blocking, e.g. waiting for the user's input.
+     * <p>
+     * A move decided instantly is decided on the client's loop;
+     * otherwise in a thread of its own. By default it's the latter.
+     *
+     * @return whether moves are decided without blocking
+     */
+    boolean decidesInstantly()
+    {
+        return false;
+    }
+
     /**
      * Stops all game-related services.
      * <p>
@@ -94,31 +269,79 @@ public abstract class Client extends PublisherService<TicTacToe.Status>
     public void stop()
     {
         publish(gameStatus);
-        mainServerConnection.stop();
-        requestResultMonitor.stop();
-        if(gameServerConnection != null)
-        {
-            gameServerConnection.stop();
-        }
-        if(moveService != null)
-        {
-            moveService.stop();
-        }
-        clientConnection.stop();
+        scope.stop();
+        unwatchServer(this);
     }
 
     /**
      * Creates a game to keep track of the game state.
      * <p>
-     * Opponent's ID is required to determine who plays first,
+     * All players' IDs are required to determine who plays when,
      * which is by alphabetical order of the IDs.
      *
-     * @param opponentID the opponent's ID
+     * @param playerIDs the players' IDs, including this client's
      * @return a new {@link TicTacToe} instance
      */
-    TicTacToe createGame(final String opponentID)
+    TicTacToe createGame(final String... playerIDs)
     {
-        return new TicTacToe(clientID, opponentID);
+        return new TicTacToe(playerIDs);
+    }
+
+    /**
+     * Called when the game ends, or this client is removed from it,
+     * before the outcome is logged. A move sent but not yet played never will be.
+     * <p>
+     * Child classes may override this, e.g. to take back a move
+     * that was shown before the server played it. By default it does nothing.
+     */
+    void leftGame() {}
+
+    /**
+     * Called when a player's clock is set from the broadcast,
+     * if the game has move clocks.
+     * <p>
+     * Child classes may override this, e.g. to display the clocks.
+     * By default it does nothing.
+     *
+     * @param playerID       the player's ID
+     * @param timeLeftMillis the time they have left, in milliseconds
+     */
+    void clockChanged(final String playerID,
+                      final int timeLeftMillis) {}
+
+    /**
+     * Gets the name of the player, which the server rates across games.
+     * <p>
+     * By default this is the name of the user running the program
+     * (see {@link #getUserPlayerName}), since players share the same machine.
+     *
+     * @return the player's name
+     */
+    String getPlayerName()
+    {
+        return getUserPlayerName();
+    }
+
+    /**
+     * Gets the name a human player plays under, e.g. to look up their rank
+     * before they play: the name of the user running the program.
+     *
+     * @return the player's name
+     */
+    public static String getUserPlayerName()
+    {
+        return System.getProperty("user.name");
+    }
+
+    /**
+     * Gets the scope owning all of this client's services.
+     * Child classes may register their own services with it.
+     *
+     * @return the client's scope
+     */
+    final Scope getScope()
+    {
+        return scope;
     }
 
     /**
@@ -145,22 +368,21 @@ public abstract class Client extends PublisherService<TicTacToe.Status>
     }
 
     /**
-     * Plays a move.
-     * This updates the internal game state and sends the move to the server.
+     * Plays a move by sending it to the server.
+     * The internal game state is updated when the move comes back in the broadcast.
      *
      * @param move a number representing the position to be played
      */
     private void playMove(final int move)
     {
-        game.update(move);
         Protocol.write(gameMove, move);
     }
 
     /**
      * Handles the server's invitation to join a game.
      * <p>
-     * The message should have 2 lines.
-     * The first line is the game's ID and the second is the opponent's ID.
+     * The message is the game's ID, or {@link Protocol#BUSY}
+     * if the server can't take the request right now (see {@link #retryLater}).
      *
      * @param message the server's message
      */
@@ -171,117 +393,292 @@ public abstract class Client extends PublisherService<TicTacToe.Status>
             return;
         }
 
-        clientConnection.stop();
-        requestResultMonitor.stop();
+        requestScope.stop();
+        if(message.startsWith(Protocol.BUSY))
+        {
+            retryLater(message);
+            return;
+        }
+
+        final String    gameID;
+        final Path      clientFile;
+        final Path      broadcast;
+        final PollGroup gameGroup;
+
+        gameID     = message.strip();
+        gameMove   = Protocol.getMove(gameID, clientID);
+        gameResume = Protocol.getResume(gameID, clientID);
+        clientFile = Protocol.getClient(gameID, clientID);
+        broadcast  = Protocol.getBroadcast(gameID);
+        gameScope  = scope.child("game " + gameID);
+        gameGroup  = new PollGroup(Protocol.getGame(gameID), loop);
+        feed       = new Feed(gameID, this);
+
+        gameScope.own(new Connection(clientFile, loop));
+        gameScope.own(Monitor.When.fileChange(broadcast, gameGroup)
+                                  .then(loop.deliver(this::handleFeed)));
+        gameScope.own(Monitor.When.fileChange(Protocol.getSession(gameID, clientID), gameGroup)
+                                  .then(loop.deliver(this::handleSession)));
+        handleFeed(Protocol.read(broadcast));
+    }
+
+    /**
+     * Handles a change of the client's session file. If the server is holding
+     * the client's seat, e.g. because the client was stalled for long enough
+     * to miss its heartbeats, resumes by writing back the session token.
+     *
+     * @param session the session file's content: the token,
+     *                then {@link Protocol#AWAY} if the seat is on hold
+     */
+    private void handleSession(final String session)
+    {
+        if(session == null || !session.endsWith("\n"))
+        {
+            return;
+        }
+
+        final String[] lines;
+        lines = session.split("\n");
+        if(lines.length > 1 && lines[1].equals(Protocol.AWAY))
+        {
+            log("Connection interrupted, resuming...");
+            Protocol.write(gameResume, lines[0] + "\n");
+        }
+    }
 
+    /**
+     * Makes a new request after the delay the server asked for.
+     * The request that was turned away is left for the server to remove.
+     *
+     * @param message the server's {@link Protocol#BUSY} message,
+     *                with the delay in milliseconds on the second line
+     */
+    private void retryLater(final String message)
+    {
         final String[] lines;
-        final String   gameID;
-        final String   opponentID;
-        final Path     clientFile;
-        final Path     serverFile;
-
-        lines                = message.split(System.lineSeparator());
-        gameID               = lines[0];
-        opponentID           = lines[1];
-        game                 = createGame(opponentID);
-        gameMove             = Protocol.getMove(gameID, clientID);
-        clientFile           = Protocol.getClient(gameID, clientID);
-        serverFile           = Protocol.getGameServer(gameID, clientID);
-        clientConnection     = new Connection(clientFile);
-        gameServerConnection = Monitor.When.fileChange(serverFile)
-                                           .then(this::handleTurnSignal);
+        int            retryAfterMillis;
+
+        lines = message.strip().split("\\R");
+        try
+        {
+            retryAfterMillis = Integer.parseInt(lines[1].strip());
+        } catch(final RuntimeException e)
+        {
+            retryAfterMillis = DEFAULT_RETRY_AFTER_MILLIS;
+        }
+
+        log("The server is busy, trying again in " +
+            Math.ceilDiv(retryAfterMillis, 1000) + " seconds...");
+
+        retryTimer = scope.own(loop.after(retryAfterMillis, this::retry));
     }
 
     /**
-     * Handles the server's turn signal.
-     * <p>
-     * Each turn the server sends a signal of what to do for this turn.
-     * The data should have one line containing the game's status,
-     * and another line containing what move was previously played.
+     * Makes the new request once the delay has passed.
+     */
+    private void retry()
+    {
+        scope.release(retryTimer);
+        request();
+    }
+
+    /**
+     * Handles a change of the game's broadcast.
      * <p>
-     * Use the 2nd line to update the internal game state,
-     * and handle the status signal as follows:
+     * Applies the new frames (see {@link #apply}), then if the game is still on:
      *
      * <ul>
      *     <li>
-     *         If it's a game-ending signal ({@code WON/LOST/TIE}), {@link #stop()}
+     *         If it's another player's turn, do nothing.
      *     </li>
      *     <li>
-     *         If it's a {@code WAIT} signal, do nothing.
-     *     </li>
-     *     <li>
-     *         If it's a {@code YOUR_TURN} signal,
+     *         If it's this client's turn,
      *         call {@link #decideMove()}, then {@link #playMove(int)}.
-     *         Because {@code decideMove} is a blocking call,
+     *         Unless {@code decideMove} returns right away,
      *         it will be run in another thread so that
      *         the client can still react to events such as server failure.
      *     </li>
      * </ul>
      *
-     * @param message the server's message
+     * @param message the broadcast ring
      */
-    private void handleTurnSignal(final String message)
+    private void handleFeed(final String message)
     {
+        if(gameStatus != null)
+        {
+            return;
+        }
         if(message == null)
         {
             serverFailed();
+            stop();
             return;
         }
-        if(message.isEmpty())
+        if(!feed.update(message) || gameStatus != null || !started)
         {
             return;
         }
 
-        final String[] tokens;
-        tokens = message.split(System.lineSeparator());
-        if(tokens.length == 2)
+        if(clientID.equals(game.getNextPlayerID()))
         {
-            final String previousMove;
-            previousMove = tokens[1];
-            game.update(Integer.parseInt(previousMove));
+            if(decidedTurn != turnNumber)
+            {
+                decidedTurn = turnNumber;
+                if(decidesInstantly())
+                {
+                    playMove(decideMove());
+                } else
+                {
+                    decideInBackground();
+                }
+            }
         } else
         {
-            game.update(null);
+            log("Opponent's turn...");
         }
+    }
 
-        this.gameStatus = TicTacToe.Status.valueOf(tokens[0]);
-        switch(gameStatus)
+    @Override
+    public void reset(final String[] seats)
+    {
+        this.seats   = seats;
+        game         = createGame(seats);
+        started      = false;
+        previousKind = null;
+        turnNumber   = 0;
+    }
+
+    /**
+     * Applies a frame of the game's broadcast.
+     * <p>
+     * If it's the end of the game, or this client was removed from the game,
+     * {@link #stop()}.
+     *
+     * @param frame the frame
+     */
+    @Override
+    public void apply(final Broadcast.Frame frame)
+    {
+        if(gameStatus != null)
         {
-            case TIE:
-                log("It is tie!");
-                stop();
-                break;
-            case WON:
-                if(getAvailableMove() != null)
-                {
-                    log("Opponent disconnected.");
-                } else
-                {
-                    log("You won!");
-                }
-                stop();
-                break;
-            case LOST:
-                if(getAvailableMove() != null)
-                {
-                    clientFailed();
-                } else
+            return;
+        }
+        switch(frame.kind())
+        {
+            case START -> started = true;
+            case MOVE ->
+            {
+                game.update(frame.value());
+                turnNumber++;
+            }
+            case CLOCK -> clock(frame.value());
+            case LEAVE -> leave(seats[frame.value()]);
+            case TIMEOUT -> timeout(seats[frame.value()]);
+            case END -> end(frame.value());
+        }
+        previousKind = frame.kind();
+    }
+
+    /**
+     * Sets a clock: before the game starts, everyone's;
+     * after, that of the player to move, whose move follows.
+     *
+     * @param timeLeftMillis the time left, in milliseconds
+     */
+    private void clock(final int timeLeftMillis)
+    {
+        if(started)
+        {
+            clockChanged(game.getNextPlayerID(), timeLeftMillis);
+            return;
+        }
+        for(final String seat : seats)
+        {
+            clockChanged(seat, timeLeftMillis);
+        }
+    }
+
+    /**
+     * Removes a player who ran out of time from the game.
+     * If it's this client, it lost, so stop.
+     *
+     * @param playerID the player's ID
+     */
+    private void timeout(final String playerID)
+    {
+        if(clientID.equals(playerID))
+        {
+            leftGame();
+            log("You ran out of time!");
+            gameStatus = TicTacToe.Status.LOST;
+            stop();
+            return;
+        }
+        log("A player ran out of time.");
+        game.remove(playerID);
+    }
+
+    /**
+     * Removes a player who left from the game.
+     * If it's this client, the server lost its connection, so stop.
+     *
+     * @param playerID the player's ID
+     */
+    private void leave(final String playerID)
+    {
+        if(clientID.equals(playerID))
+        {
+            leftGame();
+            clientFailed();
+            stop();
+            return;
+        }
+        log("A player left the game.");
+        game.remove(playerID);
+    }
+
+    /**
+     * Announces the game result and stops.
+     *
+     * @param winnerSeat the winner's seat, or {@link Broadcast#NO_WINNER} for a tie
+     */
+    private void end(final int winnerSeat)
+    {
+        leftGame();
+        if(winnerSeat == Broadcast.NO_WINNER)
+        {
+            log(started ? "It is tie!" : "A player left before the game started.");
+            gameStatus = TicTacToe.Status.TIE;
+        } else if(clientID.equals(seats[winnerSeat]))
+        {
+            log(switch(previousKind)
                 {
-                    log("You lost!");
-                }
-                stop();
-                break;
-            case YOUR_TURN:
-                moveService = Scheduler.await(this::decideMove)
-                                       .then(this::playMove);
-                break;
-            case WAIT:
-                log("Opponent's turn...");
-                break;
-            case ERROR:
-                stop();
-                break;
+                    case LEAVE -> "Opponent disconnected.";
+                    case TIMEOUT -> "Opponent ran out of time.";
+                    case null, default -> "You won!";
+                });
+            gameStatus = TicTacToe.Status.WON;
+        } else
+        {
+            log("You lost!");
+            gameStatus = TicTacToe.Status.LOST;
         }
+        stop();
+    }
+
+    /**
+     * Runs {@link #decideMove()} in another thread, then plays the move on the loop.
+     * The thread is owned by the game scope until the move is decided.
+     */
+    private void decideInBackground()
+    {
+        final PublisherService<Integer> decision;
+        decision = gameScope.own(Scheduler.await(this::decideMove));
+        decision.then(loop.deliver(move ->
+                                   {
+                                       gameScope.release(decision);
+                                       playMove(move);
+                                   }));
     }
 
     /**
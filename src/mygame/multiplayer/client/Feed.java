@@ -0,0 +1,118 @@
+package mygame.multiplayer.client;
+
+import java.util.List;
+
+import mygame.multiplayer.Broadcast;
+
+/**
+ * Follows a game's {@link Broadcast}, for a {@link Client} or a {@link Spectator}.
+ * <p>
+ * Each time the broadcast ring changes, applies the frames not seen yet,
+ * in order, exactly once. The first time, or whenever frames were missed
+ * (the reader fell further behind than the ring holds), it first rebuilds
+ * from the game's snapshot.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class Feed
+{
+    private final String  gameID;
+    private final Handler handler;
+
+    private long    lastSeq;
+    private boolean ready;
+
+    /**
+     * What to do with the frames of a feed.
+     */
+    interface Handler
+    {
+        /**
+         * Starts over with a new game, before the frames of a snapshot are applied.
+         *
+         * @param seats the players' IDs, in seat order
+         */
+        void reset(String[] seats);
+
+        /**
+         * Applies a frame.
+         *
+         * @param frame the frame
+         */
+        void apply(Broadcast.Frame frame);
+    }
+
+    /**
+     * Creates a feed follower. Nothing happens until the first {@link #update}.
+     *
+     * @param gameID  the game's ID
+     * @param handler what to do with the frames
+     */
+    Feed(final String gameID,
+         final Handler handler)
+    {
+        this.gameID  = gameID;
+        this.handler = handler;
+    }
+
+    /**
+     * Applies the new frames in the ring.
+     *
+     * @param ring the ring file's content
+     * @return whether any frame was applied
+     */
+    synchronized boolean update(final String ring)
+    {
+        final List<Broadcast.Frame> frames;
+        boolean                     applied;
+
+        frames  = Broadcast.readRing(ring);
+        applied = false;
+        if(frames == null)
+        {
+            return false;
+        }
+
+        if(!ready || isBehind(frames))
+        {
+            final Broadcast.Snapshot snapshot;
+            snapshot = Broadcast.readSnapshot(gameID);
+            if(snapshot == null)
+            {
+                return false;
+            }
+
+            handler.reset(snapshot.seats().toArray(String[]::new));
+            ready   = true;
+            lastSeq = 0;
+            snapshot.frames().forEach(this::apply);
+            applied = true;
+            if(isBehind(frames))
+            {
+                return true; // the snapshot is older than the ring, wait for the next one
+            }
+        }
+
+        for(final Broadcast.Frame frame : frames)
+        {
+            if(frame.seq() > lastSeq)
+            {
+                apply(frame);
+                applied = true;
+            }
+        }
+        return applied;
+    }
+
+    private boolean isBehind(final List<Broadcast.Frame> frames)
+    {
+        return !frames.isEmpty() && frames.getFirst().seq() > lastSeq + 1;
+    }
+
+    private void apply(final Broadcast.Frame frame)
+    {
+        lastSeq = frame.seq();
+        handler.apply(frame);
+    }
+}
@@ -0,0 +1,383 @@
+package mygame.multiplayer.client;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+import mygame.game.TicTacToe;
+import mygame.multiplayer.Broadcast;
+import mygame.multiplayer.Protocol;
+import mygame.multiplayer.services.Scheduler;
+
+/**
+ * A bot client of a {@link LoadGenerator}.
+ * <p>
+ * Speaks the same protocol as a {@link Client}, but has no services or threads
+ * of its own: everything it does happens in {@link #tick}, called once per clock
+ * period by one of the generator's loops, which does the job of a client's
+ * connection (writing the heartbeat) and monitors (reading the request's answer,
+ * or the game's broadcast), and moves once its think time has passed.
+ * <p>
+ * A bot whose loop stalls long enough to miss a heartbeat checks its session
+ * for a while afterwards, and resumes if the game server is holding its seat.
+ * <p>
+ * Not thread-safe: a bot is only ever ticked by the same loop.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class LoadBot implements Feed.Handler
+{
+    private static final int DEFAULT_RETRY_AFTER_MILLIS = 1000;
+    private static final int MAX_COUNTER                = 100000;
+    private static final int NOT_SENT                   = -1;
+    private static final int STALL_MILLIS               = Scheduler.CLOCK_PERIOD_MILLIS +
+                                                          Scheduler.CLOCK_PERIOD_MILLIS / 10;
+    private static final int SESSION_WATCH_MILLIS       = 4 * Scheduler.CLOCK_PERIOD_MILLIS;
+
+    private final LoadGenerator generator;
+    private final String        name;
+
+    private State            state;
+    private long             wakeMillis;
+    private long             firstRequestMillis;
+    private String           clientID;
+    private Path             heartbeat;
+    private Path             answer;
+    private Path             broadcast;
+    private Path             move;
+    private Path             session;
+    private Path             resume;
+    private Feed             feed;
+    private TicTacToe        game;
+    private String[]         seats;
+    private TicTacToe.Status status;
+    private boolean          started;
+    private int              turnNumber;
+    private int              decidedTurn;
+    private long             moveDueMillis;
+    private long             sentNanos;
+    private int              counter;
+    private long             lastBeatMillis;
+    private long             watchSessionUntil;
+
+    private enum State
+    {
+        IDLE, REQUESTING, PLAYING, DONE
+    }
+
+    /**
+     * Creates a bot that makes its first request on its first tick.
+     *
+     * @param generator the generator to report to
+     * @param name      the player's name
+     * @param now       the current time
+     */
+    LoadBot(final LoadGenerator generator,
+            final String name,
+            final long now)
+    {
+        this.generator = generator;
+        this.name      = name;
+        state          = State.IDLE;
+        wakeMillis     = now;
+    }
+
+    /**
+     * Does one clock period's worth of work.
+     *
+     * @param now the current time
+     * @return whether the bot is done for good, and can be forgotten
+     */
+    boolean tick(final long now)
+    {
+        switch(state)
+        {
+            case IDLE ->
+            {
+                if(now >= wakeMillis)
+                {
+                    request(now);
+                }
+            }
+            case REQUESTING ->
+            {
+                beat(now);
+                readAnswer(now);
+            }
+            case PLAYING ->
+            {
+                if(now - lastBeatMillis > STALL_MILLIS)
+                {
+                    watchSessionUntil = now + SESSION_WATCH_MILLIS;
+                }
+                beat(now);
+                if(now < watchSessionUntil)
+                {
+                    resumeIfHeld();
+                }
+                play(now);
+            }
+            default ->
+            {
+                // done, nothing left to do
+            }
+        }
+        return state == State.DONE;
+    }
+
+    /**
+     * Makes a request to join a game, under a new client ID.
+     *
+     * @param now the current time
+     */
+    private void request(final long now)
+    {
+        final LoadGenerator.Profile profile;
+        profile = generator.getProfile();
+
+        if(firstRequestMillis == 0)
+        {
+            firstRequestMillis = now;
+        }
+        clientID  = UUID.randomUUID().toString();
+        heartbeat = Protocol.getRequestClient(clientID, profile.versusCPU());
+        answer    = Protocol.getRequestServer(clientID, profile.versusCPU());
+        state     = State.REQUESTING;
+
+        Protocol.write(Protocol.getRequestPlayer(clientID, profile.versusCPU()),
+                       name + "\n" + profile.players() + "\n");
+        beat(now);
+    }
+
+    /**
+     * Reads the server's answer to the request, if there is one yet:
+     * either a game to join, or {@link Protocol#BUSY} and when to try again.
+     *
+     * @param now the current time
+     */
+    private void readAnswer(final long now)
+    {
+        final String message;
+        message = Protocol.read(answer);
+        if(message == null || message.isEmpty())
+        {
+            return;
+        }
+
+        if(message.startsWith(Protocol.BUSY))
+        {
+            generator.turnedAway();
+            state      = State.IDLE;
+            wakeMillis = now + retryAfterMillis(message);
+            return;
+        }
+
+        final String gameID;
+        gameID = message.strip();
+
+        generator.joined(now - firstRequestMillis);
+        heartbeat   = Protocol.getClient(gameID, clientID);
+        broadcast   = Protocol.getBroadcast(gameID);
+        move        = Protocol.getMove(gameID, clientID);
+        session     = Protocol.getSession(gameID, clientID);
+        resume      = Protocol.getResume(gameID, clientID);
+        feed        = new Feed(gameID, this);
+        status      = null;
+        decidedTurn = -1;
+        state       = State.PLAYING;
+        beat(now);
+    }
+
+    private static int retryAfterMillis(final String message)
+    {
+        final String[] lines;
+        lines = message.strip().split("\\R");
+        try
+        {
+            return Integer.parseInt(lines[1].strip());
+        } catch(final RuntimeException e)
+        {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+    }
+
+    /**
+     * Follows the game's broadcast, and plays when it's this bot's turn
+     * and its think time has passed.
+     *
+     * @param now the current time
+     */
+    private void play(final long now)
+    {
+        final String ring;
+        ring = Protocol.read(broadcast);
+        if(ring == null)
+        {
+            finish(TicTacToe.Status.ERROR, now);
+            return;
+        }
+
+        feed.update(ring);
+        if(status != null)
+        {
+            finish(status, now);
+            return;
+        }
+        if(!started || !clientID.equals(game.getNextPlayerID()))
+        {
+            return;
+        }
+
+        if(decidedTurn != turnNumber)
+        {
+            decidedTurn   = turnNumber;
+            moveDueMillis = now + generator.getProfile()
+                                           .think()
+                                           .sample(generator.getProfile().thinkMillis());
+        }
+        if(sentNanos == NOT_SENT && now >= moveDueMillis)
+        {
+            Protocol.write(move, game.getAvailableMove());
+            sentNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Reports the game's result, then either requests another game after
+     * a think time, in a closed loop, or is done, in an open loop.
+     * Either way its heartbeat stops, so the server lets go of it.
+     *
+     * @param result the bot's result
+     * @param now    the current time
+     */
+    private void finish(final TicTacToe.Status result,
+                        final long now)
+    {
+        final LoadGenerator.Profile profile;
+        profile = generator.getProfile();
+
+        generator.finished(result, seats != null && clientID.equals(seats[0]));
+        firstRequestMillis = 0;
+        if(profile.isOpenLoop())
+        {
+            state = State.DONE;
+            generator.left();
+        } else
+        {
+            state      = State.IDLE;
+            wakeMillis = now + profile.think().sample(profile.thinkMillis());
+        }
+    }
+
+    /**
+     * Writes to the connection file, changing its content, same as a {@code Connection}.
+     *
+     * @param now the current time
+     */
+    private void beat(final long now)
+    {
+        counter        = (counter + 1) % MAX_COUNTER;
+        lastBeatMillis = now;
+        Protocol.write(heartbeat, counter);
+    }
+
+    /**
+     * Writes back the session token if the game server is holding this bot's seat,
+     * same as a {@link Client}.
+     */
+    private void resumeIfHeld()
+    {
+        final String content;
+        content = Protocol.read(session);
+        if(content == null || !content.endsWith("\n"))
+        {
+            return;
+        }
+
+        final String[] lines;
+        lines = content.split("\n");
+        if(lines.length > 1 && lines[1].equals(Protocol.AWAY))
+        {
+            Protocol.write(resume, lines[0] + "\n");
+            watchSessionUntil = 0;
+        }
+    }
+
+    @Override
+    public void reset(final String[] seats)
+    {
+        this.seats = seats;
+        if(game == null || game.getBoardSize() != TicTacToe.getBoardSize(seats.length))
+        {
+            game = new TicTacToe(seats);
+        } else
+        {
+            game.reset(seats);
+        }
+        started    = false;
+        turnNumber = 0;
+        sentNanos  = NOT_SENT;
+    }
+
+    /**
+     * Applies a frame of the game's broadcast.
+     * A move that this bot sent coming back is timed as a round trip.
+     *
+     * @param frame the frame
+     */
+    @Override
+    public void apply(final Broadcast.Frame frame)
+    {
+        if(status != null)
+        {
+            return;
+        }
+        switch(frame.kind())
+        {
+            case START -> started = true;
+            case MOVE ->
+            {
+                if(sentNanos != NOT_SENT)
+                {
+                    generator.moved((System.nanoTime() - sentNanos) / 1000);
+                    sentNanos = NOT_SENT;
+                }
+                game.update(frame.value());
+                turnNumber++;
+            }
+            case LEAVE ->
+            {
+                if(clientID.equals(seats[frame.value()]))
+                {
+                    status = TicTacToe.Status.ERROR;
+                } else
+                {
+                    game.remove(seats[frame.value()]);
+                }
+            }
+            case TIMEOUT ->
+            {
+                if(clientID.equals(seats[frame.value()]))
+                {
+                    status = TicTacToe.Status.LOST;
+                } else
+                {
+                    game.remove(seats[frame.value()]);
+                }
+            }
+            case END ->
+            {
+                if(frame.value() == Broadcast.NO_WINNER)
+                {
+                    status = TicTacToe.Status.TIE;
+                } else if(clientID.equals(seats[frame.value()]))
+                {
+                    status = TicTacToe.Status.WON;
+                } else
+                {
+                    status = TicTacToe.Status.LOST;
+                }
+            }
+        }
+    }
+}
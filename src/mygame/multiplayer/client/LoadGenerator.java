@@ -0,0 +1,529 @@
+package mygame.multiplayer.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mygame.game.TicTacToe;
+import mygame.multiplayer.Scope;
+import mygame.multiplayer.services.EventLoop;
+import mygame.multiplayer.services.Histogram;
+import mygame.multiplayer.services.Meter;
+import mygame.multiplayer.services.Scheduler;
+
+/**
+ * Pushes the main server with many bot clients at once, to find how much it can take.
+ * <p>
+ * A {@link Client} has no threads of its own, but still an event loop, a scope,
+ * and a poll group per directory it watches, each polled on its own schedule.
+ * The generator's bots ({@link LoadBot}) instead speak the same protocol
+ * with none of those: they're ticked together, once per clock period,
+ * by a few {@link EventLoop}s, one per core. Each tick, a bot writes its
+ * heartbeat, reads the file it's waiting on, and moves if it's time to.
+ * <p>
+ * The load is described by a {@link Profile}:
+ * <ul>
+ *     <li>
+ *         Closed loop (no arrival rate): a fixed population of bots,
+ *         each requesting a new game as soon as it's done with the last,
+ *         after a think time. The offered load then adapts to the server's speed,
+ *         which shows its throughput but hides its queueing.
+ *     </li>
+ *     <li>
+ *         Open loop: new bots arrive at a given rate, each playing one game,
+ *         whether or not the server keeps up, the way real players do.
+ *         The population is still capped, as a safety net for the generator;
+ *         arrivals past the cap are counted as dropped.
+ *     </li>
+ * </ul>
+ * Either way, the population or the arrival rate can be ramped up (see {@link Ramp}),
+ * and the bots wait a think time before each move (see {@link Think}).
+ * <p>
+ * Every few seconds, and at the end, the generator reports games per second,
+ * join latency (from the first request to the game's ID, including retries
+ * when the server is busy), move round-trip latency (from writing a move
+ * to seeing it in the broadcast), and the results. It also reports how long
+ * its own ticks take: if they come close to the clock period, the bots' heartbeats
+ * are late, the server sees them as disconnected, and it's the generator,
+ * not the server, that has reached its limit.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class LoadGenerator
+{
+    private static final int REPORT_EVERY_TICKS = 10;
+
+    private final Profile             profile;
+    private final Scope               scope;
+    private final EventLoop           control;
+    private final List<EventLoop>     loops;
+    private final List<List<LoadBot>> bots;
+    private final AtomicInteger       population;
+    private final Meter               gamesFinished;
+    private final Meter               moves;
+    private final Histogram           joinLatency;
+    private final Histogram           moveLatency;
+    private final Histogram           tickDuration;
+    private final AtomicLong          won;
+    private final AtomicLong          lost;
+    private final AtomicLong          tied;
+    private final AtomicLong          failed;
+    private final AtomicLong          busy;
+    private final AtomicLong          dropped;
+
+    private long startMillis;
+    private long nextArrivalMillis;
+    private int  spawned;
+    private int  ticks;
+
+    /**
+     * How the load is shaped.
+     *
+     * @param bots              how many bots to run at most at once
+     * @param arrivalsPerSecond how many bots arrive per second, each to play one game,
+     *                          or 0 to keep all bots playing game after game
+     * @param ramp              how the load grows to its full level
+     * @param rampSeconds       how long the ramp takes
+     * @param think             how think times are distributed
+     * @param thinkMillis       the mean think time before each move, and between games
+     * @param players           how many players in each game
+     * @param versusCPU         whether the bots play against the server's bots
+     * @param durationSeconds   how long to run
+     */
+    public record Profile(int bots,
+                          double arrivalsPerSecond,
+                          Ramp ramp,
+                          int rampSeconds,
+                          Think think,
+                          int thinkMillis,
+                          int players,
+                          boolean versusCPU,
+                          int durationSeconds)
+    {
+        private static final int    DEFAULT_BOTS             = 1000;
+        private static final String DEFAULT_ARRIVALS         = "0";
+        private static final String DEFAULT_RAMP             = "LINEAR";
+        private static final int    DEFAULT_RAMP_SECONDS     = 30;
+        private static final String DEFAULT_THINK            = "EXPONENTIAL";
+        private static final int    DEFAULT_THINK_MILLIS     = 500;
+        private static final int    DEFAULT_DURATION_SECONDS = 120;
+
+        /**
+         * Checks the profile.
+         *
+         * @throws IllegalArgumentException if a value is out of range
+         */
+        public Profile
+        {
+            if(bots < 1 || arrivalsPerSecond < 0 || rampSeconds < 0 ||
+               thinkMillis < 0 || durationSeconds < 1)
+            {
+                throw new IllegalArgumentException("Invalid load profile");
+            }
+            if(players < TicTacToe.MIN_PLAYERS || players > TicTacToe.MAX_PLAYERS)
+            {
+                throw new IllegalArgumentException("Invalid number of players");
+            }
+        }
+
+        /**
+         * Reads a profile from system properties:
+         * <ul>
+         *     <li>{@code mygame.load.bots} (default {@value #DEFAULT_BOTS})</li>
+         *     <li>{@code mygame.load.arrivalsPerSecond} (default {@value #DEFAULT_ARRIVALS},
+         *     i.e. closed loop)</li>
+         *     <li>{@code mygame.load.ramp}: {@code NONE}, {@code LINEAR} or {@code STEP}
+         *     (default {@value #DEFAULT_RAMP})</li>
+         *     <li>{@code mygame.load.rampSeconds} (default {@value #DEFAULT_RAMP_SECONDS})</li>
+         *     <li>{@code mygame.load.think}: {@code FIXED}, {@code UNIFORM} or
+         *     {@code EXPONENTIAL} (default {@value #DEFAULT_THINK})</li>
+         *     <li>{@code mygame.load.thinkMillis} (default {@value #DEFAULT_THINK_MILLIS})</li>
+         *     <li>{@code mygame.load.players} (default 2)</li>
+         *     <li>{@code mygame.load.versusCPU} (default false)</li>
+         *     <li>{@code mygame.load.durationSeconds}
+         *     (default {@value #DEFAULT_DURATION_SECONDS})</li>
+         * </ul>
+         *
+         * @return the profile
+         * @throws IllegalArgumentException if a value is invalid
+         */
+        public static Profile fromSystemProperties()
+        {
+            return new Profile(Integer.getInteger("mygame.load.bots", DEFAULT_BOTS),
+                               Double.parseDouble(System.getProperty("mygame.load.arrivalsPerSecond",
+                                                                     DEFAULT_ARRIVALS)),
+                               Ramp.valueOf(System.getProperty("mygame.load.ramp", DEFAULT_RAMP)
+                                                  .toUpperCase()),
+                               Integer.getInteger("mygame.load.rampSeconds", DEFAULT_RAMP_SECONDS),
+                               Think.valueOf(System.getProperty("mygame.load.think", DEFAULT_THINK)
+                                                   .toUpperCase()),
+                               Integer.getInteger("mygame.load.thinkMillis", DEFAULT_THINK_MILLIS),
+                               Integer.getInteger("mygame.load.players", TicTacToe.MIN_PLAYERS),
+                               Boolean.getBoolean("mygame.load.versusCPU"),
+                               Integer.getInteger("mygame.load.durationSeconds",
+                                                  DEFAULT_DURATION_SECONDS));
+        }
+
+        /**
+         * Checks whether bots arrive at a rate rather than replay.
+         *
+         * @return whether the load is open loop
+         */
+        boolean isOpenLoop()
+        {
+            return arrivalsPerSecond > 0;
+        }
+    }
+
+    /**
+     * How the load grows from nothing to its full level.
+     */
+    public enum Ramp
+    {
+        /**
+         * Full load from the start.
+         */
+        NONE,
+
+        /**
+         * Grows evenly over the ramp.
+         */
+        LINEAR,
+
+        /**
+         * Grows in {@value #STEPS} equal steps over the ramp,
+         * holding each level long enough to see how the server settles.
+         */
+        STEP;
+
+        private static final int STEPS = 4;
+
+        /**
+         * Gets the share of the full load to apply.
+         *
+         * @param elapsedMillis how long the generator has been running
+         * @param rampMillis    how long the ramp takes
+         * @return the share, in range [0, 1]
+         */
+        double level(final long elapsedMillis,
+                     final long rampMillis)
+        {
+            if(this == NONE || elapsedMillis >= rampMillis)
+            {
+                return 1;
+            }
+            return switch(this)
+            {
+                case LINEAR -> (double) elapsedMillis / rampMillis;
+                case STEP -> (double) (elapsedMillis * STEPS / rampMillis + 1) / STEPS;
+                case NONE -> 1;
+            };
+        }
+    }
+
+    /**
+     * How the bots' think times are distributed around their mean.
+     */
+    public enum Think
+    {
+        /**
+         * Always the mean.
+         */
+        FIXED,
+
+        /**
+         * Anywhere between nothing and twice the mean.
+         */
+        UNIFORM,
+
+        /**
+         * Mostly short, sometimes long, the way people think.
+         */
+        EXPONENTIAL;
+
+        /**
+         * Draws a think time.
+         *
+         * @param meanMillis the mean think time
+         * @return the think time in milliseconds
+         */
+        long sample(final int meanMillis)
+        {
+            final ThreadLocalRandom random;
+            random = ThreadLocalRandom.current();
+            return switch(this)
+            {
+                case FIXED -> meanMillis;
+                case UNIFORM -> random.nextLong(2L * meanMillis + 1);
+                case EXPONENTIAL -> (long) (-meanMillis * Math.log(1 - random.nextDouble()));
+            };
+        }
+    }
+
+    /**
+     * Creates a load generator. Nothing happens until it's {@link #run}.
+     *
+     * @param profile how the load is shaped
+     */
+    public LoadGenerator(final Profile profile)
+    {
+        this.profile  = profile;
+        scope         = new Scope("load generator");
+        control       = scope.own(new EventLoop());
+        loops         = new ArrayList<>();
+        bots          = new ArrayList<>();
+        population    = new AtomicInteger();
+        gamesFinished = new Meter();
+        moves         = new Meter();
+        joinLatency   = new Histogram();
+        moveLatency   = new Histogram();
+        tickDuration  = new Histogram();
+        won           = new AtomicLong();
+        lost          = new AtomicLong();
+        tied          = new AtomicLong();
+        failed        = new AtomicLong();
+        busy          = new AtomicLong();
+        dropped       = new AtomicLong();
+
+        for(int i = 0; i < Runtime.getRuntime().availableProcessors(); i++)
+        {
+            loops.add(scope.own(new EventLoop()));
+            bots.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Runs the load for the profile's duration, reporting as it goes,
+     * then prints a summary. This blocks the current thread.
+     * <p>
+     * The bots are then simply dropped: their heartbeats stop,
+     * and the server cleans up after them as after any client that left.
+     */
+    public void run()
+    {
+        System.out.println("Running " + profile + "...");
+        startMillis       = System.currentTimeMillis();
+        nextArrivalMillis = startMillis;
+
+        for(int i = 0; i < loops.size(); i++)
+        {
+            final List<LoadBot> shard;
+            shard = bots.get(i);
+            scope.own(loops.get(i).repeat(() -> tick(shard)));
+        }
+        scope.own(control.repeat(this::spawn));
+
+        Scheduler.wait((int) TimeUnit.SECONDS.toMillis(profile.durationSeconds()));
+        scope.stop();
+
+        System.out.println();
+        System.out.println("Summary:");
+        report();
+    }
+
+    /**
+     * Ticks all the bots of one loop, forgetting those that are done.
+     * A bot that throws is dropped and counted as failed,
+     * rather than bringing down the generator. In a closed loop,
+     * a new bot takes its place on the next spawn.
+     *
+     * @param shard the loop's bots
+     */
+    private void tick(final List<LoadBot> shard)
+    {
+        final long startNanos;
+        final long now;
+
+        startNanos = System.nanoTime();
+        now        = System.currentTimeMillis();
+        shard.removeIf(bot ->
+                       {
+                           try
+                           {
+                               return bot.tick(now);
+                           } catch(final RuntimeException e)
+                           {
+                               failed.incrementAndGet();
+                               left();
+                               return true;
+                           }
+                       });
+        tickDuration.recordSince(startNanos);
+    }
+
+    /**
+     * Starts the bots due this tick, and reports every few ticks.
+     * <p>
+     * In a closed loop, bots are started until the population reaches
+     * the ramp's share of its full size, which also replaces the bots
+     * that failed and were dropped. In an open loop, arrivals are spaced
+     * by exponential gaps, i.e. they are a Poisson process at the ramp's share
+     * of the full rate.
+     */
+    private void spawn()
+    {
+        final long   now;
+        final double level;
+        final double rate;
+
+        now   = System.currentTimeMillis();
+        level = profile.ramp()
+                       .level(now - startMillis, TimeUnit.SECONDS.toMillis(profile.rampSeconds()));
+        rate  = level * profile.arrivalsPerSecond();
+
+        if(!profile.isOpenLoop())
+        {
+            while(population.get() < Math.ceil(level * profile.bots()))
+            {
+                add(now);
+            }
+        } else if(rate == 0)
+        {
+            nextArrivalMillis = now;
+        } else
+        {
+            while(nextArrivalMillis <= now)
+            {
+                if(population.get() < profile.bots())
+                {
+                    add(now);
+                } else
+                {
+                    dropped.incrementAndGet();
+                }
+                nextArrivalMillis += (long) (-1000 * Math.log(1 - ThreadLocalRandom.current()
+                                                                                   .nextDouble())
+                                             / rate);
+            }
+        }
+
+        if(++ticks % REPORT_EVERY_TICKS == 0)
+        {
+            report();
+        }
+    }
+
+    /**
+     * Starts a bot, on each loop in turn.
+     *
+     * @param now the current time
+     */
+    private void add(final long now)
+    {
+        final int     index;
+        final LoadBot bot;
+
+        index = spawned % loops.size();
+        bot   = new LoadBot(this, "load-" + spawned, now);
+        spawned++;
+        population.incrementAndGet();
+        loops.get(index).post(() -> bots.get(index).add(bot));
+    }
+
+    /**
+     * Prints the load so far, on one line.
+     */
+    private void report()
+    {
+        final Histogram.Snapshot join;
+        final Histogram.Snapshot move;
+        final Histogram.Snapshot tick;
+
+        join = joinLatency.snapshot();
+        move = moveLatency.snapshot();
+        tick = tickDuration.snapshot();
+
+        System.out.printf("%4ds bots=%d games=%d (%.1f/s) moves=%.1f/s " +
+                          "join p50=%dms p99=%dms move p50=%dms p99=%dms " +
+                          "won=%d lost=%d tied=%d failed=%d busy=%d dropped=%d tick p99=%dms%n",
+                          TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - startMillis),
+                          population.get(),
+                          gamesFinished.count(),
+                          gamesFinished.rate(),
+                          moves.rate(),
+                          join.p50() / 1000, join.p99() / 1000,
+                          move.p50() / 1000, move.p99() / 1000,
+                          won.get(), lost.get(), tied.get(), failed.get(), busy.get(), dropped.get(),
+                          tick.p99() / 1000);
+        if(tick.p99() / 1000 > Scheduler.CLOCK_PERIOD_MILLIS / 2)
+        {
+            System.out.println("      warning: the generator's ticks are slow, " +
+                               "so heartbeats may be late and results unreliable");
+        }
+    }
+
+    /**
+     * Gets the profile.
+     *
+     * @return the profile
+     */
+    Profile getProfile()
+    {
+        return profile;
+    }
+
+    /**
+     * Records that a bot got a game.
+     *
+     * @param latencyMillis how long since its first request
+     */
+    void joined(final long latencyMillis)
+    {
+        joinLatency.record(TimeUnit.MILLISECONDS.toMicros(latencyMillis));
+    }
+
+    /**
+     * Records a bot's move coming back in the broadcast.
+     *
+     * @param latencyMicros how long since the move was written
+     */
+    void moved(final long latencyMicros)
+    {
+        moves.mark();
+        moveLatency.record(latencyMicros);
+    }
+
+    /**
+     * Records that a bot was turned away by a busy server.
+     */
+    void turnedAway()
+    {
+        busy.incrementAndGet();
+    }
+
+    /**
+     * Records the end of a bot's game.
+     * Only one bot per game counts the game itself, the one in the first seat,
+     * so that games aren't counted once per player.
+     *
+     * @param status    the bot's result, {@code ERROR} if it lost its connection
+     * @param firstSeat whether the bot had the first seat
+     */
+    void finished(final TicTacToe.Status status,
+                  final boolean firstSeat)
+    {
+        if(firstSeat)
+        {
+            gamesFinished.mark();
+        }
+        switch(status)
+        {
+            case WON -> won.incrementAndGet();
+            case LOST -> lost.incrementAndGet();
+            case TIE -> tied.incrementAndGet();
+            case ERROR -> failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a bot is gone for good.
+     */
+    void left()
+    {
+        population.decrementAndGet();
+    }
+}
@@ -38,14 +38,40 @@ public final class Player extends Client
      */
     public Player()
     {
-        super();
+        this(false);
+    }
+
+    /**
+     * Creates a human-controlled client that plays against
+     * either another player or the CPU.
+     *
+     * @param versusCPU whether to play against the CPU
+     * @see Client#Client(boolean)
+     */
+    public Player(final boolean versusCPU)
+    {
+        this(versusCPU, TicTacToe.MIN_PLAYERS);
+    }
+
+    /**
+     * Creates a human-controlled client that plays a game of several players
+     * against either other players or the CPU.
+     *
+     * @param versusCPU whether to play against the CPU
+     * @param players   how many players in the game, including this one
+     * @see Client#Client(boolean, int)
+     */
+    public Player(final boolean versusCPU,
+                  final int players)
+    {
+        super(versusCPU, players);
         /*
          * This only lets user cancel the join request.
          * Once the game starts, the user cannot force-quit it
          * (without quitting the whole program).
          * Work is in progress to implement this. Soon, hopefully.
          */
-        cancelHandler = new UserCancel().then(this::stop);
+        cancelHandler = getScope().own(new UserCancel().then(this::stop));
     }
 
     /**
@@ -60,10 +86,10 @@ public final class Player extends Client
      * @see Client#createGame
      */
     @Override
-    TicTacToe createGame(final String opponentID)
+    TicTacToe createGame(final String... playerIDs)
     {
         cancelHandler.stop();
-        game = new TicTacToeTUI(getClientID(), opponentID);
+        game = new TicTacToeTUI(getClientID(), playerIDs);
         return game;
     }
 
@@ -79,11 +105,29 @@ public final class Player extends Client
         return game.prompt();
     }
 
+    /**
+     * Shows a player's clock on the board.
+     *
+     * @param playerID       the player's ID
+     * @param timeLeftMillis the time they have left, in milliseconds
+     */
     @Override
-    public void stop()
+    void clockChanged(final String playerID,
+                      final int timeLeftMillis)
     {
-        super.stop();
-        cancelHandler.stop();
+        game.setTimeLeft(playerID, timeLeftMillis);
+    }
+
+    /**
+     * Takes back the user's move if the game ended before the server played it.
+     */
+    @Override
+    void leftGame()
+    {
+        if(game != null)
+        {
+            game.rollback();
+        }
     }
 
     /**
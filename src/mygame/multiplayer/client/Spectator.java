@@ -0,0 +1,293 @@
+package mygame.multiplayer.client;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.Flow;
+
+import mygame.game.TicTacToe;
+import mygame.game.TicTacToeTUI;
+import mygame.multiplayer.Broadcast;
+import mygame.multiplayer.Protocol;
+import mygame.multiplayer.Scope;
+import mygame.multiplayer.services.FlowBridge;
+import mygame.multiplayer.services.Monitor;
+import mygame.multiplayer.services.PublisherService;
+
+/**
+ * Watches a live game, printing the board after every move.
+ * <p>
+ * A spectator is not a {@link Client}: it makes no request, keeps no connection,
+ * and never writes anything. It only reads the game's {@link Broadcast},
+ * so the game server doesn't know or care how many spectators there are.
+ * <p>
+ * It starts from the game's snapshot, then follows the broadcast ring.
+ * If it ever falls further behind than the ring holds, it starts over
+ * from the latest snapshot.
+ * <p>
+ * Printing the board is slow next to polling, so changes of the ring
+ * reach the spectator through a {@link FlowBridge}, and are printed on
+ * the bridge's thread rather than the monitor's. Only the latest change
+ * is kept while the board is being printed: the ring has all the frames since.
+ * When the ring is deleted, the bridge is closed, so the game is known
+ * to be gone only once the last change before it has been printed.
+ * <p>
+ * As a {@link PublisherService}, the spectator publishes when the game ends:
+ * {@code WON} if a player won, {@code TIE} if nobody did,
+ * or {@code ERROR} if the server failed.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class Spectator extends PublisherService<TicTacToe.Status> implements Feed.Handler
+{
+    private static final String[] COLORS = {"Green", "Red", "Blue", "Magenta", "Cyan", "White"};
+
+    private static final int FEED_BUFFER = 1;
+
+    private final Scope              scope;
+    private final Feed               feed;
+    private final FlowBridge<String> changes;
+
+    private TicTacToeTUI     game;
+    private String[]         seats;
+    private boolean          started;
+    private TicTacToe.Status gameStatus;
+    private volatile boolean stopped;
+
+    /**
+     * Starts watching a game.
+     * <p>
+     * If the game hasn't started yet, waits until it does.
+     *
+     * @param gameID the game's ID
+     * @see #findGame()
+     */
+    public Spectator(final String gameID)
+    {
+        final Path                     broadcast;
+        final PublisherService<String> ring;
+
+        broadcast = Protocol.getBroadcast(gameID);
+        scope     = new Scope("spectator " + gameID);
+        feed      = new Feed(gameID, this);
+        ring      = scope.own(Monitor.When.fileChange(broadcast));
+        changes   = new FlowBridge<>(ring, FEED_BUFFER, FlowBridge.Overflow.CONFLATE_LATEST);
+
+        log("Waiting for the game to start...");
+        scope.own(Monitor.When.connectionLost(Protocol.getServer())
+                              .then(this::serverFailed));
+        ring.then(content ->
+                  {
+                      if(content == null)
+                      {
+                          ringDeleted();
+                      }
+                  });
+        changes.subscribe(new FeedSubscriber());
+        handleFeed(Protocol.read(broadcast));
+    }
+
+    /**
+     * Finds a game to watch.
+     *
+     * @return the ID of a game being played, if there is one
+     */
+    public static Optional<String> findGame()
+    {
+        return Protocol.listDir(Protocol.getGames())
+                       .stream()
+                       .map(game -> game.getFileName().toString())
+                       .filter(gameID -> Protocol.read(Protocol.getSnapshot(gameID)) != null)
+                       .findFirst();
+    }
+
+    /**
+     * Stops watching. Publishes how the game ended,
+     * or {@code null} if it was stopped before the game ended.
+     */
+    @Override
+    public void stop()
+    {
+        stopped = true;
+        publish(gameStatus);
+        scope.stop();
+        changes.close();
+    }
+
+    /**
+     * Handles a change of the broadcast ring: applies the frames not seen yet,
+     * catching up from the snapshot first if some frames were missed.
+     *
+     * @param content the ring's content
+     */
+    private synchronized void handleFeed(final String content)
+    {
+        if(gameStatus != null || stopped)
+        {
+            return;
+        }
+        if(content == null)
+        {
+            if(game != null)
+            {
+                gameGone();
+            }
+            return;
+        }
+        feed.update(content);
+    }
+
+    @Override
+    public void reset(final String[] seats)
+    {
+        this.seats = seats;
+        game       = TicTacToeTUI.spectating(seats);
+        started    = false;
+    }
+
+    @Override
+    public void apply(final Broadcast.Frame frame)
+    {
+        if(gameStatus != null)
+        {
+            return;
+        }
+        switch(frame.kind())
+        {
+            case START -> started = true;
+            case MOVE -> game.update(frame.value());
+            case CLOCK -> clock(frame.value());
+            case LEAVE ->
+            {
+                game.remove(seats[frame.value()]);
+                log(COLORS[frame.value()] + " left the game.");
+            }
+            case TIMEOUT ->
+            {
+                game.remove(seats[frame.value()]);
+                log(COLORS[frame.value()] + " ran out of time.");
+            }
+            case END -> end(frame.value());
+        }
+    }
+
+    /**
+     * Sets a clock: before the game starts, everyone's;
+     * after, that of the player to move, whose move follows.
+     *
+     * @param timeLeftMillis the time left, in milliseconds
+     */
+    private void clock(final int timeLeftMillis)
+    {
+        if(started)
+        {
+            game.setTimeLeft(game.getNextPlayerID(), timeLeftMillis);
+            return;
+        }
+        for(final String seat : seats)
+        {
+            game.setTimeLeft(seat, timeLeftMillis);
+        }
+    }
+
+    /**
+     * Announces the result and stops.
+     *
+     * @param winnerSeat the winner's seat, or {@link Broadcast#NO_WINNER} for a tie
+     */
+    private void end(final int winnerSeat)
+    {
+        if(winnerSeat == Broadcast.NO_WINNER)
+        {
+            log("It is a tie!");
+            gameStatus = TicTacToe.Status.TIE;
+        } else
+        {
+            log(COLORS[winnerSeat] + " won!");
+            gameStatus = TicTacToe.Status.WON;
+        }
+        stop();
+    }
+
+    /**
+     * Handles when the game's files are removed before its end was seen,
+     * e.g. when both players left right after the last move.
+     * The result is then taken from the board.
+     */
+    private void gameGone()
+    {
+        log("The game is over.");
+        gameStatus = game.getWinnerID() == null
+                     ? TicTacToe.Status.TIE
+                     : TicTacToe.Status.WON;
+        stop();
+    }
+
+    /**
+     * Handles when the broadcast ring is deleted, in the monitor's thread.
+     * Once the game has been seen, this means it's gone: the bridge is closed,
+     * and the subscriber finds out after the changes still buffered
+     * (see {@link #gameGone}). Before, it's the game not having started yet.
+     */
+    private synchronized void ringDeleted()
+    {
+        if(game != null)
+        {
+            changes.close();
+        }
+    }
+
+    /**
+     * Handles when the server fails.
+     */
+    private synchronized void serverFailed()
+    {
+        if(gameStatus != null)
+        {
+            return;
+        }
+        log("Server connection failed.");
+        gameStatus = TicTacToe.Status.ERROR;
+        stop();
+    }
+
+    private void log(final String str)
+    {
+        System.out.println(str);
+    }
+
+    /**
+     * Takes the changes of the broadcast ring from the bridge, one at a time,
+     * and knows the game is gone when the bridge is closed.
+     */
+    private final class FeedSubscriber implements Flow.Subscriber<String>
+    {
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(final String content)
+        {
+            handleFeed(content);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(final Throwable throwable)
+        {
+            throwable.printStackTrace();
+        }
+
+        @Override
+        public void onComplete()
+        {
+            handleFeed(null);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package mygame.multiplayer.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether the main server has room for one more request.
+ * <p>
+ * Without limits, a spike of requests makes the server track every one of them,
+ * and start a game for every table, until it runs out of threads or files and
+ * fails everyone. Instead, past its capacity, it turns new requests away
+ * with a "busy, retry after" answer, which costs one write and nothing to keep,
+ * and goes on serving the games and requests it already has.
+ * <p>
+ * Capacity is configured with system properties:
+ * <ul>
+ *     <li>{@code mygame.maxGames}: games played at once
+ *     (default {@value #DEFAULT_MAX_GAMES})</li>
+ *     <li>{@code mygame.maxQueue}: requests waiting for a game
+ *     (default {@value #DEFAULT_MAX_QUEUE})</li>
+ *     <li>{@code mygame.maxThreads}: threads in the server's process
+ *     (default {@value #DEFAULT_MAX_THREADS})</li>
+ *     <li>{@code mygame.retryAfterMillis}: how long a turned away client waits
+ *     before trying again, at least (default {@value #DEFAULT_RETRY_AFTER_MILLIS})</li>
+ *     <li>{@code mygame.rematchWindowMillis}: how long after a game its players
+ *     count as asking for a rematch (default {@value #DEFAULT_REMATCH_WINDOW_MILLIS})</li>
+ * </ul>
+ * <p>
+ * Rematches come first: a player who just finished a game is let in
+ * even when the queue is full, since they're already part of the load
+ * the server was handling, and they're matched before everyone else.
+ * Only the thread limit, which protects the server itself, applies to them.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class Admission
+{
+    private static final int DEFAULT_MAX_GAMES             = 256;
+    private static final int DEFAULT_MAX_QUEUE             = 1024;
+    private static final int DEFAULT_MAX_THREADS           = 512;
+    private static final int DEFAULT_RETRY_AFTER_MILLIS    = 2000;
+    private static final int DEFAULT_REMATCH_WINDOW_MILLIS = 30_000;
+
+    private final int               maxGames;
+    private final int               maxQueue;
+    private final int               maxThreads;
+    private final int               retryAfterMillis;
+    private final int               rematchWindowMillis;
+    private final ThreadMXBean      threads;
+    private final Map<String, Long> recentPlayers;
+
+    /**
+     * Reads the capacity from the system properties.
+     */
+    Admission()
+    {
+        maxGames            = Integer.getInteger("mygame.maxGames", DEFAULT_MAX_GAMES);
+        maxQueue            = Integer.getInteger("mygame.maxQueue", DEFAULT_MAX_QUEUE);
+        maxThreads          = Integer.getInteger("mygame.maxThreads", DEFAULT_MAX_THREADS);
+        retryAfterMillis    = Integer.getInteger("mygame.retryAfterMillis",
+                                                 DEFAULT_RETRY_AFTER_MILLIS);
+        rematchWindowMillis = Integer.getInteger("mygame.rematchWindowMillis",
+                                                 DEFAULT_REMATCH_WINDOW_MILLIS);
+        threads             = ManagementFactory.getThreadMXBean();
+        recentPlayers       = new HashMap<>();
+    }
+
+    /**
+     * Checks whether a request to join the queue can be let in.
+     *
+     * @param rematch whether the request is a rematch (see {@link #isRematch})
+     * @param waiting how many requests are already waiting
+     * @return whether to let the request in
+     */
+    boolean admitsRequest(final boolean rematch,
+                          final int waiting)
+    {
+        return hasThreads() && (rematch || waiting < maxQueue);
+    }
+
+    /**
+     * Checks whether a game can be started right away, e.g. against bots.
+     *
+     * @param games how many games are being played
+     * @return whether to start the game
+     */
+    boolean admitsGame(final int games)
+    {
+        return hasThreads() && games < maxGames;
+    }
+
+    /**
+     * Gets how many more games can be started.
+     *
+     * @param games how many games are being played
+     * @return the number of free game slots, zero if there are none
+     */
+    int freeGames(final int games)
+    {
+        return hasThreads() ? Math.max(0, maxGames - games) : 0;
+    }
+
+    /**
+     * Gets how long a turned away client should wait before trying again.
+     * <p>
+     * Somewhere between the configured delay and twice that,
+     * so that clients turned away by the same spike don't all come back at once.
+     *
+     * @return the delay in milliseconds
+     */
+    int retryAfterMillis()
+    {
+        return retryAfterMillis + ThreadLocalRandom.current().nextInt(retryAfterMillis + 1);
+    }
+
+    /**
+     * Records that a player just finished a game.
+     * Players whose rematch window has passed are forgotten.
+     *
+     * @param player the player's name
+     */
+    void played(final String player)
+    {
+        final long now;
+        now = System.currentTimeMillis();
+        recentPlayers.values().removeIf(endMillis -> now - endMillis > rematchWindowMillis);
+        recentPlayers.put(player, now);
+    }
+
+    /**
+     * Checks whether a player finished a game recently enough
+     * that their request is a rematch.
+     *
+     * @param player the player's name
+     * @return whether the player's request is a rematch
+     */
+    boolean isRematch(final String player)
+    {
+        final Long endMillis;
+        endMillis = recentPlayers.get(player);
+        return endMillis != null && System.currentTimeMillis() - endMillis <= rematchWindowMillis;
+    }
+
+    private boolean hasThreads()
+    {
+        return threads.getThreadCount() < maxThreads;
+    }
+}
@@ -0,0 +1,96 @@
+package mygame.multiplayer.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mygame.game.TicTacToe;
+import mygame.multiplayer.Service;
+import mygame.multiplayer.Subscriber;
+
+/**
+ * The server's CPU players.
+ * <p>
+ * A CPU client (see {@code mygame.multiplayer.client.CPU}) is a full client:
+ * it has its own request, connections and monitors, and reads and writes
+ * files every turn, just to pick a move. A bot instead plays inside
+ * the {@link GameServer}, reading the server's own {@link TicTacToe},
+ * so it costs nothing between turns.
+ * <p>
+ * Moves are decided by a fixed pool of workers (one per
+ * {@value #WORKERS_PER_CORE_DIVISOR} cores) shared by all games, so a slow decision
+ * never holds up a game's event loop, and the number of threads
+ * doesn't grow with the number of games.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class BotPool implements Service
+{
+    /**
+     * The name all bots play under, the same as CPU clients,
+     * since they play the same way.
+     */
+    static final String PLAYER_NAME = "CPU";
+
+    private static final int WORKERS_PER_CORE_DIVISOR = 2;
+    private static final int WORKERS                  = Math.max(
+            1,
+            Runtime.getRuntime().availableProcessors() / WORKERS_PER_CORE_DIVISOR);
+
+    private final ExecutorService workers;
+
+    /**
+     * Creates the pool and its workers.
+     * <p>
+     * Workers are daemons: it's the games that decide
+     * when the program is done, not the bots.
+     */
+    BotPool()
+    {
+        final AtomicInteger count;
+        count   = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(WORKERS, task ->
+        {
+            final Thread thread;
+            thread = new Thread(task, "bot-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Decides a bot's move on one of the workers.
+     * <p>
+     * The game must not change until the callback is called:
+     * the game server holds back anything that would change it,
+     * such as a player leaving, until then.
+     *
+     * @param game     the game the bot is playing
+     * @param callback called, on the worker, with the bot's move
+     */
+    void decide(final TicTacToe game,
+                final Subscriber<Integer> callback)
+    {
+        workers.execute(() ->
+        {
+            try
+            {
+                callback.update(game.getAvailableMove());
+            } catch(final Exception e)
+            {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        });
+    }
+
+    /**
+     * Stops the workers. Games still waiting for a bot's move will never get it.
+     */
+    @Override
+    public void stop()
+    {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,451 @@
+package mygame.multiplayer.server;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import mygame.multiplayer.Protocol;
+import mygame.multiplayer.services.Connection;
+
+/**
+ * A main server's place among the main servers sharing the data directory,
+ * each in its own process (see {@link Protocol}).
+ * <p>
+ * Keeps the server's lease, claims requests for it, holds its leases on its games,
+ * and watches the other servers' leases: when one expires, its claims are released
+ * and its games are taken over. Claims and takeovers are atomic moves
+ * (see {@link Protocol#moveAtomically}), so when several servers race
+ * for the same request or game, exactly one wins, with no other coordination.
+ * <p>
+ * A lease expires when it hasn't changed for {@code mygame.leaseMillis} milliseconds
+ * (default {@value #DEFAULT_LEASE_MILLIS}), much longer than a tick, so that a server
+ * that's merely slow for a moment isn't taken over. A server whose game was taken over
+ * anyway finds its lease on the game gone, and lets the game go
+ * (see {@link #holds}).
+ * <p>
+ * A server can also hand its games over on purpose, to be replaced by a new one
+ * (see {@link #relieveOthers} and {@link #handedOff}): its lease then counts
+ * as expired at once.
+ * <p>
+ * Not thread-safe: only called from the main server's event loop.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class Cluster
+{
+    private static final int    DEFAULT_LEASE_MILLIS = 5000;
+    private static final String HUMAN                = "H";
+    private static final String BOT                  = "B";
+    private static final String SEPARATOR            = " ";
+
+    private final String            serverID;
+    private final int               leaseMillis;
+    private final Map<String, Peer> peers;
+
+    /**
+     * A game's lease: what a server needs to host the game, whether it created it
+     * or took it over.
+     *
+     * @param gameID  the game's ID
+     * @param players the clients' and bots' IDs, mapped to their players' names, in seat order
+     * @param botIDs  the bots' IDs
+     */
+    record GameLease(String gameID, Map<String, String> players, Set<String> botIDs) {}
+
+    /**
+     * What a server got from another's expired lease.
+     *
+     * @param requests the requests released, to be handled again
+     * @param games    the games taken over, to be resumed
+     */
+    record Takeover(List<Path> requests, List<GameLease> games) {}
+
+    /**
+     * The last time another server's lease was seen to change.
+     */
+    private static final class Peer
+    {
+        private String lastBeat;
+        private long   lastChangeMillis;
+    }
+
+    /**
+     * Joins the cluster under a new server ID. The lease isn't kept
+     * until {@link #keepLease} is called.
+     */
+    Cluster()
+    {
+        serverID    = UUID.randomUUID().toString();
+        leaseMillis = Integer.getInteger("mygame.leaseMillis", DEFAULT_LEASE_MILLIS);
+        peers       = new HashMap<>();
+    }
+
+    /**
+     * Starts keeping this server's lease.
+     *
+     * @return the connection keeping the lease, to be stopped with the server
+     */
+    Connection keepLease()
+    {
+        return new Connection(Protocol.getServerLease(serverID));
+    }
+
+    /**
+     * Gets the signal that asks this server to hand its games over to the others.
+     *
+     * @return the path to the signal
+     */
+    Path getHandoffSignal()
+    {
+        return Protocol.getHandoffSignal(serverID);
+    }
+
+    /**
+     * Asks every other server to hand its games over and stop,
+     * for this one, or any other that's left, to take over.
+     *
+     * @return the number of servers asked
+     */
+    int relieveOthers()
+    {
+        int count;
+        count = 0;
+        for(final Path directory : Protocol.listDir(Protocol.getServers()))
+        {
+            final String peerID;
+            peerID = directory.getFileName().toString();
+            if(!peerID.equals(serverID))
+            {
+                Protocol.create(Protocol.getHandoffSignal(peerID));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Tells the other servers that this one has let go of its games,
+     * for them to take over without waiting for its lease to expire.
+     */
+    void handedOff()
+    {
+        Protocol.write(getHandoffSignal(), Protocol.HANDED_OFF);
+    }
+
+    /**
+     * Claims a request for this server.
+     *
+     * @param request   the request's directory
+     * @param versusCPU whether the request is to play against the CPU
+     * @return whether this server got the request, {@code false} if another one did
+     */
+    boolean claim(final Path request,
+                  final boolean versusCPU)
+    {
+        final String clientID;
+        clientID = request.getFileName().toString();
+        return Protocol.moveAtomically(Protocol.getRequestPlayer(clientID, versusCPU),
+                                       Protocol.getClaim(serverID, clientID));
+    }
+
+    /**
+     * Gives up a claim, moving it back into its request,
+     * for this or another server to claim again.
+     *
+     * @param request   the request's directory
+     * @param versusCPU whether the request is to play against the CPU
+     */
+    void release(final Path request,
+                 final boolean versusCPU)
+    {
+        final String clientID;
+        clientID = request.getFileName().toString();
+        Protocol.moveAtomically(Protocol.getClaim(serverID, clientID),
+                                Protocol.getRequestPlayer(clientID, versusCPU));
+    }
+
+    /**
+     * Removes a claim once its request has been answered.
+     *
+     * @param request the request's directory
+     */
+    void answered(final Path request)
+    {
+        Protocol.removeRecursive(Protocol.getClaim(serverID, request.getFileName().toString()));
+    }
+
+    /**
+     * Runs an action holding the cluster's lock, a lock on a file
+     * the servers share (see {@link Protocol#getClusterLock()}),
+     * waiting for any other server holding it to be done.
+     * <p>
+     * Servers that start at the same time take turns this way,
+     * so that only the first one finds no server running and resets the data directory.
+     *
+     * @param action the action
+     * @param <T>    what the action returns
+     * @return what the action returned
+     * @throws RuntimeException if the lock can't be taken
+     */
+    static <T> T exclusively(final Supplier<T> action)
+    {
+        final Path lock;
+        lock = Protocol.getClusterLock();
+        try
+        {
+            Files.createDirectories(lock.getParent());
+            try(final FileChannel channel = FileChannel.open(lock,
+                                                             StandardOpenOption.CREATE,
+                                                             StandardOpenOption.WRITE))
+            {
+                final FileLock held;
+                held = channel.lock();
+                try
+                {
+                    return action.get();
+                } finally
+                {
+                    held.release();
+                }
+            }
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks whether a request was claimed by a server: its player file is gone,
+     * but its client is still there.
+     *
+     * @param request   the request's directory
+     * @param versusCPU whether the request is to play against the CPU
+     * @return whether the request is claimed
+     */
+    static boolean isClaimed(final Path request,
+                             final boolean versusCPU)
+    {
+        final String clientID;
+        clientID = request.getFileName().toString();
+        return !Files.exists(Protocol.getRequestPlayer(clientID, versusCPU)) &&
+               Files.exists(Protocol.getRequestClient(clientID, versusCPU));
+    }
+
+    /**
+     * Takes a lease on a new game, before it's hosted.
+     *
+     * @param game the game's lease
+     * @return the lease file, to be removed when the game is over
+     */
+    Path lease(final GameLease game)
+    {
+        final Path          lease;
+        final StringBuilder content;
+
+        lease   = Protocol.getGameLease(serverID, game.gameID());
+        content = new StringBuilder();
+        game.players().forEach((playerID, name) -> content.append(game.botIDs().contains(playerID)
+                                                                  ? BOT
+                                                                  : HUMAN)
+                                                          .append(SEPARATOR)
+                                                          .append(playerID)
+                                                          .append(SEPARATOR)
+                                                          .append(name)
+                                                          .append('\n'));
+        Protocol.write(lease, content);
+        return lease;
+    }
+
+    /**
+     * Checks whether this server still holds a lease on a game.
+     * It doesn't if another server took the game over,
+     * thinking this one was gone.
+     *
+     * @param lease the lease file
+     * @return whether the lease is still this server's
+     */
+    static boolean holds(final Path lease)
+    {
+        return Files.exists(lease);
+    }
+
+    /**
+     * Finds the other servers whose lease has expired,
+     * or that have handed their games off.
+     *
+     * @return the expired servers' IDs
+     */
+    List<String> expiredPeers()
+    {
+        final long         now;
+        final Set<String>  present;
+        final List<String> expired;
+
+        now     = System.currentTimeMillis();
+        present = new HashSet<>();
+        expired = new ArrayList<>();
+        for(final Path directory : Protocol.listDir(Protocol.getServers()))
+        {
+            final String peerID;
+            final String beat;
+            final Peer   peer;
+
+            peerID = directory.getFileName().toString();
+            if(peerID.equals(serverID))
+            {
+                continue;
+            }
+            present.add(peerID);
+            beat = Protocol.read(Protocol.getServerLease(peerID));
+            peer = peers.computeIfAbsent(peerID, ignored -> new Peer());
+            if(Protocol.HANDED_OFF.equals(Protocol.read(Protocol.getHandoffSignal(peerID))))
+            {
+                expired.add(peerID);
+            } else if(peer.lastChangeMillis == 0 || !Objects.equals(beat, peer.lastBeat))
+            {
+                peer.lastBeat         = beat;
+                peer.lastChangeMillis = now;
+            } else if(now - peer.lastChangeMillis > leaseMillis)
+            {
+                expired.add(peerID);
+            }
+        }
+        peers.keySet().retainAll(present);
+        return expired;
+    }
+
+    /**
+     * Takes over from a server whose lease expired: moves its claims back
+     * into their requests, and moves its game leases to this server.
+     * Whatever another server got first is skipped.
+     * <p>
+     * The expired server's directory is removed once it's empty,
+     * which may take another call if another server is taking over at the same time.
+     *
+     * @param peerID the expired server's ID
+     * @return what this server got
+     */
+    Takeover takeOver(final String peerID)
+    {
+        final List<Path>      requests;
+        final List<GameLease> games;
+        final Path            directory;
+
+        requests  = new ArrayList<>();
+        games     = new ArrayList<>();
+        directory = Protocol.getServerLease(peerID).getParent();
+
+        for(final Path claim : Protocol.listDir(Protocol.getClaims(peerID)))
+        {
+            final String  clientID;
+            final boolean versusCPU;
+
+            clientID  = claim.getFileName().toString();
+            versusCPU = Files.isDirectory(Protocol.getRequest(clientID, true));
+            if(Protocol.moveAtomically(claim, Protocol.getRequestPlayer(clientID, versusCPU)))
+            {
+                requests.add(Protocol.getRequest(clientID, versusCPU));
+            }
+        }
+
+        for(final Path lease : Protocol.listDir(Protocol.getGameLeases(peerID)))
+        {
+            final String gameID;
+            final Path   taken;
+
+            gameID = lease.getFileName().toString();
+            taken  = Protocol.getGameLease(serverID, gameID);
+            if(Protocol.moveAtomically(lease, taken))
+            {
+                final GameLease game;
+                game = readLease(gameID, Protocol.read(taken));
+                if(game == null)
+                {
+                    Protocol.removeRecursive(taken);
+                } else
+                {
+                    games.add(game);
+                }
+            }
+        }
+
+        removeIfEmpty(Protocol.getClaims(peerID));
+        removeIfEmpty(Protocol.getGameLeases(peerID));
+        if(Protocol.listDir(Protocol.getClaims(peerID)).isEmpty() &&
+           Protocol.listDir(Protocol.getGameLeases(peerID)).isEmpty())
+        {
+            Protocol.removeRecursive(directory);
+            peers.remove(peerID);
+        }
+        return new Takeover(requests, games);
+    }
+
+    /**
+     * Gets the lease file of one of this server's games.
+     *
+     * @param gameID the game's ID
+     * @return the lease file
+     */
+    Path getLease(final String gameID)
+    {
+        return Protocol.getGameLease(serverID, gameID);
+    }
+
+    /**
+     * Decodes a game's lease: one line per seat, with whether it's a
+     * human or a bot, the player's ID, and the player's name.
+     *
+     * @return the lease, or {@code null} if it can't be read
+     */
+    private static GameLease readLease(final String gameID,
+                                       final String content)
+    {
+        if(content == null || !content.endsWith("\n"))
+        {
+            return null;
+        }
+
+        final Map<String, String> players;
+        final Set<String>         botIDs;
+
+        players = new LinkedHashMap<>();
+        botIDs  = new HashSet<>();
+        for(final String line : content.split("\n"))
+        {
+            final String[] fields;
+            fields = line.split(SEPARATOR, 3);
+            if(fields.length < 3)
+            {
+                return null;
+            }
+            players.put(fields[1], fields[2]);
+            if(fields[0].equals(BOT))
+            {
+                botIDs.add(fields[1]);
+            }
+        }
+        return new GameLease(gameID, players, botIDs);
+    }
+
+    private static void removeIfEmpty(final Path directory)
+    {
+        if(Protocol.listDir(directory).isEmpty())
+        {
+            Protocol.removeRecursive(directory);
+        }
+    }
+}
@@ -0,0 +1,706 @@
+package mygame.multiplayer.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import mygame.game.TicTacToe;
+import mygame.multiplayer.Service;
+
+/**
+ * Every finished game, compressed for keeping for good: for analytics,
+ * and to train engines on.
+ * <p>
+ * Games are archived from the {@link ResultsStore} in blocks of {@value #BLOCK_GAMES},
+ * once that many are waiting. Each block is encoded, then compressed with
+ * {@link Deflater}, and appended to {@value #BLOCKS_FILE}. In a block, each game is:
+ * <pre>
+ * {@code gameID (16 bytes) start duration players (1) winner (1) names moveCount moves}
+ * </pre>
+ * where numbers are varints, 7 bits a byte, and the start is the difference from
+ * the previous game's. Each name is its index in the block's dictionary of names;
+ * a name not in it yet gets the next index, followed by its length and UTF-8 bytes.
+ * Each move is the difference from the previous one, from the board's centre for
+ * the first, zigzag-encoded so that small differences either way take one byte:
+ * moves tend to be close to each other, which no fixed-size encoding makes use of.
+ * The moves are in the order played, and the players in turn order
+ * (see {@link GameResult}), so the games can be replayed.
+ * <p>
+ * The sparse index, {@value #INDEX_FILE}, holds a header, then one entry per block:
+ * <pre>
+ * {@code offset (8 bytes) compressedLength (4) rawLength (4)}
+ * </pre>
+ * Every block holds the same number of games, so the {@code i}th game is in block
+ * {@code i / }{@value #BLOCK_GAMES}, and reading from it only takes decompressing
+ * the blocks from there. The header holds the number of blocks,
+ * written last on each append, so a reader never sees a block before it's written.
+ * <p>
+ * The games that don't fill a block yet are only in the results store;
+ * so are the last ones after a crash, which are archived on the next start.
+ * Once a block is archived, its games are dropped from the results store
+ * (see {@link ResultsStore#compact}), so each game is only kept in one place.
+ * A result doesn't record who left a game, so a forfeited game is replayed
+ * as if all its players had played to the end.
+ * <p>
+ * Several main servers may share the archive, each in its own process:
+ * appends take an exclusive lock on the index, and append the blocks
+ * no other server has yet.
+ * <p>
+ * Thread-safe: games are archived from the main server's loop,
+ * and may be read from anywhere. Reading takes no lock: blocks are never
+ * changed once they're visible, and each read decompresses with its own
+ * {@link Inflater}.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class GameArchive implements Service
+{
+    private static final String   INDEX_FILE          = "archive.idx";
+    private static final String   BLOCKS_FILE         = "archive.dat";
+    private static final int      MAGIC               = 0x41524356; // "ARCV"
+    private static final int      VERSION             = 1;
+    private static final int      BLOCK_GAMES         = 256;
+    private static final int      HEADER_SIZE         = 16;
+    private static final int      ENTRY_SIZE          = 16;
+    private static final int      BLOCKS_OFFSET       = 8;
+    private static final int      BLOCK_GAMES_OFFSET  = 12;
+    private static final int      INITIAL_BLOCK_BYTES = 64 * 1024;
+    private static final String[] PLAYER_IDS          = {"0", "1", "2", "3", "4", "5"};
+
+    private final FileChannel indexChannel;
+    private final FileChannel blocksChannel;
+    private final Deflater    deflater;
+
+    private int archived;
+
+    /**
+     * A block being encoded.
+     */
+    private static final class Encoder
+    {
+        private final Map<String, Integer> names = new HashMap<>();
+
+        private byte[] bytes = new byte[INITIAL_BLOCK_BYTES];
+        private int    length;
+        private long   previousStart;
+
+        private void encode(final GameResult result)
+        {
+            final UUID gameID;
+            int        previous;
+
+            gameID = UUID.fromString(result.gameID());
+            putLong(gameID.getMostSignificantBits());
+            putLong(gameID.getLeastSignificantBits());
+            putSigned(result.startMillis() - previousStart);
+            putVarint(result.endMillis() - result.startMillis());
+            put(result.players().size());
+            put(result.winner() + 1);
+            previousStart = result.startMillis();
+
+            for(final String player : result.players())
+            {
+                final Integer index;
+                index = names.get(player);
+                if(index == null)
+                {
+                    final byte[] name;
+                    name = player.getBytes(StandardCharsets.UTF_8);
+                    putVarint(names.size());
+                    putVarint(name.length);
+                    for(final byte b : name)
+                    {
+                        put(b);
+                    }
+                    names.put(player, names.size());
+                } else
+                {
+                    putVarint(index);
+                }
+            }
+
+            putVarint(result.moves().size());
+            previous = center(result.players().size());
+            for(final int move : result.moves())
+            {
+                putSigned(move - previous);
+                previous = move;
+            }
+        }
+
+        private void putLong(final long value)
+        {
+            for(int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE)
+            {
+                put((int) (value >>> shift));
+            }
+        }
+
+        private void putSigned(final long value)
+        {
+            putVarint(value << 1 ^ value >> Long.SIZE - 1);
+        }
+
+        private void putVarint(final long value)
+        {
+            long rest;
+            rest = value;
+            while((rest & ~0x7FL) != 0)
+            {
+                put((int) (rest & 0x7F | 0x80));
+                rest >>>= 7;
+            }
+            put((int) rest);
+        }
+
+        private void put(final int b)
+        {
+            if(length == bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, 2 * length);
+            }
+            bytes[length++] = (byte) b;
+        }
+    }
+
+    /**
+     * A block being decoded.
+     */
+    private static final class Decoder
+    {
+        private final byte[]       bytes;
+        private final List<String> names;
+
+        private int  position;
+        private long previousStart;
+
+        private Decoder(final byte[] bytes)
+        {
+            this.bytes = bytes;
+            this.names = new ArrayList<>();
+        }
+
+        private GameResult decode()
+        {
+            final UUID          gameID;
+            final long          startMillis;
+            final long          durationMillis;
+            final int           seats;
+            final int           winner;
+            final List<String>  players;
+            final int           moveCount;
+            final List<Integer> moves;
+            int                 previous;
+
+            gameID         = new UUID(getLong(), getLong());
+            startMillis    = previousStart + getSigned();
+            durationMillis = getVarint();
+            seats          = get();
+            winner         = get() - 1;
+            previousStart  = startMillis;
+
+            players = new ArrayList<>(seats);
+            for(int seat = 0; seat < seats; seat++)
+            {
+                final int index;
+                index = (int) getVarint();
+                if(index == names.size())
+                {
+                    final int length;
+                    length    = (int) getVarint();
+                    names.add(new String(bytes, position, length, StandardCharsets.UTF_8));
+                    position += length;
+                }
+                players.add(names.get(index));
+            }
+
+            moveCount = (int) getVarint();
+            moves     = new ArrayList<>(moveCount);
+            previous  = center(seats);
+            for(int i = 0; i < moveCount; i++)
+            {
+                previous += (int) getSigned();
+                moves.add(previous);
+            }
+            return new GameResult(gameID.toString(),
+                                  players,
+                                  winner,
+                                  moves,
+                                  startMillis,
+                                  startMillis + durationMillis);
+        }
+
+        private long getLong()
+        {
+            long value;
+            value = 0;
+            for(int i = 0; i < Long.BYTES; i++)
+            {
+                value = value << Byte.SIZE | get();
+            }
+            return value;
+        }
+
+        private long getSigned()
+        {
+            final long value;
+            value = getVarint();
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        private long getVarint()
+        {
+            long value;
+            int  shift;
+            int  b;
+
+            value = 0;
+            shift = 0;
+            do
+            {
+                b      = get();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while((b & 0x80) != 0);
+            return value;
+        }
+
+        private int get()
+        {
+            return bytes[position++] & 0xFF;
+        }
+    }
+
+    /**
+     * Reads the games in order, one block at a time.
+     * Must be closed, to free its {@link Inflater}.
+     */
+    private final class Cursor implements AutoCloseable
+    {
+        private final int      blocks;
+        private final Inflater inflater;
+
+        private int     block;
+        private int     left;
+        private Decoder decoder;
+
+        private Cursor(final int from) throws IOException
+        {
+            blocks   = blocks();
+            inflater = new Inflater();
+            block    = from / BLOCK_GAMES;
+            if(block < blocks)
+            {
+                load();
+                for(int i = 0; i < from % BLOCK_GAMES; i++)
+                {
+                    next();
+                }
+            }
+        }
+
+        /**
+         * Gets the next game.
+         *
+         * @return the game, or {@code null} if there are no more
+         */
+        private GameResult next() throws IOException
+        {
+            if(left == 0)
+            {
+                block++;
+                if(block >= blocks)
+                {
+                    return null;
+                }
+                load();
+            }
+            left--;
+            return decoder.decode();
+        }
+
+        private void load() throws IOException
+        {
+            final ByteBuffer entry;
+            final byte[]     compressed;
+            final byte[]     raw;
+            int              inflated;
+
+            entry      = readFully(indexChannel, HEADER_SIZE + (long) block * ENTRY_SIZE, ENTRY_SIZE);
+            compressed = readFully(blocksChannel, entry.getLong(0), entry.getInt(8)).array();
+            raw        = new byte[entry.getInt(12)];
+            inflated   = 0;
+            inflater.reset();
+            inflater.setInput(compressed);
+            try
+            {
+                while(inflated < raw.length)
+                {
+                    final int count;
+                    count = inflater.inflate(raw, inflated, raw.length - inflated);
+                    if(count == 0 && (inflater.finished() || inflater.needsInput()))
+                    {
+                        throw new IOException("Truncated block " + block);
+                    }
+                    inflated += count;
+                }
+            } catch(final DataFormatException e)
+            {
+                throw new IOException("Corrupt block " + block, e);
+            }
+            decoder = new Decoder(raw);
+            left    = BLOCK_GAMES;
+        }
+
+        @Override
+        public void close()
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Opens the archive in a directory, creating it if it doesn't exist.
+     *
+     * @param directory the archive's directory
+     * @throws RuntimeException if the archive can't be opened, or isn't an archive
+     */
+    GameArchive(final Path directory)
+    {
+        deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try
+        {
+            Files.createDirectories(directory);
+            indexChannel  = open(directory.resolve(INDEX_FILE));
+            blocksChannel = open(directory.resolve(BLOCKS_FILE));
+
+            final FileLock lock;
+            lock = indexChannel.lock();
+            try
+            {
+                if(indexChannel.size() == 0)
+                {
+                    writeFully(indexChannel,
+                               ByteBuffer.allocate(HEADER_SIZE)
+                                         .putInt(MAGIC)
+                                         .putInt(VERSION)
+                                         .putInt(0)
+                                         .putInt(BLOCK_GAMES)
+                                         .flip(),
+                               0);
+                } else
+                {
+                    final ByteBuffer header;
+                    header = readFully(indexChannel, 0, HEADER_SIZE);
+                    if(header.getInt(0) != MAGIC ||
+                       header.getInt(4) != VERSION ||
+                       header.getInt(BLOCK_GAMES_OFFSET) != BLOCK_GAMES)
+                    {
+                        throw new IllegalStateException("Not a game archive: " + directory);
+                    }
+                }
+                archived = blocks() * BLOCK_GAMES;
+            } finally
+            {
+                lock.release();
+            }
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static FileChannel open(final Path file) throws IOException
+    {
+        return FileChannel.open(file,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.READ,
+                                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Archives the results that fill whole blocks and aren't archived yet,
+     * by this server or another, then drops them from the store.
+     *
+     * @param results the store to archive from
+     */
+    synchronized void catchUp(final ResultsStore results)
+    {
+        if(results.size() - archived >= BLOCK_GAMES)
+        {
+            archive(results);
+        }
+        results.compact(archived);
+    }
+
+    /**
+     * Appends the blocks that are full in the store, and not in the archive yet.
+     *
+     * @param results the store to archive from
+     */
+    private void archive(final ResultsStore results)
+    {
+        try
+        {
+            final FileLock lock;
+            lock = indexChannel.lock();
+            try
+            {
+                int blocks;
+                blocks = blocks();
+                while(results.size() - blocks * BLOCK_GAMES >= BLOCK_GAMES)
+                {
+                    append(blocks, results.range(blocks * BLOCK_GAMES, (blocks + 1) * BLOCK_GAMES));
+                    blocks++;
+                }
+                archived = blocks * BLOCK_GAMES;
+            } finally
+            {
+                lock.release();
+            }
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Encodes, compresses and appends a block. Called with the lock held.
+     *
+     * @param block the block's number
+     * @param games the block's games
+     */
+    private void append(final int block,
+                        final List<GameResult> games) throws IOException
+    {
+        final Encoder encoder;
+        final long    offset;
+        byte[]        compressed;
+        int           length;
+
+        encoder = new Encoder();
+        games.forEach(encoder::encode);
+
+        deflater.reset();
+        deflater.setInput(encoder.bytes, 0, encoder.length);
+        deflater.finish();
+        compressed = new byte[encoder.length / 2 + 64];
+        length     = 0;
+        while(!deflater.finished())
+        {
+            if(length == compressed.length)
+            {
+                compressed = Arrays.copyOf(compressed, 2 * length);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        if(block == 0)
+        {
+            offset = 0;
+        } else
+        {
+            final ByteBuffer previous;
+            previous = readFully(indexChannel, HEADER_SIZE + (long) (block - 1) * ENTRY_SIZE, ENTRY_SIZE);
+            offset   = previous.getLong(0) + previous.getInt(8);
+        }
+
+        writeFully(blocksChannel, ByteBuffer.wrap(compressed, 0, length), offset);
+        writeFully(indexChannel,
+                   ByteBuffer.allocate(ENTRY_SIZE)
+                             .putLong(offset)
+                             .putInt(length)
+                             .putInt(encoder.length)
+                             .flip(),
+                   HEADER_SIZE + (long) block * ENTRY_SIZE);
+
+        // the count goes last: it's what makes the block visible
+        writeFully(indexChannel, ByteBuffer.allocate(Integer.BYTES).putInt(block + 1).flip(), BLOCKS_OFFSET);
+    }
+
+    /**
+     * Reads a range of archived games, oldest first.
+     *
+     * @param from   the first game's number, from 0
+     * @param to     the number of the game after the last one;
+     *               reading stops early at the end of the archive
+     * @param action what to do with each game
+     */
+    void forEach(final int from,
+                 final int to,
+                 final Consumer<GameResult> action)
+    {
+        try(final Cursor cursor = new Cursor(from))
+        {
+            GameResult result;
+            for(int game = from; game < to && (result = cursor.next()) != null; game++)
+            {
+                action.accept(result);
+            }
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads a range of archived games, oldest first.
+     *
+     * @param from the first game's number, from 0
+     * @param to   the number of the game after the last one, at most {@link #size()}
+     * @return the games
+     */
+    List<GameResult> range(final int from,
+                           final int to)
+    {
+        final List<GameResult> range;
+        range = new ArrayList<>(to - from);
+        forEach(from, to, range::add);
+        return range;
+    }
+
+    /**
+     * Replays every archived game, oldest first, from one on.
+     * <p>
+     * Each game is played on a {@link TicTacToe} whose players' IDs are
+     * their indexes in the result, so that they take turns in the same order.
+     * There's one per number of players, {@link TicTacToe#reset reset} for each game,
+     * so it's only valid during the call it's passed to.
+     *
+     * @param from          the first game's number, from 0
+     * @param afterEachMove what to do after each move, with the game's result,
+     *                      and the game as it stands
+     * @return the number of moves replayed
+     */
+    long replay(final int from,
+                final BiConsumer<GameResult, TicTacToe> afterEachMove)
+    {
+        try(final Cursor cursor = new Cursor(from))
+        {
+            final TicTacToe[] games;
+            final String[][]  playerIDs;
+            GameResult        result;
+            long              moves;
+
+            games     = new TicTacToe[TicTacToe.MAX_PLAYERS + 1];
+            playerIDs = new String[TicTacToe.MAX_PLAYERS + 1][];
+            moves     = 0;
+            while((result = cursor.next()) != null)
+            {
+                final int       players;
+                final TicTacToe game;
+
+                players = result.players().size();
+                if(games[players] == null)
+                {
+                    playerIDs[players] = Arrays.copyOf(PLAYER_IDS, players);
+                    games[players]     = new TicTacToe(playerIDs[players]);
+                }
+                game = games[players];
+                game.reset(playerIDs[players]);
+                for(final Integer move : result.moves())
+                {
+                    game.update(move);
+                    afterEachMove.accept(result, game);
+                }
+                moves += result.moves().size();
+            }
+            return moves;
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gets how many games are archived, by this server or another.
+     *
+     * @return the number of games
+     */
+    int size()
+    {
+        try
+        {
+            return blocks() * BLOCK_GAMES;
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int blocks() throws IOException
+    {
+        return readFully(indexChannel, BLOCKS_OFFSET, Integer.BYTES).getInt(0);
+    }
+
+    /**
+     * Gets the ordinal of the centre of the board for a number of players,
+     * where the first move is expected.
+     */
+    private static int center(final int players)
+    {
+        final int size;
+        size = TicTacToe.getBoardSize(players);
+        return size * size / 2;
+    }
+
+    private static ByteBuffer readFully(final FileChannel channel,
+                                        final long position,
+                                        final int length) throws IOException
+    {
+        final ByteBuffer buffer;
+        buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of archive");
+            }
+        }
+        return buffer;
+    }
+
+    private static void writeFully(final FileChannel channel,
+                                   final ByteBuffer buffer,
+                                   final long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Closes the files.
+     */
+    @Override
+    public synchronized void stop()
+    {
+        deflater.end();
+        try
+        {
+            indexChannel.close();
+            blocksChannel.close();
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package mygame.multiplayer.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import mygame.game.TicTacToe;
+
+/**
+ * Finished games, kept to be played again.
+ * <p>
+ * A {@link TicTacToe}'s board is sized by its number of players, and can be
+ * {@link TicTacToe#reset} for another game with as many players, so a game
+ * server borrows its game from here and gives it back once it's done with it,
+ * instead of allocating a new board for every game.
+ * There is one pool per number of players, each keeping at most
+ * {@code mygame.gamePoolSize} games (default {@value #DEFAULT_SIZE});
+ * any more are left to the garbage collector.
+ * <p>
+ * The pool is shared by all games, on any thread.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class GamePool
+{
+    private static final int DEFAULT_SIZE = 256;
+
+    private final int                    size;
+    private final List<Queue<TicTacToe>> games;
+    private final AtomicIntegerArray     counts;
+
+    /**
+     * Creates empty pools.
+     */
+    GamePool()
+    {
+        size   = Math.max(0, Integer.getInteger("mygame.gamePoolSize", DEFAULT_SIZE));
+        games  = new ArrayList<>();
+        counts = new AtomicIntegerArray(TicTacToe.MAX_PLAYERS + 1);
+        for(int players = 0; players <= TicTacToe.MAX_PLAYERS; players++)
+        {
+            games.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Gets a new game: a pooled one, reset, if there is one for as many players,
+     * otherwise a newly created one.
+     *
+     * @param playerIDs the IDs of the players
+     * @return the game
+     * @throws IllegalArgumentException if the number of players is not supported
+     */
+    TicTacToe borrow(final String... playerIDs)
+    {
+        final TicTacToe game;
+
+        if(playerIDs.length < TicTacToe.MIN_PLAYERS || playerIDs.length > TicTacToe.MAX_PLAYERS)
+        {
+            return new TicTacToe(playerIDs);
+        }
+        game = games.get(playerIDs.length).poll();
+        if(game == null)
+        {
+            return new TicTacToe(playerIDs);
+        }
+        counts.decrementAndGet(playerIDs.length);
+        game.reset(playerIDs);
+        return game;
+    }
+
+    /**
+     * Gives a game back, to be played again. Nothing may use it afterwards.
+     *
+     * @param game the game
+     */
+    void giveBack(final TicTacToe game)
+    {
+        final int players;
+
+        players = game.getPlayerCount();
+        if(counts.incrementAndGet(players) > size)
+        {
+            counts.decrementAndGet(players);
+            return;
+        }
+        games.get(players).add(game);
+    }
+}
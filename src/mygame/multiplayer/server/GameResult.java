@@ -0,0 +1,51 @@
+package mygame.multiplayer.server;
+
+import java.util.List;
+
+/**
+ * The outcome of a finished game, published by its {@link GameServer}.
+ *
+ * @param gameID      the game's ID
+ * @param players     the players' names, in turn order: the first one moved first
+ * @param winner      the winner's index in {@code players}, or {@link #TIE} if nobody won
+ * @param moves       the moves played, in order
+ * @param startMillis when the game started, in epoch milliseconds
+ * @param endMillis   when the game ended, in epoch milliseconds
+ * @author Felix Nguyen
+ * @version 1
+ */
+record GameResult(String gameID,
+                  List<String> players,
+                  int winner,
+                  List<Integer> moves,
+                  long startMillis,
+                  long endMillis)
+{
+    /**
+     * The winner's index when the game is a tie.
+     */
+    static final int TIE = -1;
+
+    /**
+     * Gets the players' names, each once.
+     * Names are how players are known between games, so seats that share
+     * one, like two bots or two clients run by the same user, are one player.
+     *
+     * @return the names, in the order they first took a seat
+     */
+    List<String> distinctPlayers()
+    {
+        return players.stream().distinct().toList();
+    }
+
+    /**
+     * Checks whether a player won, from any of their seats.
+     *
+     * @param player the player's name
+     * @return whether one of their seats won
+     */
+    boolean wonBy(final String player)
+    {
+        return winner != TIE && players.get(winner).equals(player);
+    }
+}
@@ -2,48 +2,413 @@ package mygame.multiplayer.server;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Predicate;
+import java.util.Set;
+import java.util.UUID;
 
+import mygame.multiplayer.Broadcast;
 import mygame.multiplayer.Protocol;
+import mygame.multiplayer.Scope;
 import mygame.multiplayer.Service;
+import mygame.multiplayer.services.Connection.ConnectionMonitor;
+import mygame.multiplayer.services.EventLoop;
+import mygame.multiplayer.services.Histogram;
 import mygame.multiplayer.services.Monitor;
+import mygame.multiplayer.services.PollGroup;
+import mygame.multiplayer.services.PublisherService;
 import mygame.game.TicTacToe;
 
 
 /**
  * An individual game's server. Monitors the clients' moves,
  * decides whose turn to move, and announces the game result.
+ * <p>
+ * Only the clients invited by the {@link MainServer} may join.
+ * As a {@link PublisherService}, the server publishes a {@link GameResult}
+ * when the game ends, whether by a win, a tie, or a forfeit.
+ * <p>
+ * Some of the seats may be taken by bots from a {@link BotPool}.
+ * Bots have no files: they read the server's own game,
+ * and their moves are posted straight to the server's event loop.
+ * <p>
+ * Players don't get a message of their own each turn. Each move, departure,
+ * and the end of the game is written once to the game's {@link Broadcast},
+ * which players and spectators alike follow, so a turn costs one write
+ * however many players and spectators there are.
+ * A player who leaves mid-game forfeits: their turns are skipped,
+ * and the last player standing wins.
+ * <p>
+ * All callbacks of the server's monitors are delivered through
+ * the server's own {@link EventLoop}, so the game state
+ * is only ever accessed by one event at a time.
+ * The loop is placed on a shard by the game ID,
+ * so all of a game's work stays on one core.
+ * <p>
+ * The monitors are all polled by one {@link PollGroup}
+ * on the game directory, which scans it once per tick on the loop's shard,
+ * and owned by one {@link Scope}, which stops them all
+ * (and releases the loop) when the last client disconnects.
+ * <p>
+ * A client's connection is lost once the suspicion that it is reaches
+ * {@code mygame.clientPhiThreshold} (see {@link ConnectionMonitor}).
+ * A client whose connection is lost mid-game doesn't forfeit right away:
+ * its seat is held for {@code mygame.resumeMillis} milliseconds
+ * (default {@value #DEFAULT_RESUME_MILLIS}), in case it was only stalled,
+ * during which it may resume with its session token (see {@link Protocol}).
+ * The game waits for it if it's its turn. The hold expires on the game's
+ * own loop (see {@link EventLoop#after}), so a stall that trips many clients
+ * at once costs no threads.
+ * <p>
+ * Each player has a move clock (see {@link MoveClocks}), which runs while
+ * it's their turn, and is broadcast along with each of their moves.
+ * A player who runs out of time forfeits like one who left.
+ * Once the game is over, the clients have until the end of the resume window
+ * to see the end and leave; then the server stops whether they have or not,
+ * so that a client that stays connected can't keep the game forever.
+ * <p>
+ * The server holds a lease on its game (see {@link Cluster}) for as long as it runs.
+ * If its main server dies, another main server resumes the game from its broadcast:
+ * it replays the frames into a new game server, which reconnects the clients
+ * still playing and carries on from the same turn.
+ * <p>
+ * While it runs, the server is registered as a {@link GameServerMXBean},
+ * and reports its moves, turn latency and departures to the main server's
+ * {@link ServerStats}. The attributes JMX reads are kept in volatile fields,
+ * since JMX reads them from threads other than the loop's.
  *
  * @author Felix Nguyen
  * @version 1
  */
-final class GameServer
+final class GameServer extends PublisherService<GameResult> implements GameServerMXBean
 {
-    private final String            gameID;
-    private final Path              gameDirectory;
-    private final Service           newClientsNotifier;
-    private final Map<Path, String> clientIDs;
+    private static final int      DEFAULT_RESUME_MILLIS = 10_000;
+    private static final double   DEFAULT_PHI_THRESHOLD = ConnectionMonitor.DEFAULT_PHI_THRESHOLD;
+    private static final GamePool GAMES                 = new GamePool();
 
-    private TicTacToe game;
-    private Service   moveNotifier;
-    private Integer   previousMove;
+    private final String              gameID;
+    private final Map<String, String> players;
+    private final String[]            seats;
+    private final List<Integer>       moves;
+    private final List<String>        removals;
+    private final BotPool             bots;
+    private final MoveClocks          clocks;
+    private final MoveClocks.Clock    clock;
+    private final int[]               timeLeft;
+    private final Set<String>         botIDs;
+    private final int                 humanCount;
+    private final TicTacToe           game;
+    private final Broadcast           broadcast;
+    private final EventLoop           loop;
+    private final Path                gameDirectory;
+    private final PollGroup           pollGroup;
+    private final Scope               scope;
+    private final Service             newClientsNotifier;
+    private final Map<Path, String>   clientIDs;
+    private final Map<String, String> sessions;
+    private final Map<String, Scope>  holds;
+    private final int                 resumeMillis;
+    private final double              phiThreshold;
+    private final ServerStats         stats;
+    private final Histogram           turnLatency;
+    private final Path                lease;
+
+    private long             startMillis;
+    private long             turnStartNanos;
+    private long             turnStartMillis;
+    private long             closeMillis;
+    private boolean          ended;
+    private boolean          deciding;
+    private boolean          recycled;
+    private volatile boolean started;
+    private volatile boolean stopped;
+    private volatile int     moveCount;
+    private volatile int     connectedClients;
 
     /**
      * Starts a server.
      *
-     * @param ID the game ID
+     * @param ID      the game ID
+     * @param players the invited clients' IDs, mapped to their players' names,
+     *                in seat order
+     * @param clocks  the main server's move clocks
+     * @param stats   the main server's statistics
+     * @param lease   the main server's lease on the game, removed when the game is over
+     */
+    GameServer(final String ID,
+               final Map<String, String> players,
+               final MoveClocks clocks,
+               final ServerStats stats,
+               final Path lease)
+    {
+        this(ID, players, null, Set.of(), clocks, stats, lease);
+    }
+
+    /**
+     * Starts a server where some of the seats are taken by bots.
+     *
+     * @param ID      the game ID
+     * @param players the invited clients' IDs, and the bots' IDs,
+     *                mapped to their players' names, in seat order
+     * @param bots    the pool deciding the bots' moves,
+     *                or {@code null} if there are no bots
+     * @param botIDs  the bots' IDs, empty if there are no bots
+     * @param clocks  the main server's move clocks
+     * @param stats   the main server's statistics
+     * @param lease   the main server's lease on the game, removed when the game is over
+     */
+    GameServer(final String ID,
+               final Map<String, String> players,
+               final BotPool bots,
+               final Set<String> botIDs,
+               final MoveClocks clocks,
+               final ServerStats stats,
+               final Path lease)
+    {
+        this(ID, players, bots, botIDs, clocks, stats, lease, null);
+    }
+
+    /**
+     * Starts a server, either for a new game, or for a game taken over
+     * from another main server, in which case the game is replayed from its feed
+     * before the clients are reconnected (see {@link #reconnect}).
+     * <p>
+     * A game that started without move clocks carries on without them,
+     * and one that started with them keeps its players' time.
+     *
+     * @param feed the game's feed so far, or {@code null} for a new game
      */
-    GameServer(final String ID)
+    private GameServer(final String ID,
+                       final Map<String, String> players,
+                       final BotPool bots,
+                       final Set<String> botIDs,
+                       final MoveClocks clocks,
+                       final ServerStats stats,
+                       final Path lease,
+                       final Broadcast.Snapshot feed)
     {
-        gameID    = ID;
-        clientIDs = new HashMap<>();
+        gameID       = ID;
+        this.players = players;
+        this.bots    = bots;
+        this.botIDs  = botIDs;
+        this.clocks  = clocks;
+        this.stats   = stats;
+        this.lease   = lease;
+        turnLatency  = new Histogram();
+        seats        = players.keySet().toArray(String[]::new);
+        humanCount   = seats.length - botIDs.size();
+        moves        = new ArrayList<>();
+        removals     = new ArrayList<>();
+        clientIDs    = new HashMap<>();
+        sessions     = new HashMap<>();
+        holds        = new HashMap<>();
+        resumeMillis = Integer.getInteger("mygame.resumeMillis", DEFAULT_RESUME_MILLIS);
+        phiThreshold = Double.parseDouble(System.getProperty("mygame.clientPhiThreshold",
+                                                             String.valueOf(DEFAULT_PHI_THRESHOLD)));
+        game         = GAMES.borrow(seats);
+        broadcast    = feed == null ? new Broadcast(gameID, seats) : new Broadcast(gameID, feed);
+        scope        = new Scope("game " + gameID);
+        loop         = scope.own(new EventLoop(gameID));
+
+        if(isClocked(feed, clocks))
+        {
+            timeLeft = new int[seats.length];
+            clock    = scope.own(clocks.clock(loop.deliver(this::timeUp)));
+            Arrays.fill(timeLeft, clocks.getTimeMillis());
+        } else
+        {
+            timeLeft = null;
+            clock    = null;
+        }
+
+        if(feed != null)
+        {
+            feed.frames().forEach(this::replay);
+        }
 
         gameDirectory      = Protocol.getGame(gameID);
-        newClientsNotifier = Monitor.When.directoryChange(gameDirectory)
-                                         .then(this::addClient);
+        pollGroup          = new PollGroup(gameDirectory, loop);
+        newClientsNotifier = scope.own(Monitor.When.directoryChange(gameDirectory, pollGroup)
+                                                   .then(loop.deliver(this::addClient)));
+
+        if(feed != null)
+        {
+            loop.post(this::reconnect);
+        }
+        stats.gameCreated(this);
+    }
+
+    /**
+     * Checks whether a game has move clocks: a new game, or one that hasn't started,
+     * if the main server's are on; otherwise if its feed has a clock.
+     *
+     * @param feed   the game's feed so far, or {@code null} for a new game
+     * @param clocks the main server's move clocks
+     * @return whether the game has move clocks
+     */
+    private static boolean isClocked(final Broadcast.Snapshot feed,
+                                     final MoveClocks clocks)
+    {
+        if(feed == null || feed.frames().stream().noneMatch(frame -> frame.kind() == Broadcast.Kind.START))
+        {
+            return clocks.isEnabled();
+        }
+        return feed.frames().stream().anyMatch(frame -> frame.kind() == Broadcast.Kind.CLOCK);
+    }
+
+    /**
+     * Resumes a game another main server was hosting.
+     *
+     * @param game   the game's lease, as taken over
+     * @param bots   the pool deciding the bots' moves
+     * @param clocks the main server's move clocks
+     * @param stats  the main server's statistics
+     * @param lease  this main server's lease on the game
+     * @return the game's server, or {@code null} if the game can't be resumed,
+     *         e.g. because it's gone
+     */
+    static GameServer resume(final Cluster.GameLease game,
+                             final BotPool bots,
+                             final MoveClocks clocks,
+                             final ServerStats stats,
+                             final Path lease)
+    {
+        final Broadcast.Snapshot feed;
+        feed = Broadcast.recover(game.gameID());
+        if(feed == null || !feed.seats().equals(List.copyOf(game.players().keySet())))
+        {
+            return null;
+        }
+        return new GameServer(game.gameID(), game.players(), bots, game.botIDs(),
+                              clocks, stats, lease, feed);
+    }
+
+    /**
+     * Applies a frame of the game's feed, when resuming the game.
+     *
+     * @param frame the frame
+     */
+    private void replay(final Broadcast.Frame frame)
+    {
+        switch(frame.kind())
+        {
+            case START ->
+            {
+                started     = true;
+                startMillis = System.currentTimeMillis();
+            }
+            case MOVE ->
+            {
+                game.update(frame.value());
+                moves.add(frame.value());
+                moveCount = moves.size();
+            }
+            case CLOCK -> setTimeLeft(frame.value());
+            case LEAVE, TIMEOUT -> game.remove(seats[frame.value()]);
+            case END -> ended = true;
+        }
+    }
+
+    /**
+     * Sets a clock from the feed: before the game starts, everyone's,
+     * after, that of the player to move.
+     *
+     * @param millis the time left
+     */
+    private void setTimeLeft(final int millis)
+    {
+        if(timeLeft == null)
+        {
+            return;
+        }
+        if(!started)
+        {
+            Arrays.fill(timeLeft, millis);
+        } else if(game.getNextPlayerID() != null)
+        {
+            timeLeft[seatOf(game.getNextPlayerID())] = millis;
+        }
+    }
+
+    /**
+     * Reconnects the clients of a resumed game.
+     * <p>
+     * If the game hadn't started, the clients that had joined are added again,
+     * and the server waits for the rest as usual. Otherwise, the clients still
+     * in the game are monitored again, then the game carries on
+     * with the player whose turn it is, whose move may already be waiting.
+     * If no client is left, the server stops.
+     */
+    private void reconnect()
+    {
+        if(!started && !ended)
+        {
+            Protocol.listDir(gameDirectory).forEach(this::addClient);
+            return;
+        }
+
+        newClientsNotifier.stop();
+        scope.release(newClientsNotifier);
+        for(final String playerID : game.getActivePlayerIDs())
+        {
+            if(!botIDs.contains(playerID))
+            {
+                connect(playerID);
+                if(!ended)
+                {
+                    startMoveNotifier(playerID);
+                }
+            }
+        }
+
+        if(clientIDs.isEmpty())
+        {
+            stop();
+        } else if(!ended && !playPendingMove())
+        {
+            signalNextTurn();
+        }
+    }
+
+    /**
+     * Plays the move of the client whose turn it is, if they made it
+     * while nobody was hosting the game. A move that isn't available
+     * is one of their earlier ones, and is ignored.
+     *
+     * @return whether a move was played
+     */
+    private boolean playPendingMove()
+    {
+        final String  playerID;
+        final String  content;
+        final Integer move;
+
+        playerID = game.getNextPlayerID();
+        if(playerID == null || botIDs.contains(playerID))
+        {
+            return false;
+        }
+
+        content = Protocol.read(Protocol.getMove(gameID, playerID));
+        try
+        {
+            move = Integer.valueOf(content.strip());
+        } catch(final RuntimeException e)
+        {
+            return false;
+        }
+        if(!game.isAvailable(move))
+        {
+            return false;
+        }
+
+        turnStartNanos  = System.nanoTime();
+        turnStartMillis = System.currentTimeMillis();
+        play(playerID, move);
+        return true;
     }
 
     /* Receive connection from a client. */
@@ -54,53 +419,318 @@ final class GameServer
             return;
         }
 
-        // when the game has had enough players
-        if(clientIDs.size() >= TicTacToe.PLAYERS_PER_GAME)
+        final String clientID;
+        clientID = path.getFileName().toString();
+
+        if(clientIDs.containsValue(clientID))
+        {
+            return;
+        }
+
+        // when the client wasn't invited, the game has had enough players,
+        // or it was terminated before they joined
+        if(ended ||
+           !players.containsKey(clientID) ||
+           botIDs.contains(clientID) ||
+           clientIDs.size() >= humanCount)
         {
             Protocol.removeRecursive(path);
             return;
         }
 
-        final String clientID;
+        connect(clientID);
+        if(clientIDs.size() == humanCount)
+        {
+            startGame();
+        }
+    }
+
+    /**
+     * Gives a client a session token, and monitors its connection to the game.
+     *
+     * @param clientID the client's ID
+     */
+    private void connect(final String clientID)
+    {
         final Path   client;
+        final String token;
+
+        client = Protocol.getClient(gameID, clientID);
+        token  = UUID.randomUUID().toString();
 
-        clientID = path.getFileName().toString();
-        client   = Protocol.getClient(gameID, clientID);
         clientIDs.put(client, clientID);
+        sessions.put(clientID, token);
+        connectedClients = clientIDs.size() - holds.size();
 
-        /*
-         * No need to keep a reference to this service to stop it.
-         * The game server only stops whens all clients have disconnected,
-         * and this service stops itself when triggered.
-         */
-        Monitor.When.connectionLost(client)
-                    .then(this::clientDisconnected);
+        Protocol.write(Protocol.getSession(gameID, clientID), token + "\n");
+        monitorConnection(client);
+    }
 
-        if(clientIDs.size() == TicTacToe.PLAYERS_PER_GAME)
-        {
-            startGame();
-        }
+    /**
+     * Monitors a client's connection, until the suspicion that it's lost
+     * reaches {@code mygame.clientPhiThreshold} (see {@link ConnectionMonitor}).
+     *
+     * @param client the client's connection file
+     */
+    private void monitorConnection(final Path client)
+    {
+        scope.own(Monitor.When.connectionLost(client, pollGroup, phiThreshold)
+                              .then(loop.deliver(this::clientDisconnected)));
     }
 
     /**
      * Handles when a client is disconnected.
      * <p>
-     * If they were the last client, stops the server.
-     * Else, if the game is not over, declares the other client the winner.
+     * If the game hasn't started, calls it off.
+     * If it's under way, holds the client's seat (see {@link #hold}).
+     * If the game is over and they were the last client, stops the server.
      */
     private void clientDisconnected(final Path client)
     {
+        if(!clientIDs.containsKey(client))
+        {
+            return;
+        }
+        if(started && !ended)
+        {
+            hold(client);
+            return;
+        }
+
         final String disconnectedID;
-        disconnectedID = clientIDs.remove(client);
+        disconnectedID   = clientIDs.remove(client);
+        connectedClients = clientIDs.size() - holds.size();
+
+        if(!ended)
+        {
+            stats.disconnected();
+            ended = true;
+            broadcast.leave(seatOf(disconnectedID));
+            broadcast.end(Broadcast.NO_WINNER);
+        }
 
         if(clientIDs.isEmpty())
         {
-            disconnect();
-        } else if(game.getAvailableMove() != null)
+            stop();
+        }
+    }
+
+    /**
+     * Holds the seat of a client whose connection was lost mid-game,
+     * until it resumes (see {@link #resume}) or the resume window is over
+     * (see {@link #expire}), whichever comes first.
+     *
+     * @param client the client's connection file
+     */
+    private void hold(final Path client)
+    {
+        final String clientID;
+        final Scope  hold;
+
+        clientID = clientIDs.get(client);
+        hold     = scope.child("hold " + clientID);
+        holds.put(clientID, hold);
+        connectedClients = clientIDs.size() - holds.size();
+
+        Protocol.write(Protocol.getSession(gameID, clientID),
+                       sessions.get(clientID) + "\n" + Protocol.AWAY + "\n");
+        hold.own(Monitor.When.fileChange(Protocol.getResume(gameID, clientID), pollGroup)
+                             .then(loop.deliver(token -> resume(client, hold, token))));
+        hold.own(loop.after(resumeMillis, () -> expire(client, hold)));
+    }
+
+    /**
+     * Gives a client back its held seat, if it presents its session token,
+     * and monitors its connection again. What it missed,
+     * it reads from the broadcast.
+     *
+     * @param client the client's connection file
+     * @param hold   the hold on the client's seat
+     * @param token  the token the client presented
+     */
+    private void resume(final Path client,
+                        final Scope hold,
+                        final String token)
+    {
+        final String clientID;
+        clientID = clientIDs.get(client);
+
+        if(token == null ||
+           holds.get(clientID) != hold ||
+           !token.strip().equals(sessions.get(clientID)))
+        {
+            return;
+        }
+
+        holds.remove(clientID);
+        hold.stop();
+        connectedClients = clientIDs.size() - holds.size();
+
+        Protocol.removeRecursive(Protocol.getResume(gameID, clientID));
+        Protocol.write(Protocol.getSession(gameID, clientID), sessions.get(clientID) + "\n");
+        monitorConnection(client);
+    }
+
+    /**
+     * Lets go of a client that didn't resume in time.
+     * If the game is still on, the client forfeits (see {@link #forfeit}).
+     * If they were the last client, stops the server.
+     *
+     * @param client the client's connection file
+     * @param hold   the hold on the client's seat
+     */
+    private void expire(final Path client,
+                        final Scope hold)
+    {
+        final String clientID;
+        clientID = clientIDs.get(client);
+        if(clientID == null || holds.get(clientID) != hold)
+        {
+            return;
+        }
+
+        holds.remove(clientID);
+        hold.stop();
+        clientIDs.remove(client);
+        connectedClients = clientIDs.size() - holds.size();
+
+        if(!ended)
+        {
+            stats.disconnected();
+            forfeit(clientID);
+        }
+
+        if(clientIDs.isEmpty())
         {
-            signal(disconnectedID, TicTacToe.Status.LOST);
-            clientIDs.values()
-                     .forEach(id -> signal(id, TicTacToe.Status.WON));
+            stop();
+        }
+    }
+
+    /**
+     * Broadcasts that a player left a game under way, and removes them
+     * (see {@link #remove}).
+     *
+     * @param playerID the player's ID
+     */
+    private void forfeit(final String playerID)
+    {
+        broadcast.leave(seatOf(playerID));
+        remove(playerID);
+    }
+
+    /**
+     * Handles when a deadline of the game's clock passed: either the player
+     * to move may have run out of time, or, if the game is over,
+     * the clients' time to leave may be up (see {@link #closeLater}).
+     * <p>
+     * The deadline may be out of date by the time this runs,
+     * e.g. if the player moved in the meantime, so the time is checked again.
+     * If the player's time is up, they forfeit (see {@link #remove}),
+     * and their client is let go: the server no longer waits for it.
+     */
+    private void timeUp()
+    {
+        final long   now;
+        final String playerID;
+        final int    seat;
+
+        if(stopped)
+        {
+            return;
+        }
+        now      = System.currentTimeMillis();
+        playerID = game.getNextPlayerID();
+        if(ended)
+        {
+            if(closeMillis != 0 && now >= closeMillis)
+            {
+                stop();
+            }
+            return;
+        }
+        if(playerID == null)
+        {
+            return;
+        }
+        seat = seatOf(playerID);
+        if(now - turnStartMillis < timeLeft[seat])
+        {
+            return;
+        }
+
+        timeLeft[seat] = 0;
+        stats.timedOut();
+        broadcast.timeout(seat);
+        letGo(playerID);
+        remove(playerID);
+    }
+
+    /**
+     * Gives the clients until the end of the resume window to see the end
+     * of the game and leave, then stops the server (see {@link #timeUp}),
+     * unless they have all left by then. Only a game with move clocks has a deadline.
+     */
+    private void closeLater()
+    {
+        if(clock == null)
+        {
+            return;
+        }
+        closeMillis = System.currentTimeMillis() + resumeMillis;
+        clock.runUntil(closeMillis);
+    }
+
+    /**
+     * Stops waiting for a client, e.g. one that ran out of time,
+     * including on a hold on its seat.
+     *
+     * @param playerID the client's ID
+     */
+    private void letGo(final String playerID)
+    {
+        final Scope hold;
+        hold = holds.remove(playerID);
+        if(hold != null)
+        {
+            hold.stop();
+        }
+        clientIDs.values().remove(playerID);
+        connectedClients = clientIDs.size() - holds.size();
+    }
+
+    /**
+     * Removes a player from a game under way: if only one player is left,
+     * they win; if only bots are left, it's a tie; otherwise the game goes on
+     * without them.
+     * <p>
+     * While a bot is deciding its move, its worker is reading the game,
+     * so the removal waits until the bot is done (see {@link #decided}).
+     *
+     * @param playerID the player's ID
+     */
+    private void remove(final String playerID)
+    {
+        final boolean      wasTheirTurn;
+        final List<String> remaining;
+
+        if(deciding)
+        {
+            removals.add(playerID);
+            return;
+        }
+        wasTheirTurn = playerID.equals(game.getNextPlayerID());
+        game.remove(playerID);
+        remaining = game.getActivePlayerIDs();
+
+        if(remaining.size() == 1)
+        {
+            endGame(remaining.getFirst());
+        } else if(botIDs.containsAll(remaining))
+        {
+            endGame(null);
+        } else if(wasTheirTurn)
+        {
+            signalNextTurn();
         }
     }
 
@@ -108,159 +738,393 @@ final class GameServer
      * Starts the game.
      * <p>
      * Sets up the services needed to maintain the game,
-     * then signals the first client to move.
+     * then signals the first player to move.
      */
     private void startGame()
     {
-        final String[]      clientIDArray;
-        final List<Service> moveNotifiers;
-
         newClientsNotifier.stop();
-        clientIDArray = clientIDs.values().toArray(String[]::new);
-        moveNotifiers = clientIDs.values()
-                                 .stream()
-                                 .map(this::getMoveNotifier).toList();
+        scope.release(newClientsNotifier);
+        clientIDs.values().forEach(this::startMoveNotifier);
 
-        this.moveNotifier = () -> moveNotifiers.forEach(Service::stop);
-        this.game         = new TicTacToe(clientIDArray);
+        started     = true;
+        startMillis = System.currentTimeMillis();
+        if(timeLeft != null)
+        {
+            broadcast.clock(clocks.getTimeMillis());
+        }
+        broadcast.start();
+        stats.gameStarted();
 
         signalNextTurn();
     }
 
     /**
-     * Gets a {@link Monitor} that monitors a client's moves.
+     * Starts a {@link Monitor} that monitors a client's moves.
      *
      * @param clientID ID of the client to monitor
-     * @return a {@link Service}
      */
-    private Service getMoveNotifier(final String clientID)
+    private void startMoveNotifier(final String clientID)
     {
         final Path clientMove;
         clientMove = Protocol.getMove(gameID, clientID);
-        return Monitor.When.fileChange(clientMove)
-                           .then(move -> play(clientID, move));
+        scope.own(Monitor.When.fileChange(clientMove, pollGroup)
+                              .then(loop.deliver(move -> play(clientID, move))));
     }
 
     /**
-     * Signals clients to play the next turn.
+     * Moves on to the next turn, or ends the game if it's over.
      * <p>
-     * Sends to this turn's client a YOUR_TURN signal and what their opponent played,
-     * and to the other client a WAIT signal.
+     * Clients find out whose turn it is from the broadcast;
+     * only a bot whose turn it is needs to be told.
      */
     private void signalNextTurn()
     {
-        final String clientID;
+        final String playerID;
         final String winnerID;
 
-        clientID = game.getNextPlayerID();
+        playerID = game.getNextPlayerID();
         winnerID = game.getWinnerID();
 
-        if(winnerID != null)
+        if(winnerID != null || playerID == null)
         {
             endGame(winnerID);
             return;
         }
 
-        signal(clientID, TicTacToe.Status.YOUR_TURN, previousMove);
+        turnStartNanos  = System.nanoTime();
+        turnStartMillis = System.currentTimeMillis();
+        if(clock != null)
+        {
+            clock.runUntil(turnStartMillis + timeLeft[seatOf(playerID)]);
+        }
+        if(botIDs.contains(playerID))
+        {
+            deciding = true;
+            bots.decide(game, loop.deliver(move -> decided(playerID, move)));
+        }
+    }
 
-        clientIDs.values()
-                 .stream()
-                 .filter(Predicate.not(clientID::equals))
-                 .forEach(otherID -> signal(otherID, TicTacToe.Status.WAIT));
+    /**
+     * Handles a bot's move, once the bot's worker is done reading the game.
+     * <p>
+     * Players who left while the bot was deciding are removed first,
+     * in the order they left, as the broadcast already has it.
+     * If that ends the game, or it's no longer the bot's turn (e.g. the bot
+     * itself ran out of time), the move is ignored. Removing a bot whose turn it was
+     * may start the next bot deciding, in which case the removals after it
+     * wait for that one.
+     *
+     * @param playerID the bot's ID
+     * @param move     the bot's move
+     */
+    private void decided(final String playerID,
+                         final Integer move)
+    {
+        final List<String> departed;
+
+        deciding = false;
+        if(stopped)
+        {
+            recycle();
+            return;
+        }
+        departed = List.copyOf(removals);
+        removals.clear();
+        for(final String removed : departed)
+        {
+            if(!ended)
+            {
+                remove(removed);
+            }
+        }
+        play(playerID, move);
     }
 
     /**
      * Handles a client's move.
      * <p>
      * Updates internal game state and signals the next turn.
+     * A blank move is the client's file caught between being truncated
+     * and being written; the write is seen as a change of its own.
+     * A move that isn't a number is ignored.
      */
     private void play(final String clientID,
                       final String move)
     {
-        if(!game.getNextPlayerID().equals(clientID))
+        final Integer position;
+
+        if(move == null || move.isBlank())
         {
             return;
         }
-        if(move == null)
+        try
+        {
+            position = Integer.valueOf(move.strip());
+        } catch(final RuntimeException e)
         {
             return;
         }
-        previousMove = Integer.parseInt(move);
-        game.update(previousMove);
-        signalNextTurn();
+        play(clientID, position);
     }
 
     /**
-     * Ends the game, announces the winner.
-     *
-     * @param winnerID ID of the winner. It's a tie, it will be null.
+     * Handles a player's move, whether a client's or a bot's.
+     * <p>
+     * Updates internal game state, broadcasts the move,
+     * and signals the next turn. A move that isn't available,
+     * such as an earlier one seen again, is ignored, as in {@link #playPendingMove}.
      */
-    private void endGame(final String winnerID)
+    private void play(final String playerID,
+                      final Integer move)
     {
-        if(winnerID == null)
+        if(ended || !playerID.equals(game.getNextPlayerID()))
         {
-            clientIDs.values()
-                     .forEach((id) -> signal(id,
-                                             TicTacToe.Status.TIE,
-                                             previousMove));
             return;
         }
-        signal(winnerID, TicTacToe.Status.WON);
-        clientIDs.values()
-                 .stream()
-                 .filter(Predicate.not(winnerID::equals))
-                 .forEach(loserID -> signal(loserID,
-                                            TicTacToe.Status.LOST,
-                                            previousMove));
+        if(move == null || !game.isAvailable(move))
+        {
+            return;
+        }
+        if(timeLeft != null && !charge(playerID))
+        {
+            timeUp();
+            return;
+        }
+        final long latencyMicros;
+        latencyMicros = (System.nanoTime() - turnStartNanos) / 1000;
+
+        game.update(move);
+        moves.add(move);
+        moveCount = moves.size();
+        if(timeLeft == null)
+        {
+            broadcast.move(move);
+        } else
+        {
+            broadcast.move(move, timeLeft[seatOf(playerID)]);
+        }
+        turnLatency.record(latencyMicros);
+        stats.moved(latencyMicros);
+        signalNextTurn();
     }
 
     /**
-     * Send a signal to a client.
+     * Charges the player to move for the time their turn took,
+     * and adds the increment for their move.
      *
-     * @param clientID     the client's ID
-     * @param status       the game's status (YOUR_TURN, WAIT, WON, LOST, TIE)
-     * @param previousMove the game's previous move
+     * @param playerID the player's ID
+     * @return whether they still had time, i.e. the move counts
      */
-    private void signal(final String clientID,
-                        final TicTacToe.Status status,
-                        final Integer previousMove)
+    private boolean charge(final String playerID)
     {
-        final Path serverFile;
-        serverFile = Protocol.getGameServer(gameID, clientID);
+        final int  seat;
+        final long left;
 
-        if(previousMove == null)
+        seat = seatOf(playerID);
+        left = timeLeft[seat] - (System.currentTimeMillis() - turnStartMillis);
+        if(left <= 0)
         {
-            Protocol.write(serverFile, status);
-        } else
-        {
-            Protocol.write(serverFile, status +
-                                       System.lineSeparator() +
-                                       previousMove);
+            return false;
         }
+        timeLeft[seat] = (int) Math.min(Integer.MAX_VALUE, left + clocks.getIncrementMillis());
+        return true;
     }
 
     /**
-     * Send a signal to a client.
+     * Ends the game, announces the winner.
+     * <p>
+     * The result lists the players in turn order, the order of their IDs
+     * (see {@link TicTacToe}), so that its moves can be replayed.
      *
-     * @param clientID the client's ID
-     * @param status   the game's status (YOUR_TURN, WAIT, WON, LOST, TIE)
+     * @param winnerID ID of the winner. It's a tie, it will be null.
      */
-    private void signal(final String clientID,
-                        final TicTacToe.Status status)
+    private void endGame(final String winnerID)
     {
-        signal(clientID, status, null);
+        final int          winner;
+        final List<String> turnOrder;
+
+        ended     = true;
+        winner    = winnerID == null
+                    ? GameResult.TIE
+                    : seatOf(winnerID);
+        turnOrder = Arrays.stream(seats).sorted().toList();
+
+        closeLater();
+
+        broadcast.end(winner == GameResult.TIE ? Broadcast.NO_WINNER : winner);
+        stats.gameFinished();
+        publish(new GameResult(gameID,
+                               turnOrder.stream().map(players::get).toList(),
+                               winnerID == null ? GameResult.TIE : turnOrder.indexOf(winnerID),
+                               List.copyOf(moves),
+                               startMillis,
+                               System.currentTimeMillis()));
+    }
+
+    private int seatOf(final String playerID)
+    {
+        return Arrays.asList(seats).indexOf(playerID);
     }
 
     /**
-     * Stops all services. Called when all clients are disconnected.
+     * Ends the game as a tie, without publishing a result,
+     * so that nobody's rating changes. Clients see the end on the broadcast,
+     * and the server stops once they have left, or right away if none joined.
+     * <p>
+     * The game is ended on the server's own event loop,
+     * so this may be called from any thread.
      */
-    private void disconnect()
+    @Override
+    public void terminate()
     {
-        newClientsNotifier.stop();
-        if(moveNotifier != null)
+        loop.post(() ->
+                  {
+                      if(stopped)
+                      {
+                          return;
+                      }
+                      if(!ended)
+                      {
+                          ended = true;
+                          closeLater();
+                          broadcast.end(Broadcast.NO_WINNER);
+                      }
+                      if(clientIDs.isEmpty())
+                      {
+                          stop();
+                      }
+                  });
+    }
+
+    @Override
+    public String getGameID()
+    {
+        return gameID;
+    }
+
+    @Override
+    public String[] getPlayers()
+    {
+        return Arrays.stream(seats).map(players::get).toArray(String[]::new);
+    }
+
+    @Override
+    public boolean isStarted()
+    {
+        return started;
+    }
+
+    @Override
+    public int getMoves()
+    {
+        return moveCount;
+    }
+
+    @Override
+    public int getConnectedClients()
+    {
+        return connectedClients;
+    }
+
+    @Override
+    public double getTurnLatencyP50Millis()
+    {
+        return turnLatency.snapshot().p50() / 1000.0;
+    }
+
+    @Override
+    public double getTurnLatencyP90Millis()
+    {
+        return turnLatency.snapshot().p90() / 1000.0;
+    }
+
+    @Override
+    public double getTurnLatencyP99Millis()
+    {
+        return turnLatency.snapshot().p99() / 1000.0;
+    }
+
+    /**
+     * Gets how many seats are taken by clients rather than bots.
+     *
+     * @return the number of human players
+     */
+    int getHumanCount()
+    {
+        return humanCount;
+    }
+
+    /**
+     * Checks whether the server has stopped, i.e. its game is over
+     * and all its clients are gone.
+     *
+     * @return whether the server has stopped
+     */
+    boolean isStopped()
+    {
+        return stopped;
+    }
+
+    /**
+     * Gets the main server's lease on the game.
+     *
+     * @return the lease file
+     */
+    Path getLease()
+    {
+        return lease;
+    }
+
+    /**
+     * Stops all services, but leaves the game as it is, for the main server
+     * that took it over from this one. The game is let go on the server's
+     * own event loop, so this may be called from any thread.
+     */
+    void relinquish()
+    {
+        loop.post(() ->
+                  {
+                      if(stopped)
+                      {
+                          return;
+                      }
+                      ended   = true;
+                      stopped = true;
+                      scope.stop();
+                      stats.gameStopped(this);
+                      recycle();
+                  });
+    }
+
+    /**
+     * Stops all services, and gives up the lease on the game.
+     * Called when all clients are disconnected.
+     */
+    @Override
+    public void stop()
+    {
+        ended   = true;
+        stopped = true;
+        scope.stop();
+        Protocol.removeRecursive(gameDirectory);
+        Protocol.removeRecursive(lease);
+        stats.gameStopped(this);
+        loop.post(this::recycle);
+    }
+
+    /**
+     * Gives the game back to the pool, once the server has stopped
+     * and nothing reads it anymore: the events already posted to the loop
+     * have run, since this runs after them, and no bot is still deciding a move,
+     * or it's given back when the bot is done (see {@link #decided}).
+     */
+    private void recycle()
+    {
+        if(deciding || recycled)
         {
-            moveNotifier.stop();
+            return;
         }
-        Protocol.removeRecursive(gameDirectory);
+        recycled = true;
+        GAMES.giveBack(game);
     }
 }
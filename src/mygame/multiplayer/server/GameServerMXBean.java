@@ -0,0 +1,75 @@
+package mygame.multiplayer.server;
+
+/**
+ * A game's live statistics, for JMX tools such as jconsole.
+ * <p>
+ * Registered as {@code mygame:type=GameServer,name=gameID} in the platform MBean server
+ * for as long as the game server runs.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public interface GameServerMXBean
+{
+    /**
+     * Gets the game's ID.
+     *
+     * @return the game's ID
+     */
+    String getGameID();
+
+    /**
+     * Gets the players' names, in seat order.
+     *
+     * @return the players' names
+     */
+    String[] getPlayers();
+
+    /**
+     * Checks whether all players have joined and the game has started.
+     *
+     * @return whether the game has started
+     */
+    boolean isStarted();
+
+    /**
+     * Gets how many moves have been played.
+     *
+     * @return the number of moves
+     */
+    int getMoves();
+
+    /**
+     * Gets how many clients are connected to the game. Bots don't count.
+     *
+     * @return the number of connected clients
+     */
+    int getConnectedClients();
+
+    /**
+     * Gets the median time players took to move.
+     *
+     * @return the time in milliseconds
+     */
+    double getTurnLatencyP50Millis();
+
+    /**
+     * Gets the 90th percentile of the time players took to move.
+     *
+     * @return the time in milliseconds
+     */
+    double getTurnLatencyP90Millis();
+
+    /**
+     * Gets the 99th percentile of the time players took to move.
+     *
+     * @return the time in milliseconds
+     */
+    double getTurnLatencyP99Millis();
+
+    /**
+     * Ends the game as a tie, without rating it.
+     * The server stops once its clients have left.
+     */
+    void terminate();
+}
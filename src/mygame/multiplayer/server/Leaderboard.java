@@ -0,0 +1,218 @@
+package mygame.multiplayer.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import mygame.multiplayer.Protocol;
+import mygame.multiplayer.Standings;
+
+/**
+ * The players ranked by rating, kept up to date as games finish.
+ * <p>
+ * Ratings are rounded down into one-point buckets, from 0 to {@value #MAX_RATING}.
+ * A Fenwick tree over the buckets counts the players at or above each rating,
+ * so a player's rank (one more than the number of players rated higher) takes
+ * {@code O(log n)} in the number of buckets, as does moving a player
+ * when their rating changes. The non-empty buckets are also kept in a sorted map,
+ * so the top {@code k} players take {@code O(log n + k)}.
+ * Players in the same bucket share a rank.
+ * <p>
+ * The whole board is written to {@link Protocol#getLeaderboard()} at most every
+ * {@value #SAVE_PERIOD_MILLIS} ms, when it changed (see {@link #save}),
+ * as {@link Standings}: binary, in the order of the players' names,
+ * so clients can look up a player's rank with a binary search,
+ * without any work on the server's part. The players are kept in that order,
+ * and the ranks of all buckets are counted in one pass, so writing the board
+ * takes no sorting, just one pass over the players.
+ * <p>
+ * Thread-safe: updated from the main server's event loop, and queried over JMX.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class Leaderboard
+{
+    private static final int MAX_RATING         = 4000;
+    private static final int BUCKETS            = MAX_RATING + 1;
+    private static final int SAVE_PERIOD_MILLIS = 5000;
+
+    private final int[]                              tree;
+    private final NavigableMap<String, Integer>      buckets;
+    private final NavigableMap<Integer, Set<String>> members;
+
+    private boolean changed;
+    private long    savedMillis;
+
+    /**
+     * A player's place on the board.
+     *
+     * @param rank   the player's rank, from 1
+     * @param player the player's name
+     * @param rating the player's rating, rounded down
+     */
+    record Entry(int rank, String player, int rating) {}
+
+    /**
+     * Creates an empty leaderboard.
+     */
+    Leaderboard()
+    {
+        tree    = new int[BUCKETS + 1];
+        buckets = new TreeMap<>();
+        members = new TreeMap<>();
+    }
+
+    /**
+     * Puts a player on the board, or moves them, at a rating.
+     *
+     * @param player the player's name
+     * @param rating the player's rating
+     */
+    synchronized void set(final String player,
+                          final double rating)
+    {
+        final int     bucket;
+        final Integer previous;
+
+        bucket   = (int) Math.clamp(Math.floor(rating), 0, MAX_RATING);
+        previous = buckets.put(player, bucket);
+        if(previous != null)
+        {
+            if(previous == bucket)
+            {
+                return;
+            }
+            add(previous, -1);
+            members.get(previous).remove(player);
+            if(members.get(previous).isEmpty())
+            {
+                members.remove(previous);
+            }
+        }
+        add(bucket, 1);
+        members.computeIfAbsent(bucket, ignored -> new LinkedHashSet<>()).add(player);
+        changed = true;
+    }
+
+    /**
+     * Gets a player's rank.
+     *
+     * @param player the player's name
+     * @return the rank, from 1, or 0 if the player isn't on the board
+     */
+    synchronized int rank(final String player)
+    {
+        final Integer bucket;
+        bucket = buckets.get(player);
+        return bucket == null ? 0 : rankOf(bucket);
+    }
+
+    /**
+     * Gets the best players.
+     *
+     * @param count how many players to get, at most
+     * @return the players, best first
+     */
+    synchronized List<Entry> top(final int count)
+    {
+        final List<Entry> top;
+        int               above;
+
+        top   = new ArrayList<>();
+        above = 0;
+        for(final Map.Entry<Integer, Set<String>> bucket : members.descendingMap().entrySet())
+        {
+            for(final String player : bucket.getValue())
+            {
+                if(top.size() == count)
+                {
+                    return top;
+                }
+                top.add(new Entry(above + 1, player, bucket.getKey()));
+            }
+            above += bucket.getValue().size();
+        }
+        return top;
+    }
+
+    /**
+     * Gets how many players are on the board.
+     *
+     * @return the number of players
+     */
+    synchronized int size()
+    {
+        return buckets.size();
+    }
+
+    /**
+     * Writes the whole board to its file, if it changed since it was last written,
+     * and it was last written long enough ago.
+     */
+    synchronized void save()
+    {
+        final long now;
+        now = System.currentTimeMillis();
+        if(!changed || now - savedMillis < SAVE_PERIOD_MILLIS)
+        {
+            return;
+        }
+
+        final int[]                 ranks;
+        final List<Standings.Entry> entries;
+        int                         above;
+
+        ranks = new int[BUCKETS];
+        above = 0;
+        for(final Map.Entry<Integer, Set<String>> bucket : members.descendingMap().entrySet())
+        {
+            ranks[bucket.getKey()] = above + 1;
+            above                 += bucket.getValue().size();
+        }
+
+        entries = new ArrayList<>(buckets.size());
+        for(final Map.Entry<String, Integer> player : buckets.entrySet())
+        {
+            entries.add(new Standings.Entry(player.getKey(), ranks[player.getValue()], player.getValue()));
+        }
+        Standings.write(entries);
+        changed     = false;
+        savedMillis = now;
+    }
+
+    /**
+     * Counts the players rated higher than a bucket, plus one.
+     */
+    private int rankOf(final int bucket)
+    {
+        return size() - count(bucket) + 1;
+    }
+
+    /**
+     * Counts the players in the buckets up to and including one.
+     */
+    private int count(final int bucket)
+    {
+        int count;
+        count = 0;
+        for(int i = bucket + 1; i > 0; i -= i & -i)
+        {
+            count += tree[i];
+        }
+        return count;
+    }
+
+    private void add(final int bucket,
+                     final int delta)
+    {
+        for(int i = bucket + 1; i <= BUCKETS; i += i & -i)
+        {
+            tree[i] += delta;
+        }
+    }
+}
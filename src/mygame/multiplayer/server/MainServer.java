@@ -2,18 +2,75 @@ package mygame.multiplayer.server;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import mygame.multiplayer.Protocol;
+import mygame.multiplayer.Scope;
 import mygame.game.TicTacToe;
+import mygame.multiplayer.services.EventLoop;
 import mygame.multiplayer.services.Monitor;
 import mygame.multiplayer.services.Connection;
+import mygame.multiplayer.services.PollGroup;
 
 /**
  * The game system's main server. Handles client requests to join a game and
  * creates a {@link GameServer} for each game.
+ * <p>
+ * The requests directory and all request connections are
+ * polled by one {@link PollGroup}, so the cost of a tick
+ * does not grow with the number of monitors.
+ * <p>
+ * Each pending request has its own {@link Scope},
+ * closed when the request's connection is lost.
+ * <p>
+ * Each request says how many players the client wants in their game.
+ * Requests are seated by rating (see {@link Matchmaker}) once per tick,
+ * by one matchmaker per table size, and ratings are updated
+ * from each game's {@link GameResult}, which is also kept
+ * in the {@link ResultsStore}, across restarts: the ratings are rebuilt
+ * from it when the server starts. The players are ranked by rating
+ * on the {@link Leaderboard}, which clients read to show a player's rank.
+ * Once there are enough of them, the results are moved into the {@link GameArchive},
+ * compressed, to keep for good; the store reads the older ones from there.
+ * <p>
+ * Unless turned off, players are on the clock, and the clocks
+ * of all games are kept by the server's {@link MoveClocks}.
+ * <p>
+ * Requests to play against the CPU have a directory of their own,
+ * and are answered right away with a game against bots from
+ * the server's {@link BotPool}, never entering a matchmaker.
+ * <p>
+ * A request's directory can show up before its client has finished writing it;
+ * such requests are set aside and read again on the next tick.
+ * <p>
+ * The server only takes on as much as its {@link Admission} allows.
+ * Past that, requests are answered {@value Protocol#BUSY} with a delay
+ * after which to try again, and are otherwise ignored; tables are only
+ * filled as games end and free their slots, rematches first.
+ * <p>
+ * Several main servers, each in its own process, can share the data directory
+ * (see {@link Cluster}). The first one to start resets it; the others join.
+ * Every server sees every request, but a request is only answered by the server
+ * that claims it: a table is only seated once all its requests are claimed,
+ * and claimed requests are dropped by the other servers. Each server hosts
+ * the games it created, and resumes those of any server that dies,
+ * or that hands its games off to be replaced (see {@link #relieveOthers}).
+ * Every server rates every game, from the shared {@link ResultsStore},
+ * so they all have the same ratings and leaderboard.
+ * Rematches are kept by each server for its own games.
+ * <p>
+ * The server's live statistics are kept in its {@link ServerStats},
+ * which can be watched, and games terminated, over JMX
+ * (see {@link MainServerMXBean} and {@link GameServerMXBean}).
+ * <p>
+ * All of this, including the polling, runs on the server's {@link EventLoop}.
  *
  * @author Felix Nguyen
  * @version 1
@@ -23,35 +80,118 @@ public final class MainServer
     private static final Path SERVER           = Protocol.getServer();
     private static final Path INTERRUPT_SIGNAL = Protocol.getInterruptSignal(SERVER);
     private static final Path REQUESTS         = Protocol.getRequests();
+    private static final Path CPU_REQUESTS     = Protocol.getRequests(true);
 
-    private final Queue<Path> requestQueue;
+    private static final int TURNED_AWAY_GRACE_MILLIS = 10_000;
+
+    private final EventLoop                loop;
+    private final Map<Integer, Matchmaker> matchmakers;
+    private final Ratings                  ratings;
+    private final Leaderboard              leaderboard;
+    private final Map<String, String>      requestPlayers;
+    private final Set<Path>                unread;
+    private final Admission                admission;
+    private final Set<GameServer>          games;
+    private final Map<Path, Long>          turnedAway;
+    private final ResultsStore             results;
+    private final GameArchive              archive;
+    private final ServerStats              stats;
+    private final Cluster                  cluster;
+    private final BotPool                  bots;
+    private final MoveClocks               clocks;
+    private final PollGroup                requestsGroup;
+    private final PollGroup                cpuRequestsGroup;
+    private final Scope                    scope;
+    private final Scope                    intake;
+
+    private boolean handingOff;
+    private int     rated;
 
     /**
-     * Starts the server.
+     * A client's request, as written in its descriptor.
+     *
+     * @param player  the player's name
+     * @param players how many players the client wants in the game
+     */
+    private record Request(String player, int players) {}
+
+    /**
+     * Starts the server, or another one if one is already running,
+     * sharing its data directory.
      */
     public MainServer()
     {
-        if(isRunning())
+        final Connection connection;
+
+        // under the cluster's lock, so that servers starting together don't both reset,
+        // until this one's connection is up for the next one to see
+        connection = Cluster.exclusively(() ->
+                                         {
+                                             if(isRunning())
+                                             {
+                                                 System.out.println("Server joined.");
+                                             } else
+                                             {
+                                                 System.out.println("Server started.");
+                                                 Protocol.reset();
+                                             }
+                                             return new Connection(SERVER);
+                                         });
+
+        scope            = new Scope("main server");
+        intake           = scope.child("intake");
+        loop             = scope.own(new EventLoop());
+        matchmakers      = new HashMap<>();
+        ratings          = new Ratings();
+        leaderboard      = new Leaderboard();
+        requestPlayers   = new HashMap<>();
+        unread           = new HashSet<>();
+        admission        = new Admission();
+        games            = new HashSet<>();
+        turnedAway       = new HashMap<>();
+        archive          = scope.own(new GameArchive(Protocol.getResults()));
+        results          = scope.own(new ResultsStore(Protocol.getResults(), archive));
+        stats            = new ServerStats(results, leaderboard);
+        results.forEach(this::rate);
+        archive.catchUp(results);
+        cluster          = new Cluster();
+        bots             = scope.own(new BotPool());
+        clocks           = scope.own(new MoveClocks(loop));
+        requestsGroup    = new PollGroup(REQUESTS, loop);
+        cpuRequestsGroup = new PollGroup(CPU_REQUESTS, loop);
+
+        for(int players = TicTacToe.MIN_PLAYERS; players <= TicTacToe.MAX_PLAYERS; players++)
         {
-            throw new IllegalStateException("Server is already running");
+            matchmakers.put(players, new Matchmaker(players));
         }
 
-        System.out.println("Server started.");
-        Protocol.reset();
+        scope.own(connection.allowInterrupt()
+                            .then(this::handleInterrupt));
+        scope.own(cluster.keepLease());
 
-        requestQueue = new ArrayDeque<>();
+        scope.own(Monitor.When.fileChange(cluster.getHandoffSignal())
+                              .then(loop.deliver(signal -> handOff())));
 
-        new Connection(SERVER).allowInterrupt()
-                              .then(this::handleInterrupt);
+        intake.own(Monitor.When.directoryChange(REQUESTS, requestsGroup)
+                               .then(this::handleRequest));
+        intake.own(loop.repeat(this::matchRequests));
+        intake.own(Monitor.When.directoryChange(CPU_REQUESTS, cpuRequestsGroup)
+                               .then(this::handleCPURequest));
+        intake.own(loop.repeat(this::watchPeers));
+        scope.own(loop.repeat(this::updateLeaderboard));
 
-        Monitor.When.directoryChange(REQUESTS)
-                    .then(this::handleRequest);
+        // the requests made before this server joined aren't published by the monitors
+        loop.post(() ->
+                  {
+                      Protocol.listDir(REQUESTS).forEach(this::handleRequest);
+                      Protocol.listDir(CPU_REQUESTS).forEach(this::handleCPURequest);
+                  });
     }
 
     /**
-     * Check whether the server is running.
+     * Check whether a server is running.
      *
-     * @return whether the server is running.
+     * @return whether a server is running.
      */
     public static boolean isRunning()
     {
@@ -59,79 +199,590 @@ public final class MainServer
     }
 
     /**
-     * Interrupts the server.
+     * Interrupts the servers.
      * <p>
-     * Sends a signal that tells the currently running server to stop itself.
+     * Sends a signal that tells the currently running servers to stop themselves.
      * <p>
-     * Has no effect if the server is not running.
+     * Has no effect if no server is running.
      */
     public static void interrupt()
     {
         Protocol.create(INTERRUPT_SIGNAL);
     }
 
-    /* Handles interrupt signal being raised. */
+    /**
+     * Replays every archived game (see {@link GameArchive}), and prints how fast.
+     * <p>
+     * Works whether or not a server is running.
+     */
+    public static void replayArchive()
+    {
+        final GameArchive archive;
+        final long        startNanos;
+        final long        moves;
+        final long        elapsedNanos;
+
+        archive      = new GameArchive(Protocol.getResults());
+        startNanos   = System.nanoTime();
+        moves        = archive.replay(0, (result, game) -> {});
+        elapsedNanos = System.nanoTime() - startNanos;
+        System.out.printf("Replayed %d games, %d moves, in %d ms (%.0f moves/s).%n",
+                          archive.size(),
+                          moves,
+                          elapsedNanos / 1_000_000,
+                          moves * 1e9 / Math.max(elapsedNanos, 1));
+        archive.stop();
+    }
+
+    /**
+     * Asks the servers that were running before this one to hand their games over
+     * and stop, e.g. to replace them with a new build without stopping any game.
+     * This server, or any other still running, takes the games over.
+     */
+    public void relieveOthers()
+    {
+        final int count;
+        count = cluster.relieveOthers();
+        System.out.println("Asked " + count + " server(s) to hand off.");
+    }
+
+    /**
+     * Hands this server's games over to the others, then stops.
+     * <p>
+     * Stops taking requests and taking over games first, then lets go of
+     * every game, leaving its lease and broadcast for another server to resume it from.
+     * Once all the games have stopped, signals the other servers to take over
+     * without waiting for this one's lease to expire, and exits.
+     */
+    private void handOff()
+    {
+        if(handingOff)
+        {
+            return;
+        }
+        handingOff = true;
+        System.out.println("Handing off " + games.size() + " game(s).");
+        intake.stop();
+        games.forEach(GameServer::relinquish);
+        scope.own(loop.repeat(this::finishHandoff));
+    }
+
+    /**
+     * Exits once every game has been let go of.
+     */
+    private void finishHandoff()
+    {
+        if(liveGames() > 0)
+        {
+            return;
+        }
+        cluster.handedOff();
+        System.out.println("Handed off.");
+        System.exit(0);
+    }
+
+    /*
+     * Handles interrupt signal being raised.
+     * Prints what is still running, to help find services that never stop.
+     */
     private void handleInterrupt()
     {
         System.out.println("Interrupt signal received.");
+        System.out.print(Scope.report());
         System.exit(130);
     }
 
     /**
      * Handles when a new client joins the requests queue.
+     * <p>
+     * The request is put in the matchmaker for the number of players it asks for,
+     * with the rating of the player it names, ahead of the others if it's a rematch.
+     * If the queue is full, the request is turned away instead,
+     * unless another server claims it first.
      */
     private void handleRequest(final Path request)
+    {
+        if(!Files.isDirectory(request) ||
+           requestPlayers.containsKey(request.getFileName().toString()))
+        {
+            return;
+        }
+
+        final String     clientID;
+        final Request    descriptor;
+        final boolean    rematch;
+        final Path       requestClient;
+        final Matchmaker matchmaker;
+        final Scope      requestScope;
+
+        clientID   = request.getFileName().toString();
+        descriptor = readRequest(clientID, false);
+        if(descriptor == null)
+        {
+            if(!Cluster.isClaimed(request, false))
+            {
+                unread.add(request);
+            }
+            return;
+        }
+
+        rematch = admission.isRematch(descriptor.player());
+        if(!admission.admitsRequest(rematch, requestPlayers.size()))
+        {
+            if(cluster.claim(request, false))
+            {
+                turnAway(request, false);
+                cluster.answered(request);
+            }
+            return;
+        }
+
+        requestClient = Protocol.getRequestClient(clientID);
+        matchmaker    = matchmakers.get(descriptor.players());
+        requestScope  = scope.child("request " + clientID);
+
+        requestPlayers.put(clientID, descriptor.player());
+        matchmaker.add(request, ratings.get(descriptor.player()), rematch);
+        requestScope.own(Monitor.When.connectionLost(requestClient, requestsGroup)
+                                     .then(() -> matchmaker.remove(request))
+                                     .then(() -> forgetRequest(clientID))
+                                     .then(() -> Protocol.removeRecursive(request))
+                                     .then(requestScope::stop));
+    }
+
+    /**
+     * Handles a request to play against the CPU,
+     * by starting a game against bots right away,
+     * one bot for each seat besides the client's.
+     * If there is no free game slot, the request is turned away instead.
+     * Either way, the request is claimed first, and left to another server
+     * if that one claims it first.
+     * <p>
+     * The request is kept until its client leaves it, same as a normal request,
+     * so that the client can read the invitation.
+     */
+    private void handleCPURequest(final Path request)
     {
         if(!Files.isDirectory(request))
         {
             return;
         }
 
+        final String              clientID;
+        final Request             descriptor;
+        final String              gameID;
+        final Map<String, String> players;
+        final Set<String>         botIDs;
+        final Path                lease;
+        final Scope               requestScope;
+
+        clientID   = request.getFileName().toString();
+        descriptor = readRequest(clientID, true);
+        if(descriptor == null)
+        {
+            if(!Cluster.isClaimed(request, true))
+            {
+                unread.add(request);
+            }
+            return;
+        }
+
+        if(!cluster.claim(request, true))
+        {
+            return;
+        }
+
+        if(!admission.admitsGame(liveGames()))
+        {
+            turnAway(request, true);
+            cluster.answered(request);
+            return;
+        }
+
+        gameID       = UUID.randomUUID().toString();
+        players      = new LinkedHashMap<>();
+        botIDs       = new HashSet<>();
+        requestScope = scope.child("CPU request " + clientID);
+        players.put(clientID, descriptor.player());
+        for(int i = 1; i < descriptor.players(); i++)
+        {
+            final String botID;
+            botID = UUID.randomUUID().toString();
+            botIDs.add(botID);
+            players.put(botID, BotPool.PLAYER_NAME);
+        }
+
+        // hosted until it stops itself, once the client disconnects,
+        // or another server takes it over (see liveGames)
+        lease = cluster.lease(new Cluster.GameLease(gameID, players, botIDs));
+        host(new GameServer(gameID, players, bots, botIDs, clocks, stats, lease));
+
+        Protocol.write(Protocol.getRequestServer(clientID, true), gameID);
+        cluster.answered(request);
+        requestScope.own(Monitor.When.connectionLost(Protocol.getRequestClient(clientID, true),
+                                                     cpuRequestsGroup)
+                                     .then(() -> Protocol.removeRecursive(request))
+                                     .then(requestScope::stop));
+    }
+
+    /**
+     * Reads a request's descriptor: the player's name on the first line,
+     * and the number of players on the second.
+     * <p>
+     * A blank name is replaced by the client's ID, and the number of players
+     * is kept within what the game supports.
+     *
+     * @param clientID  the client's ID
+     * @param versusCPU whether the request is to play against the CPU
+     * @return the request, or {@code null} if the descriptor isn't fully written yet
+     */
+    private static Request readRequest(final String clientID,
+                                       final boolean versusCPU)
+    {
+        final String   content;
+        final String[] lines;
+        final String   player;
+        final int      players;
+
+        content = Protocol.read(Protocol.getRequestPlayer(clientID, versusCPU));
+        if(content == null || !content.endsWith("\n"))
+        {
+            return null;
+        }
+
+        lines = content.split("\n");
+        if(lines.length < 2)
+        {
+            return null;
+        }
+
+        player = lines[0].isBlank() ? clientID : lines[0].strip();
+        try
+        {
+            players = Integer.parseInt(lines[1].strip());
+        } catch(final NumberFormatException e)
+        {
+            return new Request(player, TicTacToe.MIN_PLAYERS);
+        }
+        return new Request(player,
+                           Math.clamp(players, TicTacToe.MIN_PLAYERS, TicTacToe.MAX_PLAYERS));
+    }
+
+    /**
+     * Removes the requests turned away long enough ago,
+     * reads again the requests that weren't fully written,
+     * then starts a game for every table the matchmakers can fill this tick
+     * and this server can claim, as far as there are free game slots,
+     * and records how many requests are left.
+     */
+    private void matchRequests()
+    {
+        final long       now;
+        final List<Path> retries;
+        int              freeGames;
+
+        now = System.currentTimeMillis();
+        turnedAway.entrySet().removeIf(entry ->
+                                       {
+                                           if(entry.getValue() > now)
+                                           {
+                                               return false;
+                                           }
+                                           Protocol.removeRecursive(entry.getKey());
+                                           return true;
+                                       });
+
+        retries = List.copyOf(unread);
+        unread.clear();
+        retries.forEach(this::handle);
+        dropAnsweredRequests();
+
+        freeGames = admission.freeGames(liveGames());
+        for(final Matchmaker matchmaker : matchmakers.values())
+        {
+            final List<Path[]> tables;
+            tables = matchmaker.match(freeGames, table -> claimTable(matchmaker, table));
+            tables.forEach(this::createGame);
+            freeGames -= tables.size();
+        }
+        stats.queued(requestPlayers.size());
+    }
+
+    /**
+     * Drops the requests another server claimed and answered, e.g. by seating them.
+     * This server won't get to seat them, so they shouldn't take up its queue,
+     * and their clients didn't abandon them, so they don't count as abandoned
+     * when they leave (see {@link #forgetRequest}).
+     * <p>
+     * A request is only dropped once it's answered: one claimed for a table
+     * the other server then couldn't fill is released right away
+     * (see {@link #claimTable}), and stays in the queue.
+     */
+    private void dropAnsweredRequests()
+    {
+        requestPlayers.keySet().removeIf(clientID ->
+                                         {
+                                             final Path request;
+                                             request = Protocol.getRequest(clientID);
+                                             if(!Cluster.isClaimed(request, false) ||
+                                                !Files.exists(Protocol.getRequestServer(clientID)))
+                                             {
+                                                 return false;
+                                             }
+                                             matchmakers.values()
+                                                        .forEach(matchmaker -> matchmaker.remove(request));
+                                             return true;
+                                         });
+    }
+
+    /**
+     * Handles a request, whichever kind it is.
+     *
+     * @param request the request's directory
+     */
+    private void handle(final Path request)
+    {
+        if(request.getParent().equals(CPU_REQUESTS))
+        {
+            handleCPURequest(request);
+        } else
+        {
+            handleRequest(request);
+        }
+    }
+
+    /**
+     * Claims all the requests at a table, or none of them.
+     * A request that another server claimed first is dropped from the matchmaker,
+     * since that server is answering it.
+     *
+     * @param matchmaker the matchmaker that filled the table
+     * @param table      the requests at the table
+     * @return whether all the requests were claimed
+     */
+    private boolean claimTable(final Matchmaker matchmaker,
+                               final Path[] table)
+    {
+        final List<Path> claimed;
+        claimed = new ArrayList<>();
+        for(final Path request : table)
+        {
+            if(!cluster.claim(request, false))
+            {
+                claimed.forEach(mine -> cluster.release(mine, false));
+                matchmaker.remove(request);
+                requestPlayers.remove(request.getFileName().toString());
+                return false;
+            }
+            claimed.add(request);
+        }
+        return true;
+    }
+
+    /**
+     * Takes over from the servers that died: handles their claimed requests again,
+     * and resumes their games. A game that can't be resumed is removed,
+     * so that its clients find out it's gone.
+     */
+    private void watchPeers()
+    {
+        for(final String peerID : cluster.expiredPeers())
+        {
+            final Cluster.Takeover takeover;
+            takeover = cluster.takeOver(peerID);
+            if(!takeover.requests().isEmpty() || !takeover.games().isEmpty())
+            {
+                System.out.println("Took over " + takeover.requests().size() + " request(s) and " +
+                                   takeover.games().size() + " game(s) from server " + peerID);
+            }
+
+            takeover.requests().forEach(this::handle);
+            for(final Cluster.GameLease game : takeover.games())
+            {
+                final Path       lease;
+                final GameServer server;
+
+                lease  = cluster.getLease(game.gameID());
+                server = GameServer.resume(game, bots, clocks, stats, lease);
+                if(server == null)
+                {
+                    Protocol.removeRecursive(Protocol.getGame(game.gameID()));
+                    Protocol.removeRecursive(lease);
+                } else
+                {
+                    host(server);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers a request with {@value Protocol#BUSY} and how long to wait
+     * before trying again. The server keeps nothing about the request
+     * but when to remove it, once its client has moved on.
+     *
+     * @param request   the request's directory
+     * @param versusCPU whether the request is to play against the CPU
+     */
+    private void turnAway(final Path request,
+                          final boolean versusCPU)
+    {
         final String clientID;
-        final Path   requestClient;
-        clientID      = request.getFileName().toString();
-        requestClient = Protocol.getRequestClient(clientID);
+        final int    retryAfterMillis;
 
-        requestQueue.add(request);
-        Monitor.When.connectionLost(requestClient)
-                    .then(() -> requestQueue.remove(request))
-                    .then(() -> Protocol.removeRecursive(request));
+        clientID         = request.getFileName().toString();
+        retryAfterMillis = admission.retryAfterMillis();
 
-        if(requestQueue.size() >= TicTacToe.PLAYERS_PER_GAME)
+        Protocol.write(Protocol.getRequestServer(clientID, versusCPU),
+                       Protocol.BUSY + System.lineSeparator() + retryAfterMillis);
+        turnedAway.put(request,
+                       System.currentTimeMillis() + retryAfterMillis + TURNED_AWAY_GRACE_MILLIS);
+    }
+
+    /**
+     * Forgets a request whose client has left.
+     * If it was still waiting for a game, it counts as abandoned.
+     *
+     * @param clientID the client's ID
+     */
+    private void forgetRequest(final String clientID)
+    {
+        if(requestPlayers.remove(clientID) != null)
+        {
+            stats.requestAbandoned();
+        }
+    }
+
+    /**
+     * Keeps track of a new game and of its result.
+     *
+     * @param game the game's server
+     */
+    private void host(final GameServer game)
+    {
+        games.add(game);
+        game.then(loop.deliver(this::handleResult));
+    }
+
+    /**
+     * Counts the games being played, forgetting those that are over,
+     * and letting go of those another server took over.
+     *
+     * @return the number of games being played
+     */
+    private int liveGames()
+    {
+        games.removeIf(game ->
+                       {
+                           if(game.isStopped())
+                           {
+                               return true;
+                           }
+                           if(Cluster.holds(game.getLease()))
+                           {
+                               return false;
+                           }
+                           game.relinquish();
+                           return true;
+                       });
+        return games.size();
+    }
+
+    /**
+     * Updates the players' ratings after a game, stores its result,
+     * and remembers the players in case they ask for a rematch.
+     *
+     * @param result the game's result
+     */
+    private void handleResult(final GameResult result)
+    {
+        results.append(result);
+        rateNewResults();
+        archive.catchUp(results);
+        result.players().forEach(admission::played);
+    }
+
+    /**
+     * Rates the results stored since the last ones rated, whichever server
+     * stored them, then writes the leaderboard if it's due.
+     */
+    private void updateLeaderboard()
+    {
+        rateNewResults();
+        leaderboard.save();
+    }
+
+    /**
+     * Rates the results stored since the last ones rated, in the order they were stored.
+     * <p>
+     * The store is shared, so every server rates every game, in the same order,
+     * and they all come to the same ratings and the same leaderboard.
+     */
+    private void rateNewResults()
+    {
+        final int stored;
+        stored = results.size();
+        if(stored > rated)
+        {
+            results.range(rated, stored).forEach(this::rate);
+        }
+    }
+
+    /**
+     * Updates the ratings of a game's players, and their places on the leaderboard.
+     *
+     * @param result the game's result
+     */
+    private void rate(final GameResult result)
+    {
+        ratings.update(result);
+        for(final String player : result.players())
         {
-            createGame(requestQueue.poll(),
-                       requestQueue.poll());
+            leaderboard.set(player, ratings.get(player));
         }
+        rated++;
     }
 
     /**
      * Starts a game for the specified clients.
+     * <p>
+     * Each client is invited with the game's ID; who else is playing,
+     * they find out from the game's broadcast.
      *
-     * @param clients the clients that will play the game
+     * @param clients the clients that will play the game, in seat order,
+     *                whose requests this server claimed
      * @throws IllegalArgumentException if the number of clients is invalid
      */
     private void createGame(final Path... clients)
     {
-        if(clients.length != TicTacToe.PLAYERS_PER_GAME)
+        if(clients.length < TicTacToe.MIN_PLAYERS || clients.length > TicTacToe.MAX_PLAYERS)
         {
             throw new IllegalArgumentException("Invalid number of clients for a game");
         }
 
-        final String gameID;
-        final String client1ID;
-        final String client2ID;
-
-        gameID = UUID.randomUUID().toString();
-        new GameServer(gameID); // no need to keep a reference to the game server,
-        // it will stop itself when the clients disconnect
+        final String              gameID;
+        final Map<String, String> players;
+        final Path                lease;
 
+        gameID  = UUID.randomUUID().toString();
+        players = new LinkedHashMap<>();
+        for(final Path client : clients)
+        {
+            final String clientID;
+            clientID = client.getFileName().toString();
+            players.put(clientID, requestPlayers.remove(clientID));
+        }
 
-        client1ID = clients[0].getFileName().toString();
-        client2ID = clients[1].getFileName().toString();
+        // hosted until it stops itself, once the clients disconnect,
+        // or another server takes it over (see liveGames)
+        lease = cluster.lease(new Cluster.GameLease(gameID, players, Set.of()));
+        host(new GameServer(gameID, players, clocks, stats, lease));
 
-        Protocol.write(Protocol.getRequestServer(client1ID),
-                       gameID + System.lineSeparator() + client2ID);
-        Protocol.write(Protocol.getRequestServer(client2ID),
-                       gameID + System.lineSeparator() + client1ID);
+        players.keySet()
+               .forEach(clientID -> Protocol.write(Protocol.getRequestServer(clientID), gameID));
+        for(final Path client : clients)
+        {
+            cluster.answered(client);
+        }
     }
 }
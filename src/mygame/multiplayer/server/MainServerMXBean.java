@@ -0,0 +1,172 @@
+package mygame.multiplayer.server;
+
+/**
+ * The main server's live statistics, for JMX tools such as jconsole.
+ * <p>
+ * Registered as {@code mygame:type=MainServer} in the platform MBean server.
+ * Each game also has its own {@link GameServerMXBean}.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public interface MainServerMXBean
+{
+    /**
+     * Gets how many requests are waiting for a game, as of the last tick.
+     *
+     * @return the number of waiting requests
+     */
+    int getQueueDepth();
+
+    /**
+     * Gets how many games are running, started or waiting for their players.
+     *
+     * @return the number of games
+     */
+    int getActiveGames();
+
+    /**
+     * Gets how many games have started since the server started.
+     *
+     * @return the number of games started
+     */
+    long getGamesStarted();
+
+    /**
+     * Gets how many games have finished, with a result, since the server started.
+     *
+     * @return the number of games finished
+     */
+    long getGamesFinished();
+
+    /**
+     * Gets how many games started per second, recently.
+     *
+     * @return the rate
+     */
+    double getGamesStartedPerSecond();
+
+    /**
+     * Gets how many games finished per second, recently.
+     *
+     * @return the rate
+     */
+    double getGamesFinishedPerSecond();
+
+    /**
+     * Gets how many moves were played per second, recently, in all games.
+     *
+     * @return the rate
+     */
+    double getMovesPerSecond();
+
+    /**
+     * Gets the median time players took to move, in all games.
+     *
+     * @return the time in milliseconds
+     */
+    double getTurnLatencyP50Millis();
+
+    /**
+     * Gets the 90th percentile of the time players took to move, in all games.
+     *
+     * @return the time in milliseconds
+     */
+    double getTurnLatencyP90Millis();
+
+    /**
+     * Gets the 99th percentile of the time players took to move, in all games.
+     *
+     * @return the time in milliseconds
+     */
+    double getTurnLatencyP99Millis();
+
+    /**
+     * Gets how many clients are connected, waiting in the queue or in a game.
+     *
+     * @return the number of connections
+     */
+    int getLiveConnections();
+
+    /**
+     * Gets how many clients left a game before it ended.
+     *
+     * @return the number of disconnects
+     */
+    long getDisconnects();
+
+    /**
+     * Gets how many players ran out of time (see {@link MoveClocks}).
+     *
+     * @return the number of timeouts
+     */
+    long getTimeouts();
+
+    /**
+     * Gets how many clients left the queue before getting a game.
+     *
+     * @return the number of abandoned requests
+     */
+    long getAbandonedRequests();
+
+    /**
+     * Lists the games, one line each: the game's ID, whether it has started,
+     * its number of moves, and its connected clients out of its human players.
+     *
+     * @return one line per game
+     */
+    String[] listGames();
+
+    /**
+     * Ends a game as a tie, without rating it.
+     *
+     * @param gameID the game's ID
+     * @return whether there was such a game
+     */
+    boolean terminateGame(String gameID);
+
+    /**
+     * Gets a player's last finished games, from the results store, one line each:
+     * the game's ID, the players in seat order, the winner, the number of moves
+     * and the game's duration.
+     *
+     * @param player the player's name
+     * @param count  the most games to get
+     * @return one line per game, newest first
+     */
+    String[] lastGames(String player, int count);
+
+    /**
+     * Gets the share of their finished games a player won, from the results store.
+     *
+     * @param player the player's name
+     * @return the win rate, in range [0, 1], 0 if they never played
+     */
+    double winRate(String player);
+
+    /**
+     * Gets how two players did in the games they played together, from the results store.
+     *
+     * @param player   the first player's name
+     * @param opponent the second player's name
+     * @return the games played together, and how many each won and neither won
+     */
+    String headToHead(String player, String opponent);
+
+    /**
+     * Gets a player's rank on the leaderboard.
+     *
+     * @param player the player's name
+     * @return the rank, from 1, or 0 if the player has never played
+     */
+    int rank(String player);
+
+    /**
+     * Gets the best players on the leaderboard, one line each:
+     * their rank, their rating, and their name.
+     *
+     * @param count the most players to get
+     * @return one line per player, best first
+     */
+    String[] topPlayers(int count);
+}
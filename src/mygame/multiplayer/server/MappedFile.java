@@ -0,0 +1,226 @@
+package mygame.multiplayer.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A file mapped into memory, however large it grows.
+ * <p>
+ * A single {@link MappedByteBuffer} is indexed by {@code int}, so it can't map
+ * more than 2 GiB. The file is instead mapped in segments of
+ * {@value #SEGMENT_SIZE} bytes, addressed by {@code long} offsets. Each segment's
+ * mapping runs {@value #OVERLAP} bytes into the next one, or to the end of what's
+ * mapped, so that anything at most that long starting in a segment can be read
+ * or written through it as one buffer, even if it crosses into the next segment.
+ * The mappings share the file's pages, so what's written through one
+ * is seen through the other.
+ * <p>
+ * The file grows as it's mapped further: its mapped size doubles
+ * up to a segment, then grows a segment at a time. Only the last segment
+ * is ever mapped again; full ones stay as they are.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class MappedFile
+{
+    /**
+     * The most bytes that can be read or written as one buffer (see {@link #slice}).
+     */
+    static final int OVERLAP = 1 << 20;
+
+    private static final long SEGMENT_SIZE = 1L << 28;
+
+    private final FileChannel            channel;
+    private final List<MappedByteBuffer> segments;
+
+    private long mapped;
+
+    /**
+     * Opens a file, creating it if it doesn't exist,
+     * and maps it, at least as far as it's already written and as asked.
+     *
+     * @param file    the file
+     * @param minSize how much of it to map, at least
+     * @throws IOException if the file can't be opened or mapped
+     */
+    MappedFile(final Path file,
+               final long minSize) throws IOException
+    {
+        channel  = FileChannel.open(file,
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+        segments = new ArrayList<>();
+        map(Math.max(channel.size(), minSize));
+    }
+
+    /**
+     * Takes a lock on the whole file, waiting for other processes
+     * to release theirs.
+     *
+     * @param shared whether other processes may hold a shared lock at the same time
+     * @return the lock
+     * @throws IOException if the lock can't be taken
+     */
+    FileLock lock(final boolean shared) throws IOException
+    {
+        return channel.lock(0, Long.MAX_VALUE, shared);
+    }
+
+    /**
+     * Maps the file further, if it must hold more than is mapped.
+     *
+     * @param size how much of the file must be mapped
+     * @throws IOException if the file can't be mapped
+     */
+    void ensureCapacity(final long size) throws IOException
+    {
+        if(size > mapped)
+        {
+            map(Math.max(size, Math.min(2 * mapped, mapped + SEGMENT_SIZE)));
+        }
+    }
+
+    /**
+     * Maps the file up to a size, mapping again only the segments
+     * that were mapped short of it.
+     */
+    private void map(final long size) throws IOException
+    {
+        for(long start = 0; start < size; start += SEGMENT_SIZE)
+        {
+            final int  segment;
+            final long length;
+
+            segment = (int) (start / SEGMENT_SIZE);
+            length  = Math.min(SEGMENT_SIZE + OVERLAP, size - start);
+            if(segment == segments.size())
+            {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, start, length));
+            } else if(segments.get(segment).capacity() < length)
+            {
+                segments.set(segment, channel.map(FileChannel.MapMode.READ_WRITE, start, length));
+            }
+        }
+        mapped = Math.max(mapped, size);
+    }
+
+    private MappedByteBuffer segment(final long offset)
+    {
+        return segments.get((int) (offset / SEGMENT_SIZE));
+    }
+
+    private static int position(final long offset)
+    {
+        return (int) (offset % SEGMENT_SIZE);
+    }
+
+    byte get(final long offset)
+    {
+        return segment(offset).get(position(offset));
+    }
+
+    short getShort(final long offset)
+    {
+        return segment(offset).getShort(position(offset));
+    }
+
+    int getInt(final long offset)
+    {
+        return segment(offset).getInt(position(offset));
+    }
+
+    long getLong(final long offset)
+    {
+        return segment(offset).getLong(position(offset));
+    }
+
+    MappedFile put(final long offset,
+                   final byte value)
+    {
+        segment(offset).put(position(offset), value);
+        return this;
+    }
+
+    MappedFile putShort(final long offset,
+                        final short value)
+    {
+        segment(offset).putShort(position(offset), value);
+        return this;
+    }
+
+    MappedFile putInt(final long offset,
+                      final int value)
+    {
+        segment(offset).putInt(position(offset), value);
+        return this;
+    }
+
+    MappedFile putLong(final long offset,
+                       final long value)
+    {
+        segment(offset).putLong(position(offset), value);
+        return this;
+    }
+
+    /**
+     * Gets a buffer over part of the file, to read or write it.
+     *
+     * @param offset where the part starts
+     * @param length the part's length, at most {@value #OVERLAP}
+     * @return the buffer, positioned at the part's start
+     * @throws IllegalArgumentException if the part is too long
+     */
+    ByteBuffer slice(final long offset,
+                     final int length)
+    {
+        if(length > OVERLAP)
+        {
+            throw new IllegalArgumentException("Too long: " + length);
+        }
+        return segment(offset).slice(position(offset), length);
+    }
+
+    /**
+     * Copies part of the file into another one, {@value #OVERLAP} bytes at a time.
+     * The other file must be mapped far enough.
+     *
+     * @param offset       where the part starts
+     * @param length       the part's length
+     * @param target       the file to copy into
+     * @param targetOffset where to copy the part to
+     */
+    void copyTo(final long offset,
+                final long length,
+                final MappedFile target,
+                final long targetOffset)
+    {
+        for(long copied = 0; copied < length; copied += OVERLAP)
+        {
+            final int chunk;
+            chunk = (int) Math.min(OVERLAP, length - copied);
+            target.slice(targetOffset + copied, chunk).put(slice(offset + copied, chunk));
+        }
+    }
+
+    /**
+     * Writes what's mapped back to disk, and closes the file.
+     *
+     * @throws IOException if the file can't be written
+     */
+    void close() throws IOException
+    {
+        segments.forEach(MappedByteBuffer::force);
+        channel.close();
+    }
+}
@@ -0,0 +1,272 @@
+package mygame.multiplayer.server;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Seats waiting requests at tables with opponents of a similar rating.
+ * Each matchmaker fills tables of one size; the main server has one
+ * per number of players.
+ * <p>
+ * Requests are kept in buckets of {@value #BUCKET_WIDTH} rating points,
+ * so the nearest opponents are found by walking outwards from the request's
+ * own bucket, in {@code O(log n)} per bucket visited,
+ * however many requests are waiting.
+ * <p>
+ * A request only accepts opponents within a rating range, which starts at
+ * {@value #BASE_RANGE} points and widens by {@value #RANGE_GROWTH_PER_SECOND}
+ * points for every second it has waited, so that nobody waits forever.
+ * Two requests are only matched if each is within the other's range.
+ * <p>
+ * Matching happens in batches (see {@link #match}), priority requests
+ * (e.g. rematches) first, then oldest requests first, since they are the least picky.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class Matchmaker
+{
+    private static final int BUCKET_WIDTH            = 25;
+    private static final int BASE_RANGE              = 100;
+    private static final int RANGE_GROWTH_PER_SECOND = 50;
+
+    private final int                                tableSize;
+    private final Map<Path, Ticket>                  tickets;
+    private final NavigableMap<Integer, Set<Ticket>> buckets;
+
+    /**
+     * A waiting request.
+     *
+     * @param request     the request's directory
+     * @param rating      the player's rating
+     * @param sinceMillis when the request arrived
+     * @param priority    whether to seat the request before the others
+     */
+    private record Ticket(Path request, double rating, long sinceMillis, boolean priority)
+    {
+        int bucket()
+        {
+            return (int) Math.floor(rating / BUCKET_WIDTH);
+        }
+
+        double range(final long nowMillis)
+        {
+            return BASE_RANGE + RANGE_GROWTH_PER_SECOND * (nowMillis - sinceMillis) / 1000.0;
+        }
+    }
+
+    /**
+     * Creates an empty matchmaker.
+     *
+     * @param tableSize how many players to seat at each table
+     */
+    Matchmaker(final int tableSize)
+    {
+        this.tableSize = tableSize;
+        tickets        = new LinkedHashMap<>();
+        buckets        = new TreeMap<>();
+    }
+
+    /**
+     * Adds a request to the pool.
+     *
+     * @param request the request's directory
+     * @param rating  the player's rating
+     */
+    void add(final Path request,
+             final double rating)
+    {
+        add(request, rating, false);
+    }
+
+    /**
+     * Adds a request to the pool, possibly ahead of the others.
+     *
+     * @param request  the request's directory
+     * @param rating   the player's rating
+     * @param priority whether to seat the request before the others
+     */
+    void add(final Path request,
+             final double rating,
+             final boolean priority)
+    {
+        final Ticket ticket;
+        ticket = new Ticket(request, rating, System.currentTimeMillis(), priority);
+        tickets.put(request, ticket);
+        buckets.computeIfAbsent(ticket.bucket(), ignored -> new LinkedHashSet<>())
+               .add(ticket);
+    }
+
+    /**
+     * Removes a request from the pool, e.g. when its client leaves.
+     * Has no effect if the request is not in the pool.
+     *
+     * @param request the request's directory
+     */
+    void remove(final Path request)
+    {
+        final Ticket ticket;
+        ticket = tickets.remove(request);
+        if(ticket != null)
+        {
+            unbucket(ticket);
+        }
+    }
+
+    /**
+     * Gets the number of waiting requests.
+     *
+     * @return the number of waiting requests
+     */
+    int size()
+    {
+        return tickets.size();
+    }
+
+    /**
+     * Fills as many tables as possible, up to a limit, with waiting requests.
+     * Matched requests are removed from the pool.
+     * <p>
+     * Each table is only seated if {@code seat} accepts it, e.g. if all its requests
+     * could be claimed; otherwise its requests stay in the pool,
+     * except those that {@code seat} removes itself.
+     *
+     * @param maxTables the most tables to fill
+     * @param seat      whether to seat a table that was found
+     * @return the requests at each table
+     */
+    List<Path[]> match(final int maxTables,
+                       final Predicate<Path[]> seat)
+    {
+        final List<Path[]>     tables;
+        final long             now;
+        final List<Ticket>     order;
+        final Iterator<Ticket> waiting;
+
+        tables  = new ArrayList<>();
+        now     = System.currentTimeMillis();
+        order   = new ArrayList<>(tickets.values());
+        order.sort(Comparator.comparing(ticket -> !ticket.priority())); // stable: oldest first within each
+        waiting = order.iterator();
+
+        while(waiting.hasNext() && tickets.size() >= tableSize && tables.size() < maxTables)
+        {
+            final Ticket       ticket;
+            final List<Ticket> opponents;
+            final Path[]       table;
+
+            ticket = waiting.next();
+            if(!tickets.containsKey(ticket.request()))
+            {
+                continue; // already seated as someone else's opponent
+            }
+
+            opponents = nearest(ticket, now);
+            if(opponents == null)
+            {
+                continue;
+            }
+
+            table    = new Path[tableSize];
+            table[0] = ticket.request();
+            for(int i = 0; i < opponents.size(); i++)
+            {
+                table[i + 1] = opponents.get(i).request();
+            }
+            if(!seat.test(table))
+            {
+                continue;
+            }
+            for(final Path request : table)
+            {
+                remove(request);
+            }
+            tables.add(table);
+        }
+        return tables;
+    }
+
+    /**
+     * Finds enough opponents with the nearest ratings (to within a bucket's width)
+     * in a ticket's range, that also have the ticket in theirs, to fill a table. Walks outwards from the ticket's bucket,
+     * nearest bucket first, taking the longest-waiting opponents
+     * of each bucket first.
+     *
+     * @param ticket the ticket looking for opponents
+     * @param now    the current time
+     * @return the opponents, or {@code null} if not enough are in range
+     */
+    private List<Ticket> nearest(final Ticket ticket,
+                                 final long now)
+    {
+        final List<Ticket> opponents;
+        final double       range;
+        Integer            lower;
+        Integer            higher;
+
+        opponents = new ArrayList<>();
+        range     = ticket.range(now);
+        lower     = buckets.floorKey(ticket.bucket());
+        higher    = buckets.higherKey(ticket.bucket());
+
+        while(lower != null || higher != null)
+        {
+            final boolean goLower;
+            final int     bucket;
+
+            goLower = higher == null ||
+                      lower != null &&
+                      ticket.bucket() - lower <= higher - ticket.bucket();
+            bucket  = goLower ? lower : higher;
+
+            if((Math.abs(bucket - ticket.bucket()) - 1) * BUCKET_WIDTH > range)
+            {
+                return null; // this bucket and all further ones are out of range
+            }
+
+            for(final Ticket candidate : buckets.get(bucket))
+            {
+                if(candidate != ticket &&
+                   Math.abs(candidate.rating() - ticket.rating())
+                   <= Math.min(range, candidate.range(now)))
+                {
+                    opponents.add(candidate);
+                    if(opponents.size() == tableSize - 1)
+                    {
+                        return opponents;
+                    }
+                }
+            }
+
+            if(goLower)
+            {
+                lower = buckets.lowerKey(lower);
+            } else
+            {
+                higher = buckets.higherKey(higher);
+            }
+        }
+        return null;
+    }
+
+    private void unbucket(final Ticket ticket)
+    {
+        final Set<Ticket> bucket;
+        bucket = buckets.get(ticket.bucket());
+        bucket.remove(ticket);
+        if(bucket.isEmpty())
+        {
+            buckets.remove(ticket.bucket());
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package mygame.multiplayer.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import mygame.multiplayer.Service;
+import mygame.multiplayer.services.EventLoop;
+import mygame.multiplayer.services.Scheduler;
+
+/**
+ * The move clocks of all the games a main server hosts.
+ * <p>
+ * Each player has a time control: {@code mygame.clockMillis} milliseconds
+ * for the whole game (default {@value #DEFAULT_TIME_MILLIS}), plus
+ * {@code mygame.incrementMillis} for each move they make
+ * (default {@value #DEFAULT_INCREMENT_MILLIS}). A time of 0 turns the clocks off.
+ * Without them, a client that keeps its connection alive but never moves
+ * would keep its game, and the game's services and files, forever.
+ * <p>
+ * Only the player to move has a clock running, so a game needs
+ * one deadline at a time (see {@link Clock}), which, once the game is over,
+ * is also when its clients must have left. Instead of a timer each,
+ * the deadlines of all games are kept in one set, ordered by when they're due,
+ * and checked once per tick on the main server's {@link EventLoop}: only
+ * those that are due are looked at, and a game moving on replaces its deadline
+ * in logarithmic time, however many games there are.
+ * A deadline is therefore noticed up to one clock period
+ * ({@value Scheduler#CLOCK_PERIOD_MILLIS} ms) late.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class MoveClocks implements Service
+{
+    private static final int DEFAULT_TIME_MILLIS      = 300_000;
+    private static final int DEFAULT_INCREMENT_MILLIS = 5_000;
+
+    private final int                 timeMillis;
+    private final int                 incrementMillis;
+    private final NavigableSet<Clock> deadlines;
+    private final Service             ticker;
+
+    private long nextID;
+
+    /**
+     * Creates the clocks, checked on the main server's loop.
+     *
+     * @param loop the main server's loop
+     */
+    MoveClocks(final EventLoop loop)
+    {
+        timeMillis      = Math.max(0, Integer.getInteger("mygame.clockMillis", DEFAULT_TIME_MILLIS));
+        incrementMillis = Math.max(0, Integer.getInteger("mygame.incrementMillis",
+                                                         DEFAULT_INCREMENT_MILLIS));
+        deadlines       = new TreeSet<>(Comparator.comparingLong((Clock clock) -> clock.deadlineMillis)
+                                                  .thenComparingLong(clock -> clock.id));
+        ticker          = loop.repeat(this::expire);
+    }
+
+    /**
+     * Checks whether games get move clocks.
+     *
+     * @return whether the time control is on
+     */
+    boolean isEnabled()
+    {
+        return timeMillis > 0;
+    }
+
+    /**
+     * Gets each player's time for the whole game.
+     *
+     * @return the time, in milliseconds
+     */
+    int getTimeMillis()
+    {
+        return timeMillis;
+    }
+
+    /**
+     * Gets the time added to a player's clock for each move they make.
+     *
+     * @return the increment, in milliseconds
+     */
+    int getIncrementMillis()
+    {
+        return incrementMillis;
+    }
+
+    /**
+     * Creates a game's clock. It doesn't run until it's given a deadline.
+     *
+     * @param onTimeUp called, on the main server's loop, when the deadline passes
+     * @return the clock
+     */
+    Clock clock(final Runnable onTimeUp)
+    {
+        return new Clock(onTimeUp);
+    }
+
+    /**
+     * Runs the callbacks of the deadlines that are due, and forgets them.
+     */
+    private void expire()
+    {
+        final long        now;
+        final List<Clock> due;
+
+        now = System.currentTimeMillis();
+        due = new ArrayList<>();
+        synchronized(this)
+        {
+            while(!deadlines.isEmpty() && deadlines.first().deadlineMillis <= now)
+            {
+                final Clock clock;
+                clock         = deadlines.pollFirst();
+                clock.running = false;
+                due.add(clock);
+            }
+        }
+        due.forEach(clock -> clock.onTimeUp.run());
+    }
+
+    @Override
+    public void stop()
+    {
+        ticker.stop();
+        synchronized(this)
+        {
+            deadlines.clear();
+        }
+    }
+
+    /**
+     * A game's clock: the deadline of the player to move, if any.
+     * It's up to the game to keep track of each player's time.
+     */
+    final class Clock implements Service
+    {
+        private final Runnable onTimeUp;
+
+        private long    deadlineMillis;
+        private long    id;
+        private boolean running;
+
+        private Clock(final Runnable onTimeUp)
+        {
+            this.onTimeUp = onTimeUp;
+        }
+
+        /**
+         * Sets the deadline, replacing the previous one.
+         *
+         * @param deadlineMillis when the time is up
+         */
+        void runUntil(final long deadlineMillis)
+        {
+            synchronized(MoveClocks.this)
+            {
+                if(running)
+                {
+                    deadlines.remove(this);
+                }
+                this.deadlineMillis = deadlineMillis;
+                id                  = nextID++;
+                running             = deadlines.add(this);
+            }
+        }
+
+        /**
+         * Removes the deadline, if any.
+         */
+        @Override
+        public void stop()
+        {
+            synchronized(MoveClocks.this)
+            {
+                if(running)
+                {
+                    deadlines.remove(this);
+                    running = false;
+                }
+            }
+        }
+    }
+}
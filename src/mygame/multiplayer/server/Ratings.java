@@ -0,0 +1,101 @@
+package mygame.multiplayer.server;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The players' Elo ratings.
+ * <p>
+ * Players start at {@value #INITIAL_RATING}. After each game the winner
+ * takes points from each loser, more so the less likely the win was;
+ * a tie moves both players' ratings towards each other.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class Ratings
+{
+    /**
+     * The rating of a player who has never played.
+     */
+    static final int INITIAL_RATING = 1200;
+
+    private static final double K_FACTOR = 32;
+    private static final double SCALE    = 400;
+
+    private final Map<String, Double> ratings;
+
+    /**
+     * Creates an empty rating table.
+     */
+    Ratings()
+    {
+        ratings = new HashMap<>();
+    }
+
+    /**
+     * Gets a player's rating.
+     *
+     * @param player the player's name
+     * @return the rating, {@value #INITIAL_RATING} if they have never played
+     */
+    double get(final String player)
+    {
+        return ratings.getOrDefault(player, (double) INITIAL_RATING);
+    }
+
+    /**
+     * Updates the ratings of everyone in a finished game.
+     * Every pair of players is scored as a separate match:
+     * the winner beats everyone else, and everyone else ties among themselves.
+     * Seats that share a name are one player, who is rated once,
+     * and who doesn't play against themselves.
+     *
+     * @param result the game's result
+     */
+    void update(final GameResult result)
+    {
+        final List<String> players;
+        final int          count;
+        final double[]     before;
+        final double[]     delta;
+
+        players = result.distinctPlayers();
+        count   = players.size();
+        before  = new double[count];
+        delta   = new double[count];
+        for(int i = 0; i < count; i++)
+        {
+            before[i] = get(players.get(i));
+        }
+
+        for(int a = 0; a < count; a++)
+        {
+            for(int b = a + 1; b < count; b++)
+            {
+                final double expected;
+                final double score;
+
+                expected = 1 / (1 + Math.pow(10, (before[b] - before[a]) / SCALE));
+                if(result.wonBy(players.get(a)))
+                {
+                    score = 1;
+                } else if(result.wonBy(players.get(b)))
+                {
+                    score = 0;
+                } else
+                {
+                    score = 0.5;
+                }
+                delta[a] += K_FACTOR * (score - expected);
+                delta[b] -= K_FACTOR * (score - expected);
+            }
+        }
+
+        for(int i = 0; i < count; i++)
+        {
+            ratings.put(players.get(i), before[i] + delta[i]);
+        }
+    }
+}
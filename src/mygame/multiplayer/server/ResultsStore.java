@@ -0,0 +1,779 @@
+package mygame.multiplayer.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import mygame.multiplayer.Protocol;
+import mygame.multiplayer.Service;
+
+/**
+ * Every finished game's result, kept on disk, with per-player indexes for fast queries.
+ * <p>
+ * Results are appended to two memory-mapped files. The first, {@value #RECORDS_FILE},
+ * holds a header, then one fixed-size record of {@value #RECORD_SIZE} bytes per game:
+ * <pre>
+ * {@code gameID (16 bytes) startMillis (8) durationMillis (4) blobOffset (8)}
+ * {@code blobLength (4) moveCount (2) seats (1) winner (1) reserved (4)}
+ * </pre>
+ * so the {@code i}th game is at a known offset. The second, {@code blobs.dat},
+ * holds what doesn't have a fixed size: the players' names, each as a length then
+ * UTF-8 bytes, then the moves, 2 bytes each, enough for the largest board.
+ * The header holds the number of records and the end of the blobs, written last
+ * on each append, so a reader never sees a record before its blob.
+ * Offsets into both files are {@code long}s, and the files are mapped
+ * in segments (see {@link MappedFile}), so they can grow past 2 GiB.
+ * <p>
+ * The store only holds the games that aren't in the {@link GameArchive} yet.
+ * Games are numbered from the first one ever stored, and the header also holds
+ * the number of the first game in the store. Once games are archived, they're
+ * dropped (see {@link #compact}) by copying the games left into new files,
+ * then renaming the new records file over the old one. The rename is atomic,
+ * and the blobs file is named after the number of its first game,
+ * so a crash leaves either the old files or the new ones.
+ * <p>
+ * The per-player indexes are kept in memory: for each player, the numbers of their
+ * games, in order, and their number of wins and ties; and for each pair of
+ * players, who won the games they played together. They're built by one pass over
+ * the archive and the store when the store is opened, then kept up to date
+ * on every append. So a player's win rate and head-to-head results take
+ * a map lookup, and their last games reading the records asked for,
+ * or decompressing their blocks if they're archived.
+ * <p>
+ * Several main servers may share the store, each in its own process: appends
+ * and compactions take an exclusive lock on the records file, and queries a shared one.
+ * Before each of them, the records the other servers appended since are indexed.
+ * A records file that was replaced is marked as such, so the other servers
+ * open the new one.
+ * <p>
+ * Thread-safe: results are appended from the main server's loop,
+ * and queried over JMX.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class ResultsStore implements Service
+{
+    private static final String RECORDS_FILE       = "results.dat";
+    private static final String BLOBS_FILE         = "blobs";
+    private static final String FILE_EXTENSION     = ".dat";
+    private static final String TEMPORARY_SUFFIX   = ".tmp";
+    private static final int    MAGIC              = 0x52534C54; // "RSLT"
+    private static final int    OLD_VERSION        = 1;
+    private static final int    VERSION            = 2;
+    private static final int    HEADER_SIZE        = 32;
+    private static final int    RECORD_SIZE        = 48;
+    private static final int    COUNT_OFFSET       = 8;
+    private static final int    REPLACED_OFFSET    = 12;
+    private static final int    BLOB_END_OFFSET    = 16;
+    private static final int    BASE_OFFSET        = 24;
+    private static final int    START_FIELD        = 16;
+    private static final int    DURATION_FIELD     = 24;
+    private static final int    BLOB_OFFSET_FIELD  = 28;
+    private static final int    BLOB_LENGTH_FIELD  = 36;
+    private static final int    MOVE_COUNT_FIELD   = 40;
+    private static final int    SEATS_FIELD        = 42;
+    private static final int    WINNER_FIELD       = 43;
+    private static final int    INITIAL_RECORDS    = 1024;
+    private static final int    INITIAL_BLOB_BYTES = 64 * 1024;
+    private static final int    INITIAL_GAMES      = 8;
+    private static final String PAIR_SEPARATOR     = "\u0000";
+
+    private final Path                directory;
+    private final GameArchive         archive;
+    private final Map<String, Player> players;
+    private final Map<String, int[]>  pairs;
+
+    private MappedFile records;
+    private MappedFile blobs;
+    private int        base;
+    private int        indexed;
+
+    /**
+     * How a player did, in total.
+     *
+     * @param games how many games they played
+     * @param wins  how many they won
+     * @param ties  how many were ties
+     */
+    record Tally(int games, int wins, int ties)
+    {
+        /**
+         * Gets the games lost, i.e. won by someone else.
+         *
+         * @return the number of losses
+         */
+        int losses()
+        {
+            return games - wins - ties;
+        }
+
+        /**
+         * Gets the share of games won.
+         *
+         * @return the win rate, in range [0, 1], 0 if no games were played
+         */
+        double winRate()
+        {
+            return games == 0 ? 0 : (double) wins / games;
+        }
+    }
+
+    /**
+     * How two players did in the games they played together.
+     *
+     * @param games       how many games they played together
+     * @param firstWins   how many the first player won
+     * @param secondWins  how many the second player won
+     * @param neitherWins how many were ties, or won by another player
+     */
+    record HeadToHead(int games, int firstWins, int secondWins, int neitherWins) {}
+
+    /**
+     * A player's index: their games' numbers, oldest first, and their tally.
+     */
+    private static final class Player
+    {
+        private int[] games = new int[INITIAL_GAMES];
+        private int   count;
+        private int   wins;
+        private int   ties;
+
+        private void add(final int game)
+        {
+            if(count == games.length)
+            {
+                games = Arrays.copyOf(games, 2 * count);
+            }
+            games[count++] = game;
+        }
+    }
+
+    /**
+     * Work done with a lock on the records file.
+     *
+     * @param <T> the type of the work's result
+     */
+    @FunctionalInterface
+    private interface Locked<T>
+    {
+        T run() throws IOException;
+    }
+
+    /**
+     * Opens the store in a directory, creating it if it doesn't exist,
+     * and indexes the results already archived, then the ones in it.
+     *
+     * @param directory the store's directory
+     * @param archive   the archive the store's games go to
+     * @throws RuntimeException if the store can't be opened, or isn't a results store
+     */
+    ResultsStore(final Path directory,
+                 final GameArchive archive)
+    {
+        this.directory = directory;
+        this.archive   = archive;
+        players        = new HashMap<>();
+        pairs          = new HashMap<>();
+        try
+        {
+            Files.createDirectories(directory);
+            open();
+
+            final FileLock lock;
+            lock = records.lock(false);
+            try
+            {
+                if(records.getInt(0) == 0)
+                {
+                    records.putInt(4, VERSION);
+                    records.putInt(0, MAGIC);
+                } else if(records.getInt(0) != MAGIC ||
+                          records.getInt(4) != VERSION && records.getInt(4) != OLD_VERSION)
+                {
+                    throw new IllegalStateException("Not a results store: " + directory);
+                } else
+                {
+                    // the old version has the same layout, with no games ever dropped
+                    records.putInt(4, VERSION);
+                }
+            } finally
+            {
+                lock.release();
+            }
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        size();
+    }
+
+    /**
+     * Opens the records file, and the blobs file it goes with.
+     * The number of the first game never changes in a records file,
+     * so it's read once.
+     */
+    private void open() throws IOException
+    {
+        records = new MappedFile(directory.resolve(RECORDS_FILE),
+                                 recordOffset(INITIAL_RECORDS));
+        base    = records.getInt(BASE_OFFSET);
+        blobs   = new MappedFile(directory.resolve(blobsFile(base)), INITIAL_BLOB_BYTES);
+    }
+
+    private void close() throws IOException
+    {
+        records.close();
+        blobs.close();
+    }
+
+    /**
+     * Gets the name of the blobs file whose first game is the one specified.
+     * The first blobs file keeps the name it always had.
+     */
+    private static String blobsFile(final int base)
+    {
+        return base == 0
+               ? BLOBS_FILE + FILE_EXTENSION
+               : BLOBS_FILE + "-" + base + FILE_EXTENSION;
+    }
+
+    /**
+     * Does some work with a lock on the records file, once the records
+     * appended since by other servers are indexed.
+     * If the records file was replaced, the new one is opened first.
+     *
+     * @param shared whether other servers may hold a shared lock at the same time
+     * @param work   the work
+     * @param <T>    the type of the work's result
+     * @return the work's result
+     */
+    private <T> T locked(final boolean shared,
+                         final Locked<T> work)
+    {
+        try
+        {
+            FileLock lock;
+            lock = records.lock(shared);
+            while(records.getInt(REPLACED_OFFSET) != 0)
+            {
+                lock.release();
+                close();
+                open();
+                lock = records.lock(shared);
+            }
+
+            try
+            {
+                refresh();
+                return work.run();
+            } finally
+            {
+                // a compaction closes the file it locked, which releases the lock
+                if(lock.isValid())
+                {
+                    lock.release();
+                }
+            }
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Appends a game's result.
+     *
+     * @param result the result
+     */
+    synchronized void append(final GameResult result)
+    {
+        final byte[][] names;
+        final int      blobLength;
+        final UUID     gameID;
+        int            length;
+
+        names  = new byte[result.players().size()][];
+        length = 0;
+        for(int seat = 0; seat < names.length; seat++)
+        {
+            names[seat] = result.players().get(seat).getBytes(StandardCharsets.UTF_8);
+            length     += Short.BYTES + names[seat].length;
+        }
+        blobLength = length + Short.BYTES * result.moves().size();
+        gameID     = UUID.fromString(result.gameID());
+
+        locked(false, () ->
+        {
+            write(gameID, result, names, blobLength);
+            return null;
+        });
+    }
+
+    /**
+     * Writes a result at the end of the store. Called with the lock held.
+     */
+    private void write(final UUID gameID,
+                       final GameResult result,
+                       final byte[][] names,
+                       final int blobLength) throws IOException
+    {
+        final int        count;
+        final long       blobOffset;
+        final long       recordOffset;
+        final ByteBuffer blob;
+
+        count        = records.getInt(COUNT_OFFSET);
+        blobOffset   = records.getLong(BLOB_END_OFFSET);
+        recordOffset = recordOffset(count);
+        ensureCapacity(recordOffset + RECORD_SIZE, blobOffset + blobLength);
+
+        blob = blobs.slice(blobOffset, blobLength);
+        for(final byte[] name : names)
+        {
+            blob.putShort((short) name.length).put(name);
+        }
+        for(final int move : result.moves())
+        {
+            blob.putShort((short) move);
+        }
+
+        records.putLong(recordOffset, gameID.getMostSignificantBits())
+               .putLong(recordOffset + Long.BYTES, gameID.getLeastSignificantBits())
+               .putLong(recordOffset + START_FIELD, result.startMillis())
+               .putInt(recordOffset + DURATION_FIELD, (int) (result.endMillis() - result.startMillis()))
+               .putLong(recordOffset + BLOB_OFFSET_FIELD, blobOffset)
+               .putInt(recordOffset + BLOB_LENGTH_FIELD, blobLength)
+               .putShort(recordOffset + MOVE_COUNT_FIELD, (short) result.moves().size())
+               .put(recordOffset + SEATS_FIELD, (byte) names.length)
+               .put(recordOffset + WINNER_FIELD, (byte) result.winner());
+
+        // the count goes last: it's what makes the record visible
+        records.putLong(BLOB_END_OFFSET, blobOffset + blobLength);
+        records.putInt(COUNT_OFFSET, count + 1);
+        refresh();
+    }
+
+    /**
+     * Gets a player's last games.
+     *
+     * @param player the player's name
+     * @param count  the most games to get
+     * @return the results, newest first
+     */
+    synchronized List<GameResult> lastGames(final String player,
+                                            final int count)
+    {
+        return locked(true, () ->
+        {
+            final Player           index;
+            final List<GameResult> results;
+
+            index   = players.get(player);
+            results = new ArrayList<>();
+            if(index == null)
+            {
+                return results;
+            }
+            for(int i = index.count - 1; i >= 0 && results.size() < count; i--)
+            {
+                results.add(read(index.games[i]));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Gets how a player did, in total.
+     *
+     * @param player the player's name
+     * @return the player's tally, all zeros if they never played
+     */
+    synchronized Tally tally(final String player)
+    {
+        return locked(true, () ->
+        {
+            final Player index;
+            index = players.get(player);
+            return index == null
+                   ? new Tally(0, 0, 0)
+                   : new Tally(index.count, index.wins, index.ties);
+        });
+    }
+
+    /**
+     * Gets how two players did in the games they played together.
+     *
+     * @param first  the first player's name
+     * @param second the second player's name
+     * @return the head-to-head results, from the first player's side
+     */
+    synchronized HeadToHead headToHead(final String first,
+                                       final String second)
+    {
+        return locked(true, () ->
+        {
+            final boolean ordered;
+            final int[]   pair;
+
+            ordered = first.compareTo(second) <= 0;
+            pair    = pairs.get(pairKey(first, second));
+            if(pair == null)
+            {
+                return new HeadToHead(0, 0, 0, 0);
+            }
+            return new HeadToHead(pair[0],
+                                  ordered ? pair[1] : pair[2],
+                                  ordered ? pair[2] : pair[1],
+                                  pair[0] - pair[1] - pair[2]);
+        });
+    }
+
+    /**
+     * Reads every result, oldest first: the archived ones, then the ones in the store.
+     *
+     * @param action what to do with each result
+     */
+    synchronized void forEach(final Consumer<GameResult> action)
+    {
+        locked(true, () ->
+        {
+            archive.forEach(0, base, action);
+            for(int game = base; game < indexed; game++)
+            {
+                action.accept(readRecord(game - base));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Reads a range of results, oldest first.
+     *
+     * @param from the first result's number, from 0
+     * @param to   the number of the result after the last one, at most {@link #size()}
+     * @return the results
+     */
+    synchronized List<GameResult> range(final int from,
+                                        final int to)
+    {
+        return locked(true, () ->
+        {
+            final List<GameResult> range;
+
+            range = new ArrayList<>(to - from);
+            if(from < base)
+            {
+                range.addAll(archive.range(from, Math.min(to, base)));
+            }
+            for(int game = Math.max(from, base); game < to; game++)
+            {
+                range.add(readRecord(game - base));
+            }
+            return range;
+        });
+    }
+
+    /**
+     * Gets how many results there are, archived or not.
+     *
+     * @return the number of results
+     */
+    synchronized int size()
+    {
+        return locked(true, () -> indexed);
+    }
+
+    /**
+     * Drops the games that are archived from the store, by copying the ones
+     * that aren't into new files, which replace the old ones.
+     * Does nothing if no game the store holds is archived.
+     *
+     * @param archived how many games are archived
+     */
+    synchronized void compact(final int archived)
+    {
+        if(archived <= base)
+        {
+            return;
+        }
+        locked(false, () ->
+        {
+            if(archived > base)
+            {
+                replace(Math.min(archived, indexed));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Replaces the files with new ones, starting from the specified game.
+     * Called with the exclusive lock held.
+     * <p>
+     * The new files are written in full and forced to disk first; renaming
+     * the new records file over the old one is what makes them the store's.
+     * The old one is then marked as replaced, for the other servers
+     * that have it open, and closed, which releases the lock.
+     *
+     * @param newBase the number of the new files' first game
+     */
+    private void replace(final int newBase) throws IOException
+    {
+        final int        first;
+        final int        count;
+        final long       blobStart;
+        final long       blobEnd;
+        final Path       temporary;
+        final Path       oldBlobs;
+        final MappedFile newRecords;
+        final MappedFile newBlobs;
+
+        first     = newBase - base;
+        count     = indexed - newBase;
+        blobEnd   = records.getLong(BLOB_END_OFFSET);
+        blobStart = count == 0 ? blobEnd : records.getLong(recordOffset(first) + BLOB_OFFSET_FIELD);
+        temporary = directory.resolve(RECORDS_FILE + TEMPORARY_SUFFIX);
+        oldBlobs  = directory.resolve(blobsFile(base));
+
+        // left over by a crash, if they exist
+        Files.deleteIfExists(temporary);
+        Files.deleteIfExists(directory.resolve(blobsFile(newBase)));
+
+        newRecords = new MappedFile(temporary, recordOffset(Math.max(count, INITIAL_RECORDS)));
+        newBlobs   = new MappedFile(directory.resolve(blobsFile(newBase)),
+                                    Math.max(blobEnd - blobStart, INITIAL_BLOB_BYTES));
+        records.copyTo(recordOffset(first), (long) count * RECORD_SIZE, newRecords, HEADER_SIZE);
+        blobs.copyTo(blobStart, blobEnd - blobStart, newBlobs, 0);
+        for(int record = 0; record < count; record++)
+        {
+            final long offset;
+            offset = recordOffset(record) + BLOB_OFFSET_FIELD;
+            newRecords.putLong(offset, newRecords.getLong(offset) - blobStart);
+        }
+        newRecords.putInt(BASE_OFFSET, newBase)
+                  .putLong(BLOB_END_OFFSET, blobEnd - blobStart)
+                  .putInt(COUNT_OFFSET, count)
+                  .putInt(4, VERSION)
+                  .putInt(0, MAGIC);
+        newRecords.close();
+        newBlobs.close();
+
+        Files.move(temporary,
+                   directory.resolve(RECORDS_FILE),
+                   StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+        records.putInt(REPLACED_OFFSET, 1);
+        close();
+        open();
+        Protocol.removeRecursive(oldBlobs);
+    }
+
+    /**
+     * Indexes the games added since the last call, by this server or another.
+     * Games that another server archived and dropped from the store in the meantime
+     * are read from the archive. Maps the files further first,
+     * if they've grown past what's mapped.
+     */
+    private void refresh() throws IOException
+    {
+        final int count;
+        count = records.getInt(COUNT_OFFSET);
+        if(base + count == indexed)
+        {
+            return;
+        }
+
+        ensureCapacity(recordOffset(count), records.getLong(BLOB_END_OFFSET));
+        if(indexed < base)
+        {
+            archive.forEach(indexed, base, result -> index(indexed++, result.players(), result.winner()));
+            if(indexed < base)
+            {
+                throw new IllegalStateException("Games " + indexed + " to " + base + " aren't archived");
+            }
+        }
+        while(indexed < base + count)
+        {
+            final long offset;
+            offset = recordOffset(indexed - base);
+            index(indexed++, readNames(offset), records.get(offset + WINNER_FIELD));
+        }
+    }
+
+    /**
+     * Maps the files further, if they must hold more than is mapped.
+     */
+    private void ensureCapacity(final long recordsSize,
+                                final long blobsSize) throws IOException
+    {
+        records.ensureCapacity(recordsSize);
+        blobs.ensureCapacity(blobsSize);
+    }
+
+    private static long recordOffset(final int record)
+    {
+        return HEADER_SIZE + (long) record * RECORD_SIZE;
+    }
+
+    /**
+     * Adds a game to the players' indexes and tallies, and to the pairs' results.
+     * Seats that share a name are one player: the game is indexed once for them,
+     * and not as a game against themselves.
+     *
+     * @param game   the game's number
+     * @param seats  the players' names, in seat order
+     * @param winner the winner's seat, or {@link GameResult#TIE}
+     */
+    private void index(final int game,
+                       final List<String> seats,
+                       final int winner)
+    {
+        final List<String> names;
+        final String       winnerName;
+
+        names      = seats.stream().distinct().toList();
+        winnerName = winner == GameResult.TIE ? null : seats.get(winner);
+
+        for(int i = 0; i < names.size(); i++)
+        {
+            final Player player;
+            player = players.computeIfAbsent(names.get(i), ignored -> new Player());
+            player.add(game);
+            if(names.get(i).equals(winnerName))
+            {
+                player.wins++;
+            } else if(winner == GameResult.TIE)
+            {
+                player.ties++;
+            }
+
+            for(int other = i + 1; other < names.size(); other++)
+            {
+                final String first;
+                final String second;
+                final int[]  pair;
+
+                first  = names.get(i);
+                second = names.get(other);
+                pair   = pairs.computeIfAbsent(pairKey(first, second), ignored -> new int[3]);
+                pair[0]++;
+                if(first.equals(winnerName))
+                {
+                    pair[first.compareTo(second) <= 0 ? 1 : 2]++;
+                } else if(second.equals(winnerName))
+                {
+                    pair[first.compareTo(second) <= 0 ? 2 : 1]++;
+                }
+            }
+        }
+    }
+
+    private static String pairKey(final String first,
+                                  final String second)
+    {
+        return first.compareTo(second) <= 0
+               ? first + PAIR_SEPARATOR + second
+               : second + PAIR_SEPARATOR + first;
+    }
+
+    /**
+     * Reads a game, from the store, or from the archive if it was dropped from it.
+     *
+     * @param game the game's number
+     * @return the result
+     */
+    private GameResult read(final int game)
+    {
+        return game < base
+               ? archive.range(game, game + 1).getFirst()
+               : readRecord(game - base);
+    }
+
+    /**
+     * Decodes a record back into the result it was appended from.
+     *
+     * @param record the record's number in the records file
+     * @return the result
+     */
+    private GameResult readRecord(final int record)
+    {
+        final long          offset;
+        final UUID          gameID;
+        final long          startMillis;
+        final List<String>  names;
+        final ByteBuffer    blob;
+        final List<Integer> moves;
+        final int           moveCount;
+
+        offset      = recordOffset(record);
+        gameID      = new UUID(records.getLong(offset), records.getLong(offset + Long.BYTES));
+        startMillis = records.getLong(offset + START_FIELD);
+        names       = readNames(offset);
+        blob        = blob(offset);
+        moveCount   = Short.toUnsignedInt(records.getShort(offset + MOVE_COUNT_FIELD));
+        moves       = new ArrayList<>(moveCount);
+
+        blob.position(blob.limit() - Short.BYTES * moveCount);
+        for(int i = 0; i < moveCount; i++)
+        {
+            moves.add(Short.toUnsignedInt(blob.getShort()));
+        }
+        return new GameResult(gameID.toString(),
+                              names,
+                              records.get(offset + WINNER_FIELD),
+                              moves,
+                              startMillis,
+                              startMillis + records.getInt(offset + DURATION_FIELD));
+    }
+
+    private List<String> readNames(final long offset)
+    {
+        final int          seats;
+        final ByteBuffer   blob;
+        final List<String> names;
+
+        seats = records.get(offset + SEATS_FIELD);
+        blob  = blob(offset);
+        names = new ArrayList<>(seats);
+        for(int seat = 0; seat < seats; seat++)
+        {
+            final byte[] name;
+            name = new byte[Short.toUnsignedInt(blob.getShort())];
+            blob.get(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+        }
+        return names;
+    }
+
+    private ByteBuffer blob(final long offset)
+    {
+        return blobs.slice(records.getLong(offset + BLOB_OFFSET_FIELD), records.getInt(offset + BLOB_LENGTH_FIELD));
+    }
+
+    /**
+     * Writes what's mapped back to disk, and closes the files.
+     */
+    @Override
+    public synchronized void stop()
+    {
+        try
+        {
+            close();
+        } catch(final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package mygame.multiplayer.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import mygame.multiplayer.services.Histogram;
+import mygame.multiplayer.services.Meter;
+
+/**
+ * The main server's live statistics, gathered from the main server
+ * and from every {@link GameServer} it hosts, and exposed over JMX
+ * as a {@link MainServerMXBean}, along with queries on the {@link ResultsStore}
+ * and the {@link Leaderboard}.
+ * <p>
+ * The main server and the games each run on their own event loop, and JMX
+ * reads from threads of its own, so everything here is either atomic,
+ * volatile, or a concurrent map; nothing is read from the servers' own state.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class ServerStats implements MainServerMXBean
+{
+    private static final String DOMAIN = "mygame";
+
+    private final Map<String, GameServer> games;
+    private final Meter                   gamesStarted;
+    private final Meter                   gamesFinished;
+    private final Meter                   moves;
+    private final Histogram               turnLatency;
+    private final AtomicLong              disconnects;
+    private final AtomicLong              timeouts;
+    private final AtomicLong              abandonedRequests;
+    private final ResultsStore            results;
+    private final Leaderboard             leaderboard;
+
+    private volatile int queueDepth;
+
+    /**
+     * Creates the statistics of a server that has done nothing yet,
+     * and registers them as {@code mygame:type=MainServer}.
+     *
+     * @param results     the finished games' results
+     * @param leaderboard the players ranked by rating
+     */
+    ServerStats(final ResultsStore results,
+                final Leaderboard leaderboard)
+    {
+        this.results      = results;
+        this.leaderboard  = leaderboard;
+        games             = new ConcurrentHashMap<>();
+        gamesStarted      = new Meter();
+        gamesFinished     = new Meter();
+        moves             = new Meter();
+        turnLatency       = new Histogram();
+        disconnects       = new AtomicLong();
+        timeouts          = new AtomicLong();
+        abandonedRequests = new AtomicLong();
+
+        register(this, "MainServer", null);
+    }
+
+    /**
+     * Records a new game server, and registers it as
+     * {@code mygame:type=GameServer,name=gameID}.
+     *
+     * @param game the game's server
+     */
+    void gameCreated(final GameServer game)
+    {
+        games.put(game.getGameID(), game);
+        register(game, "GameServer", game.getGameID());
+    }
+
+    /**
+     * Forgets a game server that has stopped, and unregisters it.
+     *
+     * @param game the game's server
+     */
+    void gameStopped(final GameServer game)
+    {
+        games.remove(game.getGameID());
+        unregister("GameServer", game.getGameID());
+    }
+
+    /**
+     * Records that all of a game's players have joined.
+     */
+    void gameStarted()
+    {
+        gamesStarted.mark();
+    }
+
+    /**
+     * Records that a game ended with a result.
+     */
+    void gameFinished()
+    {
+        gamesFinished.mark();
+    }
+
+    /**
+     * Records a move, in any game.
+     *
+     * @param latencyMicros how long the player took to move, in microseconds
+     */
+    void moved(final long latencyMicros)
+    {
+        moves.mark();
+        turnLatency.record(latencyMicros);
+    }
+
+    /**
+     * Records that a client left a game before it ended.
+     */
+    void disconnected()
+    {
+        disconnects.incrementAndGet();
+    }
+
+    /**
+     * Records that a player ran out of time.
+     */
+    void timedOut()
+    {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * Records that a client left the queue before getting a game.
+     */
+    void requestAbandoned()
+    {
+        abandonedRequests.incrementAndGet();
+    }
+
+    /**
+     * Records how many requests are waiting for a game.
+     *
+     * @param depth the number of waiting requests
+     */
+    void queued(final int depth)
+    {
+        queueDepth = depth;
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return queueDepth;
+    }
+
+    @Override
+    public int getActiveGames()
+    {
+        return games.size();
+    }
+
+    @Override
+    public long getGamesStarted()
+    {
+        return gamesStarted.count();
+    }
+
+    @Override
+    public long getGamesFinished()
+    {
+        return gamesFinished.count();
+    }
+
+    @Override
+    public double getGamesStartedPerSecond()
+    {
+        return gamesStarted.rate();
+    }
+
+    @Override
+    public double getGamesFinishedPerSecond()
+    {
+        return gamesFinished.rate();
+    }
+
+    @Override
+    public double getMovesPerSecond()
+    {
+        return moves.rate();
+    }
+
+    @Override
+    public double getTurnLatencyP50Millis()
+    {
+        return turnLatency.snapshot().p50() / 1000.0;
+    }
+
+    @Override
+    public double getTurnLatencyP90Millis()
+    {
+        return turnLatency.snapshot().p90() / 1000.0;
+    }
+
+    @Override
+    public double getTurnLatencyP99Millis()
+    {
+        return turnLatency.snapshot().p99() / 1000.0;
+    }
+
+    @Override
+    public int getLiveConnections()
+    {
+        return queueDepth + games.values()
+                                 .stream()
+                                 .mapToInt(GameServer::getConnectedClients)
+                                 .sum();
+    }
+
+    @Override
+    public long getDisconnects()
+    {
+        return disconnects.get();
+    }
+
+    @Override
+    public long getTimeouts()
+    {
+        return timeouts.get();
+    }
+
+    @Override
+    public long getAbandonedRequests()
+    {
+        return abandonedRequests.get();
+    }
+
+    @Override
+    public String[] listGames()
+    {
+        return games.values()
+                    .stream()
+                    .map(game -> String.format("%s %s moves=%d clients=%d/%d",
+                                               game.getGameID(),
+                                               game.isStarted() ? "started" : "waiting",
+                                               game.getMoves(),
+                                               game.getConnectedClients(),
+                                               game.getHumanCount()))
+                    .sorted()
+                    .toArray(String[]::new);
+    }
+
+    @Override
+    public boolean terminateGame(final String gameID)
+    {
+        final GameServer game;
+        game = games.get(gameID);
+        if(game == null)
+        {
+            return false;
+        }
+        game.terminate();
+        return true;
+    }
+
+    @Override
+    public String[] lastGames(final String player,
+                              final int count)
+    {
+        return results.lastGames(player, count)
+                      .stream()
+                      .map(result -> String.format("%s %s winner=%s moves=%d duration=%ds",
+                                                   result.gameID(),
+                                                   String.join(",", result.players()),
+                                                   result.winner() == GameResult.TIE
+                                                   ? "tie"
+                                                   : result.players().get(result.winner()),
+                                                   result.moves().size(),
+                                                   (result.endMillis() - result.startMillis()) / 1000))
+                      .toArray(String[]::new);
+    }
+
+    @Override
+    public double winRate(final String player)
+    {
+        return results.tally(player).winRate();
+    }
+
+    @Override
+    public String headToHead(final String player,
+                             final String opponent)
+    {
+        final ResultsStore.HeadToHead headToHead;
+        headToHead = results.headToHead(player, opponent);
+        return String.format("games=%d %s=%d %s=%d neither=%d",
+                             headToHead.games(),
+                             player, headToHead.firstWins(),
+                             opponent, headToHead.secondWins(),
+                             headToHead.neitherWins());
+    }
+
+    @Override
+    public int rank(final String player)
+    {
+        return leaderboard.rank(player);
+    }
+
+    @Override
+    public String[] topPlayers(final int count)
+    {
+        return leaderboard.top(count)
+                          .stream()
+                          .map(entry -> entry.rank() + " " + entry.rating() + " " + entry.player())
+                          .toArray(String[]::new);
+    }
+
+    /**
+     * Registers an MXBean in the platform MBean server,
+     * replacing any bean of the same name, e.g. from a previous server.
+     *
+     * @param bean the bean
+     * @param type the bean's type
+     * @param name the bean's name, or {@code null} if there is only one of its type
+     */
+    private static void register(final Object bean,
+                                 final String type,
+                                 final String name)
+    {
+        final MBeanServer server;
+        final ObjectName  objectName;
+
+        server     = ManagementFactory.getPlatformMBeanServer();
+        objectName = objectName(type, name);
+        try
+        {
+            if(server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(bean, objectName);
+        } catch(final JMException e)
+        {
+            throw new IllegalStateException("Could not register " + objectName, e);
+        }
+    }
+
+    private static void unregister(final String type,
+                                   final String name)
+    {
+        final MBeanServer server;
+        final ObjectName  objectName;
+
+        server     = ManagementFactory.getPlatformMBeanServer();
+        objectName = objectName(type, name);
+        try
+        {
+            if(server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+        } catch(final JMException e)
+        {
+            throw new IllegalStateException("Could not unregister " + objectName, e);
+        }
+    }
+
+    private static ObjectName objectName(final String type,
+                                         final String name)
+    {
+        try
+        {
+            return new ObjectName(DOMAIN + ":type=" + type + (name == null ? "" : ",name=" + name));
+        } catch(final JMException e)
+        {
+            throw new IllegalArgumentException("Invalid bean name: " + name, e);
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package mygame.multiplayer.services;
 
 import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import mygame.multiplayer.Protocol;
 import mygame.multiplayer.Service;
@@ -29,7 +29,7 @@ public final class Connection implements Service
     private static final int TIMEOUT_MILLIS = Scheduler.CLOCK_PERIOD_MILLIS +
                                               BUFFER_MILLIS;
 
-    private static final Map<Path, Connection> CONNECTIONS = new HashMap<>();
+    private static final Map<Path, Connection> CONNECTIONS = new ConcurrentHashMap<>();
     private static final int                   MAX_COUNTER = 100000;
 
     private final Path        path;
@@ -45,11 +45,23 @@ public final class Connection implements Service
      */
     public Connection(final Path connectionPath)
     {
-        if(CONNECTIONS.containsKey(connectionPath))
+        this(connectionPath, null);
+    }
+
+    /**
+     * Starts a connection that is maintained on an event loop's shard,
+     * without a timer thread of its own.
+     *
+     * @param connectionPath path to the connection file
+     * @param loop           the loop to write on, or {@code null} for a timer thread of its own
+     */
+    public Connection(final Path connectionPath,
+                      final EventLoop loop)
+    {
+        if(CONNECTIONS.putIfAbsent(connectionPath, this) != null)
         {
             throw new IllegalStateException("Connection already exists at this file");
         }
-        CONNECTIONS.put(connectionPath, this);
 
         final Path interruptSignal;
         interruptSignal = Protocol.getInterruptSignal(connectionPath);
@@ -57,7 +69,8 @@ public final class Connection implements Service
 
         this.path            = connectionPath;
         this.whenInterrupted = new FileMonitor(interruptSignal);
-        this.updater         = Scheduler.repeat(this::maintainConnection);
+        this.updater         = loop == null ? Scheduler.repeat(this, this::maintainConnection)
+                                            : loop.repeat(this, this::maintainConnection);
     }
 
     /**
@@ -96,6 +109,12 @@ public final class Connection implements Service
                 whenInterrupted.then(callback);
                 return this;
             }
+
+            @Override
+            public String toString()
+            {
+                return "Interruptible" + Connection.this;
+            }
         };
     }
 
@@ -104,16 +123,27 @@ public final class Connection implements Service
      * When the connection is lost, publishes the connection path and stops itself.
      * <p>
      * It does so by having a {@link FileMonitor} that monitors the connection file,
-     * with a callback that updates the internal clock;
-     * and a timer that periodically checks how long it's been since the last update;
-     * if it's been too long, it means the connection is lost.
+     * with a callback that records each update as a heartbeat;
+     * and a timer that periodically checks how suspicious the silence since
+     * the last heartbeat is, as the phi of a {@link PhiAccrual} detector,
+     * which learns how regular this connection's heartbeats are.
+     * Once phi reaches the monitor's threshold, the connection is lost.
+     * A higher threshold waits longer before calling a connection lost,
+     * but is wrong less often. The default is {@value #DEFAULT_PHI_THRESHOLD},
+     * i.e. wrong about once in a hundred million checks.
      */
     public static final class ConnectionMonitor extends Monitor<Path>
     {
+        /**
+         * The default suspicion at which a connection is lost.
+         */
+        public static final double DEFAULT_PHI_THRESHOLD = 8;
+
         private final Path        filePath;
         private final FileMonitor monitor;
+        private final double      phiThreshold;
 
-        private long lastUpdateTime;
+        private PhiAccrual detector;
 
         /**
          * Creates a connection monitor. Does not start until a callback is added.
@@ -122,22 +152,56 @@ public final class Connection implements Service
          */
         public ConnectionMonitor(final Path connectionPath)
         {
-            filePath = connectionPath;
-            monitor  = new FileMonitor(connectionPath);
+            this(connectionPath, null);
+        }
+
+        /**
+         * Creates a connection monitor that is polled by a {@link PollGroup}.
+         * Does not start until a callback is added.
+         * <p>
+         * Both the timeout check and the underlying {@link FileMonitor}
+         * are polled by the group.
+         *
+         * @param connectionPath path to the connection file
+         * @param group          the group watching the connection file's directory,
+         *                       or {@code null} to poll on its own clock
+         */
+        public ConnectionMonitor(final Path connectionPath,
+                                 final PollGroup group)
+        {
+            this(connectionPath, group, DEFAULT_PHI_THRESHOLD);
+        }
+
+        /**
+         * Creates a connection monitor that is polled by a {@link PollGroup},
+         * with a suspicion threshold of its own.
+         * Does not start until a callback is added.
+         *
+         * @param connectionPath path to the connection file
+         * @param group          the group watching the connection file's directory,
+         *                       or {@code null} to poll on its own clock
+         * @param phiThreshold   the suspicion at which the connection is lost
+         */
+        public ConnectionMonitor(final Path connectionPath,
+                                 final PollGroup group,
+                                 final double phiThreshold)
+        {
+            super(group);
+            filePath          = connectionPath;
+            monitor           = new FileMonitor(connectionPath, group);
+            this.phiThreshold = phiThreshold;
         }
 
         /**
          * Checks whether the connection is still active.
          * <p>
-         * If {@code current time - last update time} is larger
-         * than the scheduler's clock period plus a bit of buffer time,
-         * it means the connection is lost. In that case
+         * If the suspicion that it's lost has reached the threshold,
          * calls the callbacks with the connection path and stops the service.
          */
         @Override
         void poll()
         {
-            if(System.currentTimeMillis() - lastUpdateTime > TIMEOUT_MILLIS)
+            if(detector.phi(System.currentTimeMillis()) >= phiThreshold)
             {
                 publish(filePath);
                 stop();
@@ -147,8 +211,8 @@ public final class Connection implements Service
         @Override
         public void start()
         {
-            updateTime();
-            monitor.then(this::updateTime);
+            detector = new PhiAccrual(System.currentTimeMillis(), Scheduler.CLOCK_PERIOD_MILLIS);
+            monitor.then(this::heartbeat);
             super.start();
         }
 
@@ -159,9 +223,15 @@ public final class Connection implements Service
             super.stop();
         }
 
-        private void updateTime()
+        private void heartbeat()
+        {
+            detector.heartbeat(System.currentTimeMillis());
+        }
+
+        @Override
+        public String toString()
         {
-            lastUpdateTime = System.currentTimeMillis();
+            return "ConnectionMonitor[" + filePath + "]";
         }
     }
 
@@ -197,6 +267,12 @@ public final class Connection implements Service
         {
             whenInterrupted.stop();
         }
-        CONNECTIONS.remove(path);
+        CONNECTIONS.remove(path, this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Connection[" + path + "]";
     }
-}
\ No newline at end of file
+}
@@ -2,9 +2,11 @@ package mygame.multiplayer.services;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.Set;
 
 import mygame.multiplayer.Protocol;
 
@@ -26,8 +28,8 @@ import mygame.multiplayer.Protocol;
  */
 public final class DirectoryMonitor extends Monitor<Path>
 {
-    private final Path       directory;
-    private final List<Path> currentContent;
+    private final Path      directory;
+    private final Set<Path> currentContent;
 
     /**
      * Creates a directory change monitor.
@@ -37,8 +39,23 @@ public final class DirectoryMonitor extends Monitor<Path>
      */
     public DirectoryMonitor(final Path directory)
     {
+        this(directory, null);
+    }
+
+    /**
+     * Creates a directory change monitor that is polled by a {@link PollGroup}.
+     * The monitor does not start until a callback is added.
+     *
+     * @param directory path to the directory
+     * @param group     the group watching the directory,
+     *                  or {@code null} to poll on its own clock
+     */
+    public DirectoryMonitor(final Path directory,
+                            final PollGroup group)
+    {
+        super(group);
         this.directory = directory;
-        currentContent = Protocol.listDir(directory);
+        currentContent = new LinkedHashSet<>(Protocol.listDir(directory));
     }
 
     /**
@@ -48,31 +65,61 @@ public final class DirectoryMonitor extends Monitor<Path>
     @Override
     void poll()
     {
-        if(!Files.exists(directory))
+        final List<Path> listing;
+        listing = list();
+        if(listing == null)
         {
             return;
         }
 
+        final Set<Path>      newContent;
         final Iterator<Path> currentContentIter;
+
+        newContent         = new HashSet<>(listing);
         currentContentIter = currentContent.iterator();
         while(currentContentIter.hasNext())
         {
             final Path path;
             path = currentContentIter.next();
-            if(!Files.exists(path))
+            if(!newContent.contains(path))
             {
                 publish(path);
                 currentContentIter.remove();
             }
         }
 
-        Protocol.listDir(directory)
-                .stream()
-                .filter(Predicate.not(currentContent::contains))
-                .forEach(path ->
-                         {
-                             publish(path);
-                             currentContent.add(path);
-                         });
+        for(final Path path : listing)
+        {
+            if(currentContent.add(path))
+            {
+                publish(path);
+            }
+        }
+    }
+
+    /**
+     * Lists the directory, either from the group's scan or by itself.
+     *
+     * @return the directory's content, or {@code null} if it doesn't exist
+     */
+    private List<Path> list()
+    {
+        final PollGroup group;
+        group = getGroup();
+        if(group != null)
+        {
+            return group.list(directory);
+        }
+        if(!Files.exists(directory))
+        {
+            return null;
+        }
+        return Protocol.listDir(directory);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DirectoryMonitor[" + directory + "]";
     }
 }
@@ -0,0 +1,402 @@
+package mygame.multiplayer.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mygame.multiplayer.Service;
+import mygame.multiplayer.Subscriber;
+
+/**
+ * A mailbox that processes events one at a time, in the order they were posted.
+ * <p>
+ * Each {@link Monitor} calls its callbacks from its own thread, so an object
+ * reacting to several monitors would have its state accessed concurrently.
+ * If instead all of its callbacks are delivered through the same event loop
+ * (see {@link #deliver(Subscriber)}), its state is only ever touched
+ * by one event at a time, and needs no locks.
+ * <p>
+ * An event loop doesn't own a thread. Event loops are placed on a fixed set of
+ * shards, one per core, each with a single thread. A loop with pending events
+ * processes a batch of them on its shard's thread, then gives the thread back,
+ * so that a busy loop cannot starve the others.
+ * <p>
+ * A loop created with a key (e.g. a game ID) is placed by consistent hashing
+ * of the key, unless that shard already has noticeably more loops than average,
+ * in which case it goes to the least loaded shard. Periodic tasks of the loop
+ * (see {@link #repeat(Runnable)}) also run on its shard, so everything
+ * belonging to a loop stays on one core. Per-shard load can be read with {@link #shardStats}.
+ * <p>
+ * Stopping a loop releases its place on the shard.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class EventLoop implements Service
+{
+    private static final int                          SHARD_COUNT   = Runtime.getRuntime()
+                                                                             .availableProcessors();
+    private static final int                          VIRTUAL_NODES = 160;
+    private static final double                       MAX_IMBALANCE = 1.1;
+    private static final int                          BATCH_SIZE    = 64;
+    private static final Shard[]                      SHARDS        = new Shard[SHARD_COUNT];
+    private static final NavigableMap<Integer, Shard> RING          = new TreeMap<>();
+
+    static
+    {
+        for(int i = 0; i < SHARD_COUNT; i++)
+        {
+            SHARDS[i] = new Shard(i);
+            for(int node = 0; node < VIRTUAL_NODES; node++)
+            {
+                RING.put(hash("shard-" + i + "-" + node), SHARDS[i]);
+            }
+        }
+    }
+
+    private final Shard           shard;
+    private final Queue<Runnable> mailbox;
+    private final AtomicBoolean   scheduled;
+    private final AtomicBoolean   stopped;
+
+    /**
+     * The load of a shard.
+     *
+     * @param shard      the shard's index
+     * @param loops      how many live event loops are placed on it
+     * @param events     how many events it has processed
+     * @param busyMillis how long its thread has spent processing events and periodic tasks
+     * @param queued     how many drains and periodic tasks are waiting for its thread
+     */
+    public record ShardStats(int shard, int loops, long events, long busyMillis, int queued) {}
+
+    /**
+     * Creates an event loop on the least loaded shard.
+     */
+    public EventLoop()
+    {
+        this(leastLoaded());
+    }
+
+    /**
+     * Creates an event loop, placed by consistent hashing of a key.
+     *
+     * @param key the key, e.g. a game ID
+     */
+    public EventLoop(final String key)
+    {
+        this(place(key));
+    }
+
+    private EventLoop(final Shard shard)
+    {
+        this.shard = shard;
+        mailbox    = new ConcurrentLinkedQueue<>();
+        scheduled  = new AtomicBoolean(false);
+        stopped    = new AtomicBoolean(false);
+        shard.loops.incrementAndGet();
+    }
+
+    /**
+     * Adds an event to the mailbox. It will be run after all
+     * previously posted events, never at the same time as any of them.
+     * <p>
+     * If the event throws an exception, the program will crash,
+     * same as with {@link Scheduler#repeat}.
+     *
+     * @param event the event to run
+     */
+    public void post(final Runnable event)
+    {
+        mailbox.add(event);
+        schedule();
+    }
+
+    /**
+     * Wraps a callback so that instead of running right away,
+     * it is posted to this event loop.
+     * <p>
+     * For example:
+     * <pre>
+     *   When.fileChange(file).then(loop.deliver(this::doSomething));
+     * </pre>
+     *
+     * @param callback the callback to run on this event loop
+     * @param <T>      the type of argument the callback takes
+     * @return a {@link Subscriber} that posts the callback to this event loop
+     */
+    public <T> Subscriber<T> deliver(final Subscriber<T> callback)
+    {
+        return message -> post(() -> callback.update(message));
+    }
+
+    /**
+     * Wraps a parameterless callback so that instead of running right away,
+     * it is posted to this event loop.
+     *
+     * @param callback the callback to run on this event loop
+     * @return a {@link Runnable} that posts the callback to this event loop
+     */
+    public Runnable deliver(final Runnable callback)
+    {
+        return () -> post(callback);
+    }
+
+    /**
+     * Runs a task repeatedly on this loop's shard, at the scheduler's clock rate.
+     * The task never runs at the same time as this loop's events.
+     * <p>
+     * Same as {@link Scheduler#repeat(Runnable)}, but without a thread of its own.
+     *
+     * @param task the task to be run repeatedly
+     * @return a {@link Service} that stops the repetition
+     */
+    public Service repeat(final Runnable task)
+    {
+        return repeat(null, task);
+    }
+
+    /**
+     * Runs a task repeatedly on this loop's shard, instrumented under its owner's type.
+     *
+     * @param source what the task belongs to, e.g. a {@link PollGroup}
+     * @param task   the task to be run repeatedly
+     * @return a {@link Service} that stops the repetition
+     * @see #repeat(Runnable)
+     */
+    Service repeat(final Object source,
+                   final Runnable task)
+    {
+        final AtomicLong         nextTick;
+        final AtomicBoolean      cancelled;
+        final ScheduledFuture<?> future;
+
+        nextTick  = new AtomicLong(System.currentTimeMillis());
+        cancelled = new AtomicBoolean(false);
+        future    = shard.executor.scheduleAtFixedRate(
+                () -> shard.run(() -> Instrumentation.run(
+                        source,
+                        nextTick.getAndAdd(Scheduler.CLOCK_PERIOD_MILLIS),
+                        task)),
+                0,
+                Scheduler.CLOCK_PERIOD_MILLIS,
+                TimeUnit.MILLISECONDS);
+        Instrumentation.LIVE_REPEATERS.incrementAndGet();
+
+        return () ->
+        {
+            future.cancel(false);
+            if(cancelled.compareAndSet(false, true))
+            {
+                Instrumentation.LIVE_REPEATERS.decrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Posts an event to this loop once a delay has passed.
+     * <p>
+     * Same as {@link Scheduler#await(int)} followed by {@link #post},
+     * but without a thread of its own.
+     *
+     * @param delayMillis how long to wait, in milliseconds
+     * @param event       the event to run
+     * @return a {@link Service} that cancels the event if it hasn't been posted yet
+     */
+    public Service after(final int delayMillis,
+                         final Runnable event)
+    {
+        final ScheduledFuture<?> future;
+        future = shard.executor.schedule(() -> post(event), delayMillis, TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    /**
+     * Releases this loop's place on its shard, so that it no longer
+     * counts towards the shard's load. Events already posted still run.
+     */
+    @Override
+    public void stop()
+    {
+        if(stopped.compareAndSet(false, true))
+        {
+            shard.loops.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the load of every shard.
+     *
+     * @return one entry per shard
+     */
+    public static List<ShardStats> shardStats()
+    {
+        final List<ShardStats> stats;
+        stats = new ArrayList<>();
+        for(final Shard shard : SHARDS)
+        {
+            stats.add(new ShardStats(shard.index,
+                                     shard.loops.get(),
+                                     shard.events.get(),
+                                     TimeUnit.NANOSECONDS.toMillis(shard.busyNanos.get()),
+                                     shard.executor.getQueue().size()));
+        }
+        return stats;
+    }
+
+    /**
+     * Hands this loop to its shard's thread, unless it already has it
+     * or has nothing to do.
+     */
+    private void schedule()
+    {
+        if(!mailbox.isEmpty() && scheduled.compareAndSet(false, true))
+        {
+            shard.executor.execute(() -> shard.run(this::drain));
+        }
+    }
+
+    /**
+     * Runs a batch of events, then gives the thread back
+     * and reschedules if there are still events left.
+     */
+    private void drain()
+    {
+        for(int i = 0; i < BATCH_SIZE; i++)
+        {
+            final Runnable event;
+            event = mailbox.poll();
+            if(event == null)
+            {
+                break;
+            }
+            event.run();
+            shard.events.incrementAndGet();
+        }
+        scheduled.set(false);
+        schedule();
+    }
+
+    /**
+     * Picks a shard for a key: the one the key hashes to on the ring,
+     * unless it's overloaded, then the least loaded one.
+     *
+     * @param key the key
+     * @return the shard
+     */
+    private static Shard place(final String key)
+    {
+        final Map.Entry<Integer, Shard> entry;
+        final Shard                     preferred;
+        final double                    averageLoops;
+
+        entry        = RING.ceilingEntry(hash(key));
+        preferred    = entry == null ? RING.firstEntry().getValue() : entry.getValue();
+        averageLoops = Arrays.stream(SHARDS)
+                             .mapToInt(shard -> shard.loops.get())
+                             .average()
+                             .orElse(0);
+
+        if(preferred.loops.get() > averageLoops * MAX_IMBALANCE + 1)
+        {
+            return leastLoaded();
+        }
+        return preferred;
+    }
+
+    private static Shard leastLoaded()
+    {
+        return Arrays.stream(SHARDS)
+                     .min(Comparator.comparingInt(shard -> shard.loops.get()))
+                     .orElseThrow();
+    }
+
+    /**
+     * Hashes a key onto the ring. {@link String#hashCode} alone clusters
+     * similar keys, so its bits are mixed (MurmurHash3's finalizer).
+     *
+     * @param key the key
+     * @return the position on the ring
+     */
+    private static int hash(final String key)
+    {
+        int h;
+        h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * A single-threaded executor, shared by the loops placed on it.
+     */
+    private static final class Shard
+    {
+        private final int                         index;
+        private final ScheduledThreadPoolExecutor executor;
+        private final AtomicInteger               loops;
+        private final AtomicLong                  events;
+        private final AtomicLong                  busyNanos;
+
+        /**
+         * Creates a shard and its thread.
+         * <p>
+         * Shard threads are daemons: it's the services feeding the loops
+         * that decide when the program is done, not the loops.
+         *
+         * @param index the shard's index
+         */
+        Shard(final int index)
+        {
+            this.index = index;
+            executor   = new ScheduledThreadPoolExecutor(1, task ->
+            {
+                final Thread thread;
+                thread = new Thread(task, "event-loop-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+            loops      = new AtomicInteger();
+            events     = new AtomicLong();
+            busyNanos  = new AtomicLong();
+        }
+
+        /**
+         * Runs a task on this shard's thread, accounting for the time it takes.
+         * Crashes the program if the task throws.
+         *
+         * @param task the task
+         */
+        void run(final Runnable task)
+        {
+            final long start;
+            start = System.nanoTime();
+            try
+            {
+                task.run();
+            } catch(final Exception e)
+            {
+                e.printStackTrace();
+                System.exit(1);
+            } finally
+            {
+                busyNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+    }
+}
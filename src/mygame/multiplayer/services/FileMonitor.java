@@ -11,6 +11,9 @@ import mygame.multiplayer.Protocol;
  * when there are, calls the callbacks with the new content.
  * <p>
  * If the file is deleted, the callbacks will get a {@code null} value.
+ * <p>
+ * When polled by a {@link PollGroup}, the file is only read
+ * if its {@link PollGroup.Stamp} has changed since the last poll.
  *
  * @author Felix Nguyen
  * @version 1
@@ -19,7 +22,8 @@ public final class FileMonitor extends Monitor<String>
 {
     private final Path file;
 
-    private String currentContent;
+    private String          currentContent;
+    private PollGroup.Stamp currentStamp;
 
     /**
      * Creates a file change monitor.
@@ -29,6 +33,21 @@ public final class FileMonitor extends Monitor<String>
      */
     public FileMonitor(final Path file)
     {
+        this(file, null);
+    }
+
+    /**
+     * Creates a file change monitor that is polled by a {@link PollGroup}.
+     * The monitor does not start until a callback is added.
+     *
+     * @param file  path to the file
+     * @param group the group watching the file's directory,
+     *              or {@code null} to poll on its own clock
+     */
+    public FileMonitor(final Path file,
+                       final PollGroup group)
+    {
+        super(group);
         this.file           = file;
         this.currentContent = Protocol.read(file);
     }
@@ -40,8 +59,24 @@ public final class FileMonitor extends Monitor<String>
     @Override
     void poll()
     {
-        final String newContent;
-        newContent = Protocol.read(file);
+        final PollGroup group;
+        final String    newContent;
+
+        group = getGroup();
+        if(group == null)
+        {
+            newContent = Protocol.read(file);
+        } else
+        {
+            final PollGroup.Stamp stamp;
+            stamp = group.stamp(file);
+            if(stamp != null && stamp.equals(currentStamp) && stamp.isPrecise())
+            {
+                return;
+            }
+            currentStamp = stamp;
+            newContent   = stamp == null ? null : group.read(file);
+        }
 
         if(newContent != null && !newContent.equals(currentContent) ||
            currentContent != null && !currentContent.equals(newContent))
@@ -50,4 +85,10 @@ public final class FileMonitor extends Monitor<String>
             currentContent = newContent;
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public String toString()
+    {
+        return "FileMonitor[" + file + "]";
+    }
+}
@@ -0,0 +1,286 @@
+package mygame.multiplayer.services;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mygame.multiplayer.Subscriber;
+
+/**
+ * Adapts a {@link PublisherService} to a {@link Flow.Publisher}.
+ * <p>
+ * A {@link PublisherService} calls its callbacks synchronously, in the thread
+ * that publishes, so a slow callback (e.g. one that prints to the terminal)
+ * holds up the monitor that publishes. A bridge instead only puts the message
+ * in each subscriber's bounded buffer, then returns. Messages are delivered to
+ * the subscriber on its own {@link EventLoop}, one at a time and only as many
+ * as it has {@link Flow.Subscription#request requested}.
+ * <p>
+ * When a subscriber's buffer is full, the {@link Overflow} policy decides which
+ * message is lost, so that a slow subscriber can never slow down the publisher.
+ * <p>
+ * {@link Flow} does not allow {@code null} messages, so those
+ * (e.g. a {@link FileMonitor} reporting a deleted file) are not delivered.
+ * <p>
+ * The bridge is a callback of its source until it's {@link #close closed}.
+ * It doesn't start or stop the source; its owner does.
+ * <p>
+ * Used by the {@code Spectator}, which prints the board on every change
+ * of the game's broadcast, so that printing doesn't hold up the monitor.
+ *
+ * @param <T> the type of messages published
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class FlowBridge<T> implements Flow.Publisher<T>
+{
+    /**
+     * What to do with a message when a subscriber's buffer is full.
+     */
+    public enum Overflow
+    {
+        /**
+         * Drop the oldest buffered message to make room for the new one.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Replace the newest buffered message with the new one.
+         * The subscriber skips intermediate values, but always ends up with the latest.
+         */
+        CONFLATE_LATEST
+    }
+
+    private final PublisherService<T>        source;
+    private final Subscriber<T>              forward;
+    private final int                        capacity;
+    private final Overflow                   overflow;
+    private final List<BufferedSubscription> subscriptions;
+    private final AtomicLong                 dropped;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a bridge and subscribes it to a {@link PublisherService},
+     * which starts it if it's not already started.
+     *
+     * @param source   the publisher to adapt
+     * @param capacity the maximum number of messages buffered per subscriber
+     * @param overflow what to do when a subscriber's buffer is full
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public FlowBridge(final PublisherService<T> source,
+                      final int capacity,
+                      final Overflow overflow)
+    {
+        if(capacity <= 0)
+        {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+
+        this.source   = source;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        forward       = this::offer;
+        subscriptions = new CopyOnWriteArrayList<>();
+        dropped       = new AtomicLong();
+
+        source.then(forward);
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super T> subscriber)
+    {
+        final BufferedSubscription subscription;
+        subscription = new BufferedSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscription.loop.post(() -> subscriber.onSubscribe(subscription));
+        if(closed)
+        {
+            subscriptions.remove(subscription);
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Detaches from the source and completes all subscriptions.
+     * Messages already buffered are still delivered before completion;
+     * those the source publishes from now on, even if it was already
+     * publishing them, are not.
+     */
+    public void close()
+    {
+        closed = true;
+        source.detach(forward);
+        subscriptions.forEach(BufferedSubscription::complete);
+        subscriptions.clear();
+    }
+
+    /**
+     * Gets how many messages have been dropped so far,
+     * across all subscribers, because of full buffers.
+     *
+     * @return the number of dropped messages
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Buffers a message for all subscribers.
+     * Called in the publisher's thread, so it must never block.
+     *
+     * @param message the published message
+     */
+    private void offer(final T message)
+    {
+        if(message == null || closed)
+        {
+            return;
+        }
+        subscriptions.forEach(subscription -> subscription.offer(message));
+    }
+
+    /**
+     * A subscription with its own bounded buffer and demand counter.
+     */
+    private final class BufferedSubscription implements Flow.Subscription
+    {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final EventLoop                  loop;
+        private final ArrayDeque<T>              buffer;
+        private final AtomicLong                 demand;
+        private final AtomicBoolean              draining;
+
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+
+        /**
+         * Creates a subscription.
+         *
+         * @param subscriber the subscriber to deliver to
+         */
+        BufferedSubscription(final Flow.Subscriber<? super T> subscriber)
+        {
+            this.subscriber = subscriber;
+            loop            = new EventLoop();
+            buffer          = new ArrayDeque<>(capacity);
+            demand          = new AtomicLong();
+            draining        = new AtomicBoolean(false);
+        }
+
+        @Override
+        public void request(final long n)
+        {
+            if(n <= 0)
+            {
+                cancel();
+                loop.post(() -> subscriber.onError(
+                        new IllegalArgumentException("Requested a non-positive number of messages")));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) ->
+            {
+                final long sum;
+                sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            scheduleDrain();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            subscriptions.remove(this);
+            loop.stop();
+        }
+
+        /**
+         * Buffers a message, applying the overflow policy if the buffer is full.
+         * Once the subscription is complete, messages are ignored.
+         *
+         * @param message the message
+         */
+        void offer(final T message)
+        {
+            if(cancelled || completed)
+            {
+                return;
+            }
+            synchronized(buffer)
+            {
+                if(buffer.size() >= capacity)
+                {
+                    dropped.incrementAndGet();
+                    switch(overflow)
+                    {
+                        case DROP_OLDEST -> buffer.pollFirst();
+                        case CONFLATE_LATEST -> buffer.pollLast();
+                    }
+                }
+                buffer.addLast(message);
+            }
+            scheduleDrain();
+        }
+
+        /**
+         * Marks the subscription complete. The subscriber is notified
+         * once its buffer is drained.
+         */
+        void complete()
+        {
+            completed = true;
+            scheduleDrain();
+        }
+
+        /**
+         * Posts a drain to the loop, unless one is already pending.
+         */
+        private void scheduleDrain()
+        {
+            if(draining.compareAndSet(false, true))
+            {
+                loop.post(this::drain);
+            }
+        }
+
+        /**
+         * Delivers buffered messages while there is demand for them.
+         */
+        private void drain()
+        {
+            draining.set(false);
+            while(!cancelled && demand.get() > 0)
+            {
+                final T message;
+                synchronized(buffer)
+                {
+                    message = buffer.pollFirst();
+                }
+                if(message == null)
+                {
+                    break;
+                }
+                demand.decrementAndGet();
+                subscriber.onNext(message);
+            }
+
+            final boolean empty;
+            synchronized(buffer)
+            {
+                empty = buffer.isEmpty();
+            }
+            if(completed && empty && !cancelled)
+            {
+                cancelled = true;
+                loop.stop();
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package mygame.multiplayer.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative durations, in microseconds.
+ * <p>
+ * Values are counted in buckets of powers of two (bucket {@code i} holds
+ * values with a bit length of {@code i}), so recording is a few atomic increments,
+ * never blocks, and takes constant memory however many values are recorded.
+ * The price is that percentiles are only accurate to within a factor of two,
+ * which is plenty for telling a 1 ms callback from a 100 ms one.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class Histogram
+{
+    private static final int BUCKETS = Long.SIZE;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong      count;
+    private final AtomicLong      sum;
+    private final AtomicLong      max;
+
+    /**
+     * A point-in-time view of a histogram.
+     *
+     * @param count how many values were recorded
+     * @param mean  the mean value, in microseconds
+     * @param p50   the median, in microseconds
+     * @param p90   the 90th percentile, in microseconds
+     * @param p99   the 99th percentile, in microseconds
+     * @param max   the largest value, in microseconds
+     */
+    public record Snapshot(long count, double mean, long p50, long p90, long p99, long max) {}
+
+    /**
+     * Creates an empty histogram.
+     */
+    public Histogram()
+    {
+        buckets = new AtomicLongArray(BUCKETS);
+        count   = new AtomicLong();
+        sum     = new AtomicLong();
+        max     = new AtomicLong();
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param micros the value, in microseconds
+     */
+    public void record(final long micros)
+    {
+        final long value;
+        value = Math.max(0, micros);
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Records the time elapsed since a given instant.
+     *
+     * @param startNanos the instant, as given by {@link System#nanoTime}
+     */
+    public void recordSince(final long startNanos)
+    {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Takes a snapshot of the histogram.
+     * Values recorded while the snapshot is taken may or may not be included.
+     *
+     * @return a snapshot
+     */
+    public Snapshot snapshot()
+    {
+        final long total;
+        total = count.get();
+        if(total == 0)
+        {
+            return new Snapshot(0, 0, 0, 0, 0, 0);
+        }
+        return new Snapshot(total,
+                            (double) sum.get() / total,
+                            percentile(0.5, total),
+                            percentile(0.9, total),
+                            percentile(0.99, total),
+                            max.get());
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket it falls in,
+     * capped by the largest recorded value.
+     *
+     * @param fraction the percentile, in range (0, 1]
+     * @param total    the number of values recorded
+     * @return the estimated percentile, in microseconds
+     */
+    private long percentile(final double fraction,
+                            final long total)
+    {
+        final long target;
+        long       seen;
+
+        target = (long) Math.ceil(fraction * total);
+        seen   = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            seen += buckets.get(i);
+            if(seen >= target)
+            {
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+}
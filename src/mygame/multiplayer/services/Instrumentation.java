@@ -0,0 +1,165 @@
+package mygame.multiplayer.services;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records how the {@link Scheduler}'s tasks are doing.
+ * <p>
+ * For each type of task (e.g. {@code FileMonitor}, {@code Connection}),
+ * records how late each tick starts compared to when it was scheduled,
+ * and how long each run takes. Runs slower than
+ * {@value #DEFAULT_SLOW_CALLBACK_MILLIS} ms (configurable with the
+ * {@code mygame.slowCallbackMillis} system property) are also logged,
+ * with the task's description (for monitors, the path they watch).
+ * <p>
+ * Read through {@link Scheduler#stats}, not for external use.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class Instrumentation
+{
+    static final AtomicInteger LIVE_REPEATERS = new AtomicInteger();
+    static final AtomicInteger LIVE_FUTURES   = new AtomicInteger();
+
+    private static final int DEFAULT_SLOW_CALLBACK_MILLIS = 100;
+    private static final int SLOW_CALLBACK_MILLIS         = Integer.getInteger(
+            "mygame.slowCallbackMillis",
+            DEFAULT_SLOW_CALLBACK_MILLIS);
+    private static final int SLOW_LOG_SIZE                = 64;
+    private static final int NOT_SCHEDULED                = -1;
+
+    private static final Map<String, Histogram>         DRIFT    = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram>         DURATION = new ConcurrentHashMap<>();
+    private static final Deque<Scheduler.SlowCallback> SLOW_LOG = new ArrayDeque<>();
+
+    /**
+     * Runs a task that was scheduled for a given time, recording its drift and duration.
+     *
+     * @param source          what the task belongs to; its class is the task type
+     *                        and its description goes in the slow-callback log
+     * @param scheduledMillis when the task was supposed to start
+     * @param task            the task
+     */
+    static void run(final Object source,
+                    final long scheduledMillis,
+                    final Runnable task)
+    {
+        final String type;
+        final long   startNanos;
+        final long   durationMillis;
+
+        type = typeOf(source);
+        if(scheduledMillis != NOT_SCHEDULED)
+        {
+            histogram(DRIFT, type).record(1000 * (System.currentTimeMillis() - scheduledMillis));
+        }
+
+        startNanos = System.nanoTime();
+        try
+        {
+            task.run();
+        } finally
+        {
+            histogram(DURATION, type).recordSince(startNanos);
+            durationMillis = (System.nanoTime() - startNanos) / 1_000_000;
+            if(durationMillis >= SLOW_CALLBACK_MILLIS)
+            {
+                logSlowCallback(new Scheduler.SlowCallback(System.currentTimeMillis(),
+                                                           String.valueOf(source),
+                                                           durationMillis));
+            }
+        }
+    }
+
+    /**
+     * Runs a task that has no scheduled start time (e.g. a monitor polled by its group),
+     * recording its duration.
+     *
+     * @param source what the task belongs to
+     * @param task   the task
+     */
+    static void run(final Object source,
+                    final Runnable task)
+    {
+        run(source, NOT_SCHEDULED, task);
+    }
+
+    /**
+     * Takes a snapshot of everything recorded so far.
+     *
+     * @return a snapshot
+     */
+    static Scheduler.Stats snapshot()
+    {
+        final List<Scheduler.SlowCallback> slowCallbacks;
+        synchronized(SLOW_LOG)
+        {
+            slowCallbacks = new ArrayList<>(SLOW_LOG);
+        }
+        return new Scheduler.Stats(snapshot(DRIFT),
+                                   snapshot(DURATION),
+                                   LIVE_REPEATERS.get(),
+                                   LIVE_FUTURES.get(),
+                                   ManagementFactory.getThreadMXBean().getThreadCount(),
+                                   slowCallbacks);
+    }
+
+    private static Map<String, Histogram.Snapshot> snapshot(final Map<String, Histogram> histograms)
+    {
+        final Map<String, Histogram.Snapshot> snapshots;
+        snapshots = new TreeMap<>();
+        histograms.forEach((type, histogram) -> snapshots.put(type, histogram.snapshot()));
+        return snapshots;
+    }
+
+    private static Histogram histogram(final Map<String, Histogram> histograms,
+                                       final String type)
+    {
+        return histograms.computeIfAbsent(type, ignored -> new Histogram());
+    }
+
+    private static void logSlowCallback(final Scheduler.SlowCallback entry)
+    {
+        synchronized(SLOW_LOG)
+        {
+            if(SLOW_LOG.size() >= SLOW_LOG_SIZE)
+            {
+                SLOW_LOG.removeFirst();
+            }
+            SLOW_LOG.addLast(entry);
+        }
+    }
+
+    /**
+     * Gets a task's type: the name of the class it belongs to.
+     *
+     * @param source what the task belongs to
+     * @return the task type
+     */
+    private static String typeOf(final Object source)
+    {
+        if(source == null)
+        {
+            return "task";
+        }
+
+        Class<?> type;
+        type = source.getClass();
+        while(type.isAnonymousClass())
+        {
+            type = type.getSuperclass();
+        }
+        return type.getSimpleName();
+    }
+
+    private Instrumentation() {}
+}
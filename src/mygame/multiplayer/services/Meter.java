@@ -0,0 +1,94 @@
+package mygame.multiplayer.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts events, and how many happen per second.
+ * <p>
+ * Events are counted in one slot per second, in a ring covering the last
+ * {@value #WINDOW_SECONDS} seconds, so the rate is the average over
+ * the last complete seconds rather than since the start, and takes
+ * constant memory however many events are counted.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class Meter
+{
+    private static final int WINDOW_SECONDS = 10;
+    private static final int SLOTS          = WINDOW_SECONDS + 1;
+
+    private final AtomicLong total;
+    private final long[]     seconds;
+    private final long[]     counts;
+
+    /**
+     * Creates a meter that has counted nothing.
+     */
+    public Meter()
+    {
+        total   = new AtomicLong();
+        seconds = new long[SLOTS];
+        counts  = new long[SLOTS];
+    }
+
+    /**
+     * Counts one event.
+     */
+    public void mark()
+    {
+        final long now;
+        final int  slot;
+
+        now  = currentSecond();
+        slot = (int) (now % SLOTS);
+        total.incrementAndGet();
+        synchronized(this)
+        {
+            if(seconds[slot] != now)
+            {
+                seconds[slot] = now;
+                counts[slot]  = 0;
+            }
+            counts[slot]++;
+        }
+    }
+
+    /**
+     * Gets how many events were counted in total.
+     *
+     * @return the number of events
+     */
+    public long count()
+    {
+        return total.get();
+    }
+
+    /**
+     * Gets how many events happened per second,
+     * on average over the last {@value #WINDOW_SECONDS} complete seconds.
+     *
+     * @return the rate, in events per second
+     */
+    public synchronized double rate()
+    {
+        final long now;
+        long       sum;
+
+        now = currentSecond();
+        sum = 0;
+        for(int slot = 0; slot < SLOTS; slot++)
+        {
+            if(seconds[slot] < now && seconds[slot] >= now - WINDOW_SECONDS)
+            {
+                sum += counts[slot];
+            }
+        }
+        return (double) sum / WINDOW_SECONDS;
+    }
+
+    private static long currentSecond()
+    {
+        return System.currentTimeMillis() / 1000;
+    }
+}
@@ -9,6 +9,10 @@ import mygame.multiplayer.services.Connection.ConnectionMonitor;
  * An abstract {@link PublisherService} that periodically
  * polls something and calls the callbacks with the result if there is an update.
  * This "something" must be implemented by the {@link #poll} method.
+ * <p>
+ * By default each monitor polls on its own clock (see {@link Scheduler#repeat}).
+ * Monitors created with a {@link PollGroup} are instead polled by the group,
+ * together with the other monitors of the same directory.
  *
  * @param <T> the type of argument the callbacks may take
  * @author Felix Nguyen
@@ -19,12 +23,39 @@ import mygame.multiplayer.services.Connection.ConnectionMonitor;
  */
 public abstract class Monitor<T> extends PublisherService<T>
 {
+    private final PollGroup group;
+
     private Service timer;
 
     /**
      * Creates a monitor. The monitor does not start until a callback is added.
      */
-    public Monitor() {}
+    public Monitor()
+    {
+        this(null);
+    }
+
+    /**
+     * Creates a monitor that is polled by a {@link PollGroup}.
+     * The monitor does not start until a callback is added.
+     *
+     * @param group the group to be polled by,
+     *              or {@code null} to poll on its own clock
+     */
+    public Monitor(final PollGroup group)
+    {
+        this.group = group;
+    }
+
+    /**
+     * Gets the group this monitor is polled by.
+     *
+     * @return the group, or {@code null} if it polls on its own clock
+     */
+    final PollGroup getGroup()
+    {
+        return group;
+    }
 
     /**
      * This method is called periodically to check for changes.
@@ -37,7 +68,9 @@ public abstract class Monitor<T> extends PublisherService<T>
     {
         if(timer == null)
         {
-            timer = Scheduler.repeat(this::poll);
+            timer = group == null
+                    ? Scheduler.repeat(this, this::poll)
+                    : group.add(this);
         }
     }
 
@@ -79,6 +112,22 @@ public abstract class Monitor<T> extends PublisherService<T>
             return new FileMonitor(file);
         }
 
+        /**
+         * Creates a file change monitor that is polled by a {@link PollGroup}.
+         * The monitor does not start until a callback is added.
+         *
+         * @param file  path to the file
+         * @param group the group watching the file's directory
+         * @return a {@link PublisherService} that publishes the new content of the file every
+         * time it changes
+         * @see FileMonitor
+         */
+        public static PublisherService<String> fileChange(final Path file,
+                                                          final PollGroup group)
+        {
+            return new FileMonitor(file, group);
+        }
+
         /**
          * Creates a directory change monitor.
          * The monitor does not start until a callback is added.
@@ -93,6 +142,22 @@ public abstract class Monitor<T> extends PublisherService<T>
             return new DirectoryMonitor(directory);
         }
 
+        /**
+         * Creates a directory change monitor that is polled by a {@link PollGroup}.
+         * The monitor does not start until a callback is added.
+         *
+         * @param directory path to the directory
+         * @param group     the group watching the directory
+         * @return a {@link DirectoryMonitor} that publishes new paths when they are added to the
+         * directory
+         * @see DirectoryMonitor
+         */
+        public static PublisherService<Path> directoryChange(final Path directory,
+                                                             final PollGroup group)
+        {
+            return new DirectoryMonitor(directory, group);
+        }
+
         /**
          * Creates a connection monitor.
          * The monitor does not start until a callback is added.
@@ -107,6 +172,42 @@ public abstract class Monitor<T> extends PublisherService<T>
             return new ConnectionMonitor(connectionPath);
         }
 
+        /**
+         * Creates a connection monitor that is polled by a {@link PollGroup}.
+         * The monitor does not start until a callback is added.
+         *
+         * @param connectionPath path to the connection file
+         * @param group          the group watching the connection file's directory
+         * @return a {@link PublisherService} that publishes the connection path when the
+         * connection is lost
+         * @see ConnectionMonitor
+         */
+        public static PublisherService<Path> connectionLost(final Path connectionPath,
+                                                            final PollGroup group)
+        {
+            return new ConnectionMonitor(connectionPath, group);
+        }
+
+        /**
+         * Creates a connection monitor with a suspicion threshold of its own,
+         * polled by a {@link PollGroup}, or on its own clock.
+         * The monitor does not start until a callback is added.
+         *
+         * @param connectionPath path to the connection file
+         * @param group          the group watching the connection file's directory,
+         *                       or {@code null} to poll on its own clock
+         * @param phiThreshold   the suspicion at which the connection is lost
+         * @return a {@link PublisherService} that publishes the connection path when the
+         * connection is lost
+         * @see ConnectionMonitor
+         */
+        public static PublisherService<Path> connectionLost(final Path connectionPath,
+                                                            final PollGroup group,
+                                                            final double phiThreshold)
+        {
+            return new ConnectionMonitor(connectionPath, group, phiThreshold);
+        }
+
         private When() {}
     }
 }
@@ -0,0 +1,91 @@
+package mygame.multiplayer.services;
+
+/**
+ * An adaptive failure detector for one connection's heartbeats: the phi accrual detector.
+ * <p>
+ * Instead of a fixed timeout, it learns the distribution of the time between
+ * heartbeats, as an exponentially weighted mean and variance, and gives the suspicion
+ * that the connection is lost as phi: minus the base-10 logarithm of the probability
+ * that a heartbeat would come later than now, were the connection alive.
+ * A phi of 1 means a 10% chance of being wrong to call the connection lost,
+ * 2 means 1%, 3 means 0.1%, and so on. So on a loaded host, where heartbeats
+ * drift, suspicion grows more slowly than on a quiet one.
+ * <p>
+ * The intervals are taken as normally distributed, with a standard deviation of at least
+ * {@value #MIN_STD_DEV_RATIO} times the expected interval, so that heartbeats
+ * that have been regular so far don't make the first late one look like a failure.
+ * <p>
+ * The state is four primitive fields, so it's cheap enough to keep
+ * for every connection. Not thread-safe: it's only used by its monitor's thread.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+final class PhiAccrual
+{
+    private static final double WEIGHT            = 1 / 8.0;
+    private static final double MIN_STD_DEV_RATIO = 0.2;
+    private static final double PRIOR_STD_DEV     = 0.25;
+
+    private final double minVariance;
+
+    private long   lastMillis;
+    private double mean;
+    private double variance;
+
+    /**
+     * Starts a detector, as if a heartbeat had just arrived.
+     *
+     * @param nowMillis              the current time
+     * @param expectedIntervalMillis how often heartbeats are sent,
+     *                               the first guess at the interval between them
+     */
+    PhiAccrual(final long nowMillis,
+               final double expectedIntervalMillis)
+    {
+        lastMillis  = nowMillis;
+        mean        = expectedIntervalMillis;
+        variance    = Math.pow(PRIOR_STD_DEV * expectedIntervalMillis, 2);
+        minVariance = Math.pow(MIN_STD_DEV_RATIO * expectedIntervalMillis, 2);
+    }
+
+    /**
+     * Records a heartbeat's arrival.
+     *
+     * @param nowMillis the current time
+     */
+    void heartbeat(final long nowMillis)
+    {
+        final double interval;
+        final double deviation;
+
+        interval   = nowMillis - lastMillis;
+        deviation  = interval - mean;
+        lastMillis = nowMillis;
+        mean      += WEIGHT * deviation;
+        variance   = (1 - WEIGHT) * (variance + WEIGHT * deviation * deviation);
+    }
+
+    /**
+     * Gets the suspicion that the connection is lost.
+     * <p>
+     * Uses a logistic approximation of the normal distribution,
+     * which stays accurate far into the tail, where phi is decided.
+     *
+     * @param nowMillis the current time
+     * @return phi, 0 or more
+     */
+    double phi(final long nowMillis)
+    {
+        final double y;
+        final double e;
+
+        y = (nowMillis - lastMillis - mean) / Math.sqrt(Math.max(variance, minVariance));
+        e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if(y > 0)
+        {
+            return -Math.log10(e / (1 + e));
+        }
+        return -Math.log10(1 - 1 / (1 + e));
+    }
+}
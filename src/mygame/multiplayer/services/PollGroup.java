@@ -0,0 +1,299 @@
+package mygame.multiplayer.services;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import mygame.multiplayer.Protocol;
+import mygame.multiplayer.Service;
+
+/**
+ * Polls a group of {@link Monitor}s watching the same directory,
+ * all on one clock.
+ * <p>
+ * Without a group, each monitor has its own timer and does its own reads,
+ * e.g. in a game directory, the server would poll every client's
+ * {@code move.txt} and {@code client.txt} separately.
+ * A group instead, once per tick, scans the directory once,
+ * recording the metadata of every file in it (see {@link Stamp}),
+ * then polls all its monitors:
+ * <ul>
+ *     <li>
+ *         A {@link FileMonitor} only reads its file if the metadata has changed,
+ *         and a file read this tick is not read again by another monitor.
+ *     </li>
+ *     <li>
+ *         A {@link DirectoryMonitor} takes its listing from the scan.
+ *     </li>
+ *     <li>
+ *         A {@link Connection.ConnectionMonitor} doesn't touch the file system at all.
+ *     </li>
+ * </ul>
+ * So the number of file system operations per tick is proportional to
+ * the number of entries in the directory plus the number of changed files,
+ * rather than to the number of monitors.
+ * <p>
+ * The scan goes {@value #SCAN_DEPTH} levels deep, which covers the layout of
+ * both a game directory and the requests directory (see {@link Protocol}).
+ * <p>
+ * The group starts its clock when its first monitor starts,
+ * and stops it when its last monitor stops. The clock is either a timer thread
+ * of its own, or, if the group belongs to an {@link EventLoop}, its loop's shard.
+ *
+ * @author Felix Nguyen
+ * @version 1
+ */
+public final class PollGroup
+{
+    private static final int SCAN_DEPTH = 2;
+
+    private final Path                  directory;
+    private final EventLoop             loop;
+    private final List<Monitor<?>>      members;
+    private final Map<Path, Stamp>      stamps;
+    private final Map<Path, List<Path>> listings;
+    private final Map<Path, String>     reads;
+
+    private Service timer;
+
+    /**
+     * Metadata of a file, as of the last scan.
+     * <p>
+     * If it hasn't changed, neither has the file's content, provided that
+     * the file system records modification times with sub-second precision.
+     * If it doesn't, two writes within the same second could have the same stamp,
+     * so the stamp cannot be trusted (see {@link #isPrecise}).
+     *
+     * @param modified the last modification time
+     * @param size     the file size in bytes
+     */
+    record Stamp(FileTime modified, long size)
+    {
+        /**
+         * Checks whether the modification time has sub-second precision.
+         *
+         * @return whether this stamp can be trusted to detect changes
+         */
+        boolean isPrecise()
+        {
+            return modified.to(TimeUnit.NANOSECONDS) % TimeUnit.SECONDS.toNanos(1) != 0;
+        }
+    }
+
+    /**
+     * Creates a poll group. It does not start until a monitor joins.
+     *
+     * @param directory the directory containing the files to watch
+     */
+    public PollGroup(final Path directory)
+    {
+        this(directory, null);
+    }
+
+    /**
+     * Creates a poll group that ticks on an event loop's shard,
+     * never at the same time as the loop's events.
+     * It does not start until a monitor joins.
+     *
+     * @param directory the directory containing the files to watch
+     * @param loop      the loop to tick on, or {@code null} for a timer thread of its own
+     */
+    public PollGroup(final Path directory,
+                     final EventLoop loop)
+    {
+        this.directory = directory;
+        this.loop      = loop;
+        members        = new CopyOnWriteArrayList<>();
+        stamps         = new HashMap<>();
+        listings       = new HashMap<>();
+        reads          = new HashMap<>();
+    }
+
+    /**
+     * Adds a monitor to the group, starting the group's clock if it's the first.
+     * <p>
+     * Called by {@link Monitor#start}, not for external use.
+     *
+     * @param monitor the monitor to poll every tick
+     * @return a {@link Service} that removes the monitor from the group
+     */
+    synchronized Service add(final Monitor<?> monitor)
+    {
+        members.add(monitor);
+        if(timer == null)
+        {
+            timer = loop == null
+                    ? Scheduler.repeat(this, this::tick)
+                    : loop.repeat(this, this::tick);
+        }
+        return () -> remove(monitor);
+    }
+
+    /**
+     * Removes a monitor from the group, stopping the group's clock if it's the last.
+     *
+     * @param monitor the monitor to remove
+     */
+    private synchronized void remove(final Monitor<?> monitor)
+    {
+        members.remove(monitor);
+        if(members.isEmpty() && timer != null)
+        {
+            timer.stop();
+            timer = null;
+        }
+    }
+
+    /**
+     * Gets the stamp of a file as of the last scan.
+     *
+     * @param file the file
+     * @return its stamp, or {@code null} if it didn't exist
+     */
+    Stamp stamp(final Path file)
+    {
+        return stamps.get(file);
+    }
+
+    /**
+     * Gets the content of a directory as of the last scan.
+     *
+     * @param dir the directory
+     * @return its content, or {@code null} if it didn't exist
+     */
+    List<Path> list(final Path dir)
+    {
+        return listings.get(dir);
+    }
+
+    /**
+     * Reads a file, at most once per tick no matter how many monitors ask.
+     *
+     * @param file the file
+     * @return its content, or {@code null} if it can't be read
+     * @see Protocol#read
+     */
+    String read(final Path file)
+    {
+        if(!reads.containsKey(file))
+        {
+            reads.put(file, Protocol.read(file));
+        }
+        return reads.get(file);
+    }
+
+    /**
+     * Scans the directory, then polls all monitors,
+     * each instrumented under its own type.
+     * <p>
+     * If the scan fails part way, the monitors are not polled this tick:
+     * what wasn't scanned would look missing to them,
+     * and they would report it gone, then back again next tick.
+     */
+    private void tick()
+    {
+        if(!scan())
+        {
+            return;
+        }
+        members.forEach(monitor -> Instrumentation.run(monitor, monitor::poll));
+    }
+
+    /**
+     * Records the stamp of every file and the listing
+     * of every directory, {@value #SCAN_DEPTH} levels deep.
+     *
+     * @return whether the whole directory was scanned
+     */
+    private boolean scan()
+    {
+        stamps.clear();
+        listings.clear();
+        reads.clear();
+
+        try
+        {
+            Files.walkFileTree(directory,
+                               EnumSet.noneOf(FileVisitOption.class),
+                               SCAN_DEPTH,
+                               new SimpleFileVisitor<>()
+                               {
+                                   @Override
+                                   public FileVisitResult preVisitDirectory(
+                                           final Path dir,
+                                           final BasicFileAttributes attributes)
+                                   {
+                                       record(dir, attributes);
+                                       listings.put(dir, new ArrayList<>());
+                                       return FileVisitResult.CONTINUE;
+                                   }
+
+                                   @Override
+                                   public FileVisitResult visitFile(
+                                           final Path file,
+                                           final BasicFileAttributes attributes)
+                                   {
+                                       record(file, attributes);
+                                       return FileVisitResult.CONTINUE;
+                                   }
+
+                                   @Override
+                                   public FileVisitResult visitFileFailed(
+                                           final Path file,
+                                           final IOException e)
+                                   {
+                                       /*
+                                        * The file was deleted between being listed and being visited.
+                                        * As far as this scan goes, it doesn't exist.
+                                        */
+                                       return FileVisitResult.CONTINUE;
+                                   }
+                               });
+        } catch(final IOException ignored)
+        {
+            /*
+             * The scan is incomplete, so nothing can tell a missing file
+             * from one that wasn't reached. Try again next tick.
+             */
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records an entry's stamp and adds it to its parent's listing.
+     *
+     * @param path       the entry
+     * @param attributes its attributes
+     */
+    private void record(final Path path,
+                        final BasicFileAttributes attributes)
+    {
+        final List<Path> siblings;
+
+        stamps.put(path, new Stamp(attributes.lastModifiedTime(), attributes.size()));
+        siblings = listings.get(path.getParent());
+        if(siblings != null)
+        {
+            siblings.add(path);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PollGroup[" + directory + "]";
+    }
+}
@@ -1,7 +1,7 @@
 package mygame.multiplayer.services;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import mygame.multiplayer.Publisher;
 import mygame.multiplayer.Service;
@@ -16,6 +16,8 @@ import mygame.multiplayer.Subscriber;
  * <p>
  * For convenience, callbacks that don't take any argument are also accepted.
  * When {@link #publish} is called, those will be called without the argument.
+ * <p>
+ * Callbacks may be added and removed on any thread, even while publishing.
  *
  * @param <T> the type of argument the callbacks may take
  * @author Felix Nguyen
@@ -24,7 +26,7 @@ import mygame.multiplayer.Subscriber;
  */
 public abstract class PublisherService<T> implements Publisher<T>, Service
 {
-    private final List<Subscriber<T>> callbacks = new ArrayList<>();
+    private final List<Subscriber<T>> callbacks = new CopyOnWriteArrayList<>();
 
     /**
      * Creates a publisher service.
@@ -79,4 +81,14 @@ public abstract class PublisherService<T> implements Publisher<T>, Service
     {
         callbacks.add(subscriber);
     }
+
+    /**
+     * Removes a callback. The service keeps running;
+     * whoever started it still stops it.
+     */
+    @Override
+    public final void detach(final Subscriber<T> subscriber)
+    {
+        callbacks.remove(subscriber);
+    }
 }
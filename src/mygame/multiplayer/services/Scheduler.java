@@ -1,14 +1,21 @@
 package mygame.multiplayer.services;
 
 import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
 import mygame.multiplayer.Service;
 
 /**
  * Utility class for service-related operations.
+ * <p>
+ * All repeated tasks are instrumented: how late their ticks start,
+ * how long they take, and how many repeaters and futures are alive
+ * can be read with {@link #stats}.
  *
  * @author Felix Nguyen
  * @version 1
@@ -22,10 +29,38 @@ public final class Scheduler
      * It's tempting to make this number as small as possible,
      * but if it's too small, the OS complains with a bunch of IO errors.
      */
-    static final int CLOCK_PERIOD_MILLIS = 500;
+    public static final int CLOCK_PERIOD_MILLIS = 500;
 
     private static final int IMMEDIATELY = 0;
 
+    /**
+     * A callback that took longer than expected.
+     *
+     * @param timeMillis     when it finished, in epoch milliseconds
+     * @param source         what it belongs to, e.g. a monitor and the path it watches
+     * @param durationMillis how long it took, in milliseconds
+     */
+    public record SlowCallback(long timeMillis, String source, long durationMillis) {}
+
+    /**
+     * A snapshot of the scheduler's instrumentation.
+     *
+     * @param drift         per task type, how late ticks started compared to their schedule
+     * @param duration      per task type, how long each run took
+     * @param liveRepeaters how many repeated tasks are running, whether on their own
+     *                      timer thread ({@link Scheduler#repeat}) or on an event loop
+     *                      ({@link EventLoop#repeat})
+     * @param liveFutures   how many {@link #await} threads are running
+     * @param liveThreads   how many threads the program has in total
+     * @param slowCallbacks the most recent slow runs, oldest first
+     */
+    public record Stats(Map<String, Histogram.Snapshot> drift,
+                        Map<String, Histogram.Snapshot> duration,
+                        int liveRepeaters,
+                        int liveFutures,
+                        int liveThreads,
+                        List<SlowCallback> slowCallbacks) {}
+
     /**
      * Run a task repeatedly in another thread.
      * <p>
@@ -42,8 +77,24 @@ public final class Scheduler
      */
     public static Service repeat(final Runnable task)
     {
-        final Timer timer;
-        timer = new Timer();
+        return repeat(null, task);
+    }
+
+    /**
+     * Run a task repeatedly in another thread, instrumented under its owner's type.
+     *
+     * @param source what the task belongs to, e.g. a {@link Monitor}
+     * @param task   the task to be run repeatedly
+     * @return a {@link Service} that stops the repetition
+     * @see #repeat(Runnable)
+     */
+    static Service repeat(final Object source,
+                          final Runnable task)
+    {
+        final Timer         timer;
+        final AtomicBoolean cancelled;
+        timer     = new Timer();
+        cancelled = new AtomicBoolean(false);
 
         timer.scheduleAtFixedRate(new TimerTask()
         {
@@ -52,7 +103,7 @@ public final class Scheduler
             {
                 try
                 {
-                    task.run();
+                    Instrumentation.run(source, scheduledExecutionTime(), task);
                 } catch(final Exception e)
                 {
                     e.printStackTrace();
@@ -60,8 +111,26 @@ public final class Scheduler
                 }
             }
         }, IMMEDIATELY, CLOCK_PERIOD_MILLIS);
+        Instrumentation.LIVE_REPEATERS.incrementAndGet();
 
-        return timer::cancel;
+        return () ->
+        {
+            timer.cancel();
+            if(cancelled.compareAndSet(false, true))
+            {
+                Instrumentation.LIVE_REPEATERS.decrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Takes a snapshot of the instrumentation of all scheduled tasks.
+     *
+     * @return a snapshot
+     */
+    public static Stats stats()
+    {
+        return Instrumentation.snapshot();
     }
 
     /**
@@ -201,12 +270,19 @@ public final class Scheduler
                             {
                                 throw e;
                             }
+                        } finally
+                        {
+                            Instrumentation.LIVE_FUTURES.decrementAndGet();
                         }
                     });
         }
 
         @Override
-        public void start() {thread.start();}
+        public void start()
+        {
+            Instrumentation.LIVE_FUTURES.incrementAndGet();
+            thread.start();
+        }
 
         @Override
         public void stop()
@@ -3,6 +3,8 @@
  * <p>
  * Contains {@link mygame.Main} for starting the game,
  * {@link mygame.Server} for starting the server,
+ * {@link mygame.LoadTest} for putting the server under load,
+ * {@link mygame.Tournament} for comparing move-selection algorithms,
  * and all sub-packages of the game system.
  * 
  * @author Felix Nguyen